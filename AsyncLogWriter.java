@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Single background writer for the event log. Producers enqueue without
+// locking and the writer thread appends whole batches in one write each.
+public class AsyncLogWriter {
+    public enum OverflowPolicy { BLOCK, DROP }
+
+    private final ConcurrentLinkedQueue<LogEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final EventLog eventLog;
+    private final Thread writerThread;
+    private final Object flushMonitor = new Object();
+    private volatile long written;
+    private volatile boolean closed;
+    private volatile boolean flushRequested;
+
+    public AsyncLogWriter(EventLog eventLog, int capacity, int batchSize,
+                          long flushIntervalMillis, OverflowPolicy overflowPolicy) {
+        if (capacity < 1 || batchSize < 1 || flushIntervalMillis < 1) {
+            throw new IllegalArgumentException("Log capacity, batch size and flush interval must be positive");
+        }
+        this.eventLog = eventLog;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.overflowPolicy = overflowPolicy;
+        this.writerThread = new Thread(this::run, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public boolean submit(LogEvent event) {
+        if (closed) {
+            return false;
+        }
+        while (true) {
+            int size = queued.get();
+            if (size < capacity) {
+                if (queued.compareAndSet(size, size + 1)) {
+                    break;
+                }
+                continue;
+            }
+            if (overflowPolicy == OverflowPolicy.DROP) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            // BLOCK: wake the writer and wait for it to make room
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            if (closed) {
+                return false;
+            }
+        }
+        queue.offer(event);
+        if (enqueued.incrementAndGet() % batchSize == 0) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
+    }
+
+    // Blocks until everything submitted before the call has been written to the event log.
+    public void flush() {
+        long target = enqueued.get();
+        synchronized (flushMonitor) {
+            while (written < target && writerThread.isAlive()) {
+                flushRequested = true;
+                LockSupport.unpark(writerThread);
+                try {
+                    flushMonitor.wait(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // Stops accepting entries and drains what is queued; the event log stays open.
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<LogEvent> batch = new ArrayList<>(batchSize);
+        long reportedDrops = 0;
+        while (true) {
+            boolean stopping = closed;
+            long deadline = System.nanoTime() + flushIntervalNanos;
+            while (!stopping && !flushRequested && queued.get() < batchSize) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+                stopping = closed;
+            }
+            flushRequested = false;
+
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                batch.add(LogEvent.message((drops - reportedDrops) + " log entries dropped: queue full"));
+                reportedDrops = drops;
+            }
+            LogEvent event;
+            long drained = 0;
+            while ((event = queue.poll()) != null) {
+                queued.decrementAndGet();
+                batch.add(event);
+                drained++;
+                if (batch.size() == batchSize) {
+                    writeBatch(batch);
+                }
+            }
+            writeBatch(batch);
+            if (drained > 0) {
+                written += drained;
+            }
+            synchronized (flushMonitor) {
+                flushMonitor.notifyAll();
+            }
+            if (stopping && queue.isEmpty()) {
+                break;
+            }
+        }
+    }
+
+    private void writeBatch(List<LogEvent> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            eventLog.append(batch);
+        } catch (IOException e) {
+            System.err.println("Error writing to event log: " + e.getMessage());
+        }
+        batch.clear();
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JTextArea;
+
+// Serves the customer queue from several collection counters at once. Each
+// counter has its own Worker and repeatedly serves the next customer whose
+// parcel is in the depot; customers still waiting for theirs keep their place.
+public class CounterPool {
+    private final Manager manager;
+    private final int counters;
+
+    public CounterPool(Manager manager, int counters) {
+        if (counters < 1) {
+            throw new IllegalArgumentException("At least one counter is required");
+        }
+        this.manager = manager;
+        this.counters = counters;
+    }
+
+    public int getCounters() {
+        return counters;
+    }
+
+    // Runs until the queue is empty, everyone left in it is waiting for a
+    // parcel, or as many serves as there are customers have failed in a row.
+    // Returns the number of customers served; output is shared by all counters.
+    public int drain(JTextArea output) throws InterruptedException {
+        QueueOfCustomers queue = manager.getCustomerQueue();
+        AtomicInteger served = new AtomicInteger();
+        AtomicInteger requeuedSinceServe = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i <= counters; i++) {
+            Worker worker = new Worker(RateTable.STANDARD, manager.getMetrics());
+            Thread thread = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()
+                        && requeuedSinceServe.get() <= queue.size()) {
+                    Manager.ServeResult result = manager.serveNextCustomer(worker, output);
+                    if (result == Manager.ServeResult.EMPTY || result == Manager.ServeResult.WAITING) {
+                        return;
+                    }
+                    if (result == Manager.ServeResult.SERVED) {
+                        served.incrementAndGet();
+                        requeuedSinceServe.set(0);
+                    } else {
+                        requeuedSinceServe.incrementAndGet();
+                    }
+                }
+            }, "counter-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            throw e;
+        }
+        return served.get();
+    }
+}
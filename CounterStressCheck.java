@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Drains a generated depot with several counters while another thread keeps
+// processing parcels by id, then checks that every parcel was released exactly
+// once and no customer was lost. Runs in a scratch directory.
+//
+//   java CounterStressCheck [parcels] [counters...]
+public class CounterStressCheck {
+    public static void main(String[] args) throws Exception {
+        int parcels = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int[] counterCounts = {1, 2, 4, 8};
+        if (args.length > 1) {
+            counterCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                counterCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        boolean passed = true;
+        for (int counters : counterCounts) {
+            passed &= run(parcels, counters);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(int parcels, int counters) throws Exception {
+        Path directory = Files.createTempDirectory("depot-stress");
+        try {
+            // Every tenth customer waits for a parcel that is not in the depot,
+            // and every fiftieth parcel has a second customer queued for it
+            int waiting = 0;
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(
+                    directory.resolve(Manager.PARCELS_FILE), StandardCharsets.UTF_8))) {
+                for (int i = 0; i < parcels; i++) {
+                    out.println("S" + i + "," + (1 + i % 20) + ",10,20,30");
+                }
+            }
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(
+                    directory.resolve(Manager.CUSTOMERS_FILE), StandardCharsets.UTF_8))) {
+                for (int i = 0; i < parcels; i++) {
+                    out.println("Customer " + i + ",S" + i);
+                    if (i % 50 == 0) {
+                        out.println("Duplicate " + i + ",S" + i);
+                        waiting++;
+                    }
+                    if (i % 10 == 0) {
+                        out.println("Waiting " + i + ",M" + i);
+                        waiting++;
+                    }
+                }
+            }
+
+            Manager manager = new Manager(directory);
+            manager.loadData();
+            TextAreaSink quiet = new TextAreaSink(text -> { });
+
+            // Competes with the counters for the same parcels
+            AtomicInteger directlyServed = new AtomicInteger();
+            Thread desk = new Thread(() -> {
+                for (int i = parcels - 1; i >= 0; i -= 7) {
+                    if (manager.processNextCustomer("S" + i, quiet)) {
+                        directlyServed.incrementAndGet();
+                    }
+                }
+            }, "desk");
+
+            long start = System.nanoTime();
+            desk.start();
+            int served = new CounterPool(manager, counters).drain(quiet);
+            desk.join();
+            long elapsed = System.nanoTime() - start;
+            manager.close();
+
+            StringBuilder failures = new StringBuilder();
+            int total = served + directlyServed.get();
+            check(failures, total == parcels, "served " + total + " customers for " + parcels + " parcels");
+            for (Parcel parcel : manager.getParcelMap().getAllParcels()) {
+                check(failures, parcel.getStatus() == ParcelStatus.RELEASED, parcel.getId() + " was not released");
+            }
+            check(failures, manager.getCustomerQueue().size() == waiting,
+                    manager.getCustomerQueue().size() + " customers left waiting, expected " + waiting);
+
+            ReleasedStore released = manager.getReleasedStore();
+            Map<String, Integer> releases = new HashMap<>();
+            for (int i = 0; i < released.size(); i++) {
+                releases.merge(released.getRecord(i).split(",")[1], 1, Integer::sum);
+            }
+            check(failures, released.size() == parcels, released.size() + " released records");
+            releases.forEach((id, count) -> check(failures, count == 1, id + " released " + count + " times"));
+
+            // A reload replays the journal and must agree with memory
+            Manager reloaded = new Manager(directory);
+            reloaded.loadData();
+            for (int i = 0; i < parcels; i++) {
+                if (reloaded.isParcelInDepot("S" + i)) {
+                    failures.append("S").append(i).append(" is back in the depot after replay\n");
+                    break;
+                }
+            }
+            check(failures, reloaded.getCustomerQueue().size() == waiting,
+                    "replay left " + reloaded.getCustomerQueue().size() + " customers, expected " + waiting);
+            reloaded.close();
+
+            double seconds = elapsed / 1e9;
+            System.out.printf("counters=%d parcels=%d served=%d desk=%d time=%.3fs throughput=%.0f/s %s%n",
+                    counters, parcels, served, directlyServed.get(), seconds, parcels / seconds,
+                    failures.length() == 0 ? "OK" : "FAILED");
+            System.out.print(failures);
+            return failures.length() == 0;
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static void check(StringBuilder failures, boolean condition, String message) {
+        if (!condition && failures.length() < 4096) {
+            failures.append(message).append('\n');
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            List<Path> paths = files.sorted(Comparator.reverseOrder()).toList();
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+// Table view over QueueOfCustomers, read by queue position on demand and kept
+// current by the queue's change events.
+public class CustomerTableModel extends AbstractTableModel implements QueueOfCustomers.Listener {
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMNS = {"Sequence", "Name", "Parcel ID", "Lane"};
+
+    private final QueueOfCustomers customerQueue;
+    // Rows the table has been told about; only touched on the EDT
+    private int rowCount;
+
+    public CustomerTableModel(QueueOfCustomers customerQueue) {
+        this.customerQueue = customerQueue;
+    }
+
+    // Call on the thread that mutates the queue so no event is missed or doubled
+    public void attach() {
+        int size = customerQueue.addListener(this);
+        SwingUtilities.invokeLater(() -> {
+            rowCount = size;
+            fireTableDataChanged();
+        });
+    }
+
+    public void detach() {
+        customerQueue.removeListener(this);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    // The lane column only means something when there is more than one
+    @Override
+    public int getColumnCount() {
+        return customerQueue.getLanePolicy().laneCount() > 1 ? COLUMNS.length : COLUMNS.length - 1;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 0 ? Integer.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Customer customer = customerQueue.getCustomerAt(row);
+        if (customer == null) {
+            return null;
+        }
+        switch (column) {
+            case 0:
+                return customer.getSequenceNumber();
+            case 1:
+                return customer.getName();
+            case 2:
+                return customer.getParcelId();
+            default:
+                int lane = customerQueue.laneOf(customer);
+                return lane < 0 ? null : customerQueue.getLanePolicy().laneName(lane);
+        }
+    }
+
+    @Override
+    public void customerAdded(int index) {
+        SwingUtilities.invokeLater(() -> {
+            rowCount++;
+            fireTableRowsInserted(index, index);
+        });
+    }
+
+    @Override
+    public void customerRemoved(int index) {
+        SwingUtilities.invokeLater(() -> {
+            rowCount--;
+            fireTableRowsDeleted(index, index);
+        });
+    }
+}
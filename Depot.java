@@ -0,0 +1,41 @@
+import java.util.List;
+
+import javax.swing.JTextArea;
+
+// The operations a depot offers its front ends, by parcel id with messages
+// written to a text area. Manager runs one depot directory; DepotShards runs
+// several behind one router.
+public interface Depot {
+    void loadData();
+
+    boolean processNextCustomer(String parcelId, JTextArea displayArea);
+
+    boolean processBatch(List<String> parcelIds, JTextArea displayArea);
+
+    void addNewCustomer(String name, String parcelId, JTextArea displayArea);
+
+    void addNewParcel(String id, double weight, String dimensions, JTextArea displayArea);
+
+    void removeCustomer(String name, String parcelId, JTextArea displayArea);
+
+    void removeParcel(String id, JTextArea displayArea);
+
+    void markParcelReady(String id, JTextArea displayArea);
+
+    void findReleasedParcel(String parcelId, JTextArea displayArea);
+
+    void displayCustomerQueue(JTextArea displayArea);
+
+    void displayParcels(JTextArea displayArea);
+
+    void displayProcessedParcels(JTextArea processedArea);
+
+    void displayLog(JTextArea displayArea);
+
+    // Queue length and parcel counts
+    void displayStats(JTextArea displayArea);
+
+    FeeCalculator.Result calculateOutstandingFees(RateTable rates);
+
+    void close();
+}
@@ -0,0 +1,574 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// Times the depot's hot paths on generated data and prints one result per
+// benchmark and row count, as JSON lines or CSV, so runs can be tracked over
+// time. Every benchmark is warmed up before its measured iterations, and
+// per-iteration setup is kept out of the timings.
+//
+//   java -Xmx4g DepotBenchmark [--rows 10000,100000,1000000] [--warmup 3] [--iterations 5]
+//        [--only loadData,loadDataWarm,loadParcels,loadCustomers,processNextCustomer,processBatch,
+//                calculateFee,calculateFeesBatch,outstandingFees,getParcel,removeCustomer,addEntry,addEvent,
+//                renderLog,rollOver]
+//        [--format json|csv] [--out results.json]
+public class DepotBenchmark {
+    private static final List<String> BENCHMARKS = List.of("loadData", "loadDataWarm", "loadParcels", "loadCustomers",
+            "processNextCustomer", "processBatch", "calculateFee", "calculateFeesBatch", "outstandingFees", "getParcel",
+            "removeCustomer", "addEntry", "addEvent", "renderLog", "rollOver");
+    // processNextCustomer, processBatch and the log benchmarks do real file I/O, so they
+    // run a fixed number of operations rather than one per row
+    private static final int PROCESS_OPS = 5000;
+    private static final int BATCH_SIZE = 100;
+    private static final int LOG_OPS = 100000;
+    private static final int LOOKUP_OPS = 1000000;
+    // Each rollover writes depot.day, whatever the number of parcels
+    private static final int ROLLOVER_OPS = 200;
+
+    // Keeps results alive so the JIT cannot drop the measured work
+    private static volatile double sink;
+
+    private interface Trial {
+        // Untimed preparation for one iteration
+        default void setUp() throws Exception {
+        }
+
+        // Timed part; returns the number of operations it performed
+        long run() throws Exception;
+
+        default void tearDown() throws Exception {
+        }
+    }
+
+    private static final class Result {
+        final String benchmark;
+        final int rows;
+        final long opsPerIteration;
+        final double[] nsPerOp;
+
+        Result(String benchmark, int rows, long opsPerIteration, double[] nsPerOp) {
+            this.benchmark = benchmark;
+            this.rows = rows;
+            this.opsPerIteration = opsPerIteration;
+            this.nsPerOp = nsPerOp;
+        }
+
+        double mean() {
+            return Arrays.stream(nsPerOp).average().orElse(0);
+        }
+
+        double min() {
+            return Arrays.stream(nsPerOp).min().orElse(0);
+        }
+
+        double stdev() {
+            double mean = mean();
+            double sum = 0;
+            for (double value : nsPerOp) {
+                sum += (value - mean) * (value - mean);
+            }
+            return nsPerOp.length > 1 ? Math.sqrt(sum / (nsPerOp.length - 1)) : 0;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] rowCounts = {10000, 100000, 1000000};
+        int warmup = 3;
+        int iterations = 5;
+        Set<String> selected = new LinkedHashSet<>(BENCHMARKS);
+        String format = "json";
+        Path out = null;
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--rows":
+                    rowCounts = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+                    i++;
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--only":
+                    selected = new LinkedHashSet<>(Arrays.asList(value.split(",")));
+                    i++;
+                    break;
+                case "--format":
+                    format = value;
+                    i++;
+                    break;
+                case "--out":
+                    out = Paths.get(value);
+                    i++;
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        for (String name : selected) {
+            if (!BENCHMARKS.contains(name)) {
+                System.err.println("Unknown benchmark: " + name + " (expected one of " + BENCHMARKS + ")");
+                System.exit(2);
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        Path root = Files.createTempDirectory("depot-bench");
+        try {
+            for (int rows : rowCounts) {
+                Path data = root.resolve("data-" + rows);
+                Files.createDirectories(data);
+                DepotDataGenerator.writeParcels(data.resolve(Manager.PARCELS_FILE), rows, 42L);
+                DepotDataGenerator.writeCustomers(data.resolve(Manager.CUSTOMERS_FILE), rows, 42L);
+                for (String name : selected) {
+                    Trial trial = createTrial(name, rows, data, root.resolve(name + "-" + rows));
+                    Result result = measure(name, rows, trial, warmup, iterations);
+                    System.err.printf("%-20s rows=%-9d %12.1f ns/op%n", name, rows, result.mean());
+                    results.add(result);
+                }
+            }
+        } finally {
+            deleteRecursively(root);
+        }
+
+        if (out == null) {
+            write(results, format, warmup, System.out);
+        } else {
+            try (PrintStream stream = new PrintStream(Files.newOutputStream(out), true, StandardCharsets.UTF_8)) {
+                write(results, format, warmup, stream);
+            }
+        }
+    }
+
+    private static Trial createTrial(String name, int rows, Path data, Path work) throws IOException {
+        switch (name) {
+            case "loadData":
+                return new Trial() {
+                    private Manager manager;
+
+                    @Override
+                    public void setUp() throws IOException {
+                        // loadData compacts into the directory on close, so each run gets a fresh copy
+                        copyData(data, work);
+                        manager = new Manager(work);
+                    }
+
+                    @Override
+                    public long run() {
+                        manager.loadData();
+                        return rows;
+                    }
+
+                    @Override
+                    public void tearDown() {
+                        manager.close();
+                    }
+                };
+            case "loadDataWarm":
+                return new Trial() {
+                    private Manager manager;
+
+                    // A first start and clean shutdown leaves a binary snapshot behind
+                    @Override
+                    public void setUp() throws IOException {
+                        copyData(data, work);
+                        Manager first = new Manager(work);
+                        first.loadData();
+                        first.close();
+                        manager = new Manager(work);
+                    }
+
+                    @Override
+                    public long run() {
+                        manager.loadData();
+                        return rows;
+                    }
+
+                    @Override
+                    public void tearDown() {
+                        manager.close();
+                    }
+                };
+            case "loadParcels":
+                return new Trial() {
+                    private Manager manager;
+
+                    @Override
+                    public void setUp() {
+                        manager = new Manager(data);
+                    }
+
+                    @Override
+                    public long run() {
+                        manager.loadParcels(data.resolve(Manager.PARCELS_FILE));
+                        return rows;
+                    }
+                };
+            case "loadCustomers":
+                return new Trial() {
+                    private Manager manager;
+
+                    @Override
+                    public void setUp() {
+                        manager = new Manager(data);
+                    }
+
+                    @Override
+                    public long run() {
+                        manager.loadCustomers(data.resolve(Manager.CUSTOMERS_FILE));
+                        return rows;
+                    }
+                };
+            case "processNextCustomer":
+                return new Trial() {
+                    private final TextAreaSink quiet = new TextAreaSink(text -> { });
+                    private Manager manager;
+                    private String[] parcelIds;
+
+                    @Override
+                    public void setUp() throws IOException {
+                        copyData(data, work);
+                        manager = new Manager(work);
+                        manager.loadData();
+                        QueueOfCustomers queue = manager.getCustomerQueue();
+                        parcelIds = new String[Math.min(PROCESS_OPS, queue.size())];
+                        for (int i = 0; i < parcelIds.length; i++) {
+                            parcelIds[i] = queue.getCustomerAt(i).getParcelId();
+                        }
+                    }
+
+                    @Override
+                    public long run() {
+                        int processed = 0;
+                        for (String parcelId : parcelIds) {
+                            if (manager.processNextCustomer(parcelId, quiet)) {
+                                processed++;
+                            }
+                        }
+                        sink = processed;
+                        return parcelIds.length;
+                    }
+
+                    @Override
+                    public void tearDown() {
+                        manager.close();
+                    }
+                };
+            case "processBatch":
+                return new Trial() {
+                    private final TextAreaSink quiet = new TextAreaSink(text -> { });
+                    private Manager manager;
+                    private List<List<String>> batches;
+
+                    @Override
+                    public void setUp() throws IOException {
+                        copyData(data, work);
+                        manager = new Manager(work);
+                        manager.loadData();
+                        QueueOfCustomers queue = manager.getCustomerQueue();
+                        int count = Math.min(PROCESS_OPS, queue.size());
+                        batches = new ArrayList<>();
+                        for (int i = 0; i < count; i += BATCH_SIZE) {
+                            List<String> batch = new ArrayList<>();
+                            for (int j = i; j < Math.min(i + BATCH_SIZE, count); j++) {
+                                batch.add(queue.getCustomerAt(j).getParcelId());
+                            }
+                            batches.add(batch);
+                        }
+                    }
+
+                    @Override
+                    public long run() {
+                        int processed = 0;
+                        long parcels = 0;
+                        for (List<String> batch : batches) {
+                            if (manager.processBatch(batch, quiet)) {
+                                processed++;
+                            }
+                            parcels += batch.size();
+                        }
+                        sink = processed;
+                        return parcels;
+                    }
+
+                    @Override
+                    public void tearDown() {
+                        manager.close();
+                    }
+                };
+            case "calculateFee": {
+                Parcel[] parcels = generateParcels(rows);
+                Worker worker = new Worker();
+                return () -> {
+                    double total = 0;
+                    for (Parcel parcel : parcels) {
+                        total += worker.calculateFee(parcel);
+                    }
+                    sink = total;
+                    return parcels.length;
+                };
+            }
+            case "calculateFeesBatch": {
+                Parcel[] parcels = generateParcels(rows);
+                double[] weights = new double[rows];
+                int[] days = new int[rows];
+                for (int i = 0; i < rows; i++) {
+                    weights[i] = parcels[i].getWeight();
+                    days[i] = i % 30;
+                }
+                double[] fees = new double[rows];
+                FeeCalculator calculator = new FeeCalculator();
+                return () -> {
+                    calculator.calculateFees(RateTable.STANDARD, weights, days, fees);
+                    sink = fees[fees.length - 1];
+                    return fees.length;
+                };
+            }
+            // Includes copying the columns out of the map
+            case "outstandingFees": {
+                ParcelMap parcelMap = new ParcelMap();
+                for (Parcel parcel : generateParcels(rows)) {
+                    parcelMap.addParcel(parcel);
+                }
+                FeeCalculator calculator = new FeeCalculator();
+                return () -> {
+                    FeeCalculator.Result result = calculator.calculate(RateTable.STANDARD,
+                            parcelMap.getColumns(ParcelStatus.IN_DEPOT, ParcelStatus.READY));
+                    sink = result.getTotal();
+                    return result.size();
+                };
+            }
+            case "getParcel": {
+                ParcelMap parcelMap = new ParcelMap();
+                for (Parcel parcel : generateParcels(rows)) {
+                    parcelMap.addParcel(parcel);
+                }
+                // A tenth of the lookups miss
+                Random random = new Random(7);
+                String[] ids = new String[LOOKUP_OPS];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = random.nextInt(10) == 0 ? "M" + i : DepotDataGenerator.parcelId(random.nextInt(rows));
+                }
+                return () -> {
+                    int found = 0;
+                    for (String id : ids) {
+                        if (parcelMap.getParcel(id) != null) {
+                            found++;
+                        }
+                    }
+                    sink = found;
+                    return ids.length;
+                };
+            }
+            // Walk-in traffic: customers leave from anywhere in the queue, found by parcel id
+            case "removeCustomer": {
+                Customer[] customers = new Customer[rows];
+                for (int i = 0; i < rows; i++) {
+                    customers[i] = new Customer("Customer " + i, DepotDataGenerator.parcelId(i), i + 1);
+                }
+                String[] parcelIds = new String[rows];
+                for (int i = 0; i < rows; i++) {
+                    parcelIds[i] = customers[i].getParcelId();
+                }
+                Collections.shuffle(Arrays.asList(parcelIds), new Random(7));
+                return new Trial() {
+                    private QueueOfCustomers queue;
+
+                    @Override
+                    public void setUp() {
+                        queue = new QueueOfCustomers();
+                        for (Customer customer : customers) {
+                            queue.addCustomer(customer);
+                        }
+                    }
+
+                    @Override
+                    public long run() {
+                        int removed = 0;
+                        for (String parcelId : parcelIds) {
+                            if (queue.removeCustomer(queue.findByParcelId(parcelId))) {
+                                removed++;
+                            }
+                        }
+                        sink = removed;
+                        return parcelIds.length;
+                    }
+                };
+            }
+            case "addEntry": {
+                Files.createDirectories(work);
+                Path file = work.resolve(Log.LOG_FILE);
+                Log log = Log.getInstance(file);
+                return new Trial() {
+                    @Override
+                    public void setUp() throws IOException {
+                        log.flush();
+                        Files.write(file, new byte[0]);
+                    }
+
+                    // Includes the final flush, so this is sustained rather than enqueue throughput
+                    @Override
+                    public long run() {
+                        for (int i = 0; i < LOG_OPS; i++) {
+                            log.addEntry("Customer Benchmark collected parcel X" + i + ". Fee: £12.50");
+                        }
+                        log.flush();
+                        return LOG_OPS;
+                    }
+                };
+            }
+            case "addEvent": {
+                Files.createDirectories(work);
+                Log log = Log.getInstance(work.resolve(Log.LOG_FILE));
+                return new Trial() {
+                    @Override
+                    public void setUp() {
+                        log.flush();
+                    }
+
+                    // What a release logs; the text is only made when log.txt is rendered
+                    @Override
+                    public long run() {
+                        for (int i = 0; i < LOG_OPS; i++) {
+                            log.addEvent(LogEvent.collected("Benchmark", "X" + i, 12.5));
+                        }
+                        log.flush();
+                        return LOG_OPS;
+                    }
+                };
+            }
+            case "renderLog": {
+                Files.createDirectories(work);
+                Log log = Log.getInstance(work.resolve(Log.LOG_FILE));
+                return new Trial() {
+                    @Override
+                    public void setUp() {
+                        for (int i = 0; i < LOG_OPS; i++) {
+                            log.addEvent(LogEvent.collected("Benchmark", "X" + i, 12.5));
+                        }
+                        log.flush();
+                    }
+
+                    @Override
+                    public long run() {
+                        log.render();
+                        return LOG_OPS;
+                    }
+                };
+            }
+            case "rollOver": {
+                Files.createDirectories(work);
+                ParcelMap parcelMap = new ParcelMap();
+                for (Parcel parcel : generateParcels(rows)) {
+                    parcelMap.addParcel(parcel);
+                }
+                DepotCalendar calendar = new DepotCalendar(work.resolve(DepotCalendar.DAY_FILE));
+                calendar.open();
+                calendar.addListener(parcelMap::setToday);
+                return () -> {
+                    for (int i = 0; i < ROLLOVER_OPS; i++) {
+                        calendar.rollOver();
+                    }
+                    sink = parcelMap.getParcelAt(0).getDaysInDepot();
+                    return ROLLOVER_OPS;
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown benchmark: " + name);
+        }
+    }
+
+    private static Result measure(String name, int rows, Trial trial, int warmup, int iterations) throws Exception {
+        double[] nsPerOp = new double[iterations];
+        long ops = 0;
+        for (int i = 0; i < warmup + iterations; i++) {
+            trial.setUp();
+            System.gc();
+            long start = System.nanoTime();
+            ops = trial.run();
+            long elapsed = System.nanoTime() - start;
+            trial.tearDown();
+            if (i >= warmup) {
+                nsPerOp[i - warmup] = (double) elapsed / Math.max(1, ops);
+            }
+        }
+        return new Result(name, rows, ops, nsPerOp);
+    }
+
+    private static void write(List<Result> results, String format, int warmup, PrintStream out) {
+        String timestamp = Instant.now().toString();
+        String java = System.getProperty("java.version");
+        if (format.equals("csv")) {
+            out.println("benchmark,rows,opsPerIteration,warmup,iterations,meanNsPerOp,stdevNsPerOp,minNsPerOp,opsPerSecond,timestamp,java");
+            for (Result result : results) {
+                out.printf("%s,%d,%d,%d,%d,%.2f,%.2f,%.2f,%.1f,%s,%s%n", result.benchmark, result.rows,
+                        result.opsPerIteration, warmup, result.nsPerOp.length, result.mean(), result.stdev(),
+                        result.min(), 1e9 / result.mean(), timestamp, java);
+            }
+            return;
+        }
+        for (Result result : results) {
+            out.printf("{\"benchmark\":\"%s\",\"rows\":%d,\"opsPerIteration\":%d,\"warmup\":%d,\"iterations\":%d,"
+                            + "\"meanNsPerOp\":%.2f,\"stdevNsPerOp\":%.2f,\"minNsPerOp\":%.2f,\"opsPerSecond\":%.1f,"
+                            + "\"timestamp\":\"%s\",\"java\":\"%s\"}%n",
+                    result.benchmark, result.rows, result.opsPerIteration, warmup, result.nsPerOp.length,
+                    result.mean(), result.stdev(), result.min(), 1e9 / result.mean(), timestamp, java);
+        }
+    }
+
+    private static Parcel[] generateParcels(int rows) {
+        Random random = new Random(42);
+        Parcel[] parcels = new Parcel[rows];
+        for (int i = 0; i < rows; i++) {
+            parcels[i] = new Parcel(DepotDataGenerator.parcelId(i), 1 + random.nextInt(20),
+                    (1 + random.nextInt(10)) + "x" + (1 + random.nextInt(10)) + "x" + (1 + random.nextInt(10)));
+        }
+        return parcels;
+    }
+
+    // Restores the pristine input files and clears anything a previous run wrote
+    private static void copyData(Path data, Path work) throws IOException {
+        Files.createDirectories(work);
+        try (Stream<Path> files = Files.list(work)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isDirectory(file)) {
+                    deleteRecursively(file);
+                } else if (!file.getFileName().toString().equals(Log.LOG_FILE)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        Files.copy(data.resolve(Manager.PARCELS_FILE), work.resolve(Manager.PARCELS_FILE),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(data.resolve(Manager.CUSTOMERS_FILE), work.resolve(Manager.CUSTOMERS_FILE),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            List<Path> paths = files.sorted(Comparator.reverseOrder()).toList();
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
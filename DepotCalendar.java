@@ -0,0 +1,148 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// The depot's day counter. Parcels keep the day they arrived and their age is
+// today minus that day, so moving to a new day is a single write of depot.day
+// however many parcels the depot holds. The file keeps the day number and the
+// date it stands for, so a start on a later date catches up the missed days.
+public class DepotCalendar {
+    public static final String DAY_FILE = "depot.day";
+
+    public interface Listener {
+        void dayChanged(int day);
+    }
+
+    private final Path file;
+    private final Clock clock;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private int day;
+    private LocalDate date;
+
+    public DepotCalendar(Path file) {
+        this(file, Clock.systemDefaultZone());
+    }
+
+    public DepotCalendar(Path file, Clock clock) {
+        this.file = file;
+        this.clock = clock;
+        this.date = LocalDate.now(clock);
+    }
+
+    // Reads depot.day, or starts at day 0 today, and catches up to today's date
+    public synchronized void open() throws IOException {
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                try {
+                    if (line.startsWith("day=")) {
+                        day = Integer.parseInt(line.substring(4).trim());
+                    } else if (line.startsWith("date=")) {
+                        date = LocalDate.parse(line.substring(5).trim());
+                    }
+                } catch (NumberFormatException | DateTimeParseException e) {
+                    throw new IOException("Unreadable " + file.getFileName() + ": " + line, e);
+                }
+            }
+        } else {
+            persist(day, date);
+        }
+        catchUp();
+    }
+
+    // Rolls the day over at each local midnight until closed
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "depot-calendar");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduleNextRollover();
+    }
+
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public synchronized int today() {
+        return day;
+    }
+
+    // Listeners are called with the calendar held, so they see days in order
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Moves to the next day now, whatever the date; the file is written first
+    public synchronized int rollOver() throws IOException {
+        advance(1);
+        return day;
+    }
+
+    // Advances by however many dates have passed since the last rollover
+    private synchronized void catchUp() throws IOException {
+        long behind = ChronoUnit.DAYS.between(date, LocalDate.now(clock));
+        if (behind > 0) {
+            advance((int) behind);
+        }
+    }
+
+    private void advance(int days) throws IOException {
+        persist(day + days, date.plusDays(days));
+        day += days;
+        date = date.plusDays(days);
+        int current = day;
+        listeners.forEach(listener -> listener.dayChanged(current));
+    }
+
+    private void persist(int newDay, LocalDate newDate) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write("day=" + newDay + System.lineSeparator());
+            writer.write("date=" + newDate + System.lineSeparator());
+        }
+        DurableFiles.replace(tempFile, file);
+    }
+
+    // One-shot each time rather than a fixed 24h rate, so DST changes do not drift it
+    private void scheduleNextRollover() {
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        ZonedDateTime midnight = now.toLocalDate().plusDays(1).atStartOfDay(now.getZone());
+        long delay = Math.max(0, Duration.between(now, midnight).toMillis());
+        scheduler.schedule(() -> {
+            try {
+                catchUp();
+            } catch (IOException e) {
+                System.err.println("Error rolling over depot day: " + e.getMessage());
+            }
+            synchronized (this) {
+                if (scheduler != null) {
+                    scheduleNextRollover();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
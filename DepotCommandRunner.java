@@ -0,0 +1,263 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JTextArea;
+
+// Runs the depot without a display from a line protocol on stdin or a file,
+// e.g. to replay a day's operations as a load test, and reports throughput.
+//
+//   java Manager --headless [commands.txt] [--dir path] [--shards spec] [--batch 64] [--quiet]
+//
+// One command per line; blank lines and lines starting with '#' are skipped.
+//   process <parcelId>                  add-parcel <id> <weight> <LxWxH>
+//   batch <parcelId>[,<parcelId>...]    remove-parcel <id>
+//   add-customer <parcelId> <name>      remove-customer <parcelId> <name>
+//   ready <parcelId>                    find <parcelId>
+//   queue | parcels | released | log | fees | stats | quit
+//
+// Consecutive process commands are pipelined into one processBatch call, so a
+// run of them costs one journal entry and one released write. A batch that is
+// refused is retried one parcel at a time, which ends the same as running the
+// commands in order.
+//
+// With --shards the directory holds several depots run as one; see DepotShards.
+public class DepotCommandRunner {
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final Depot manager;
+    private final PrintStream out;
+    private final boolean quiet;
+    private final int batchSize;
+    private final JTextArea output;
+    private final List<String> pendingProcess = new ArrayList<>();
+    private long commands;
+    private long failures;
+
+    public DepotCommandRunner(Depot manager, PrintStream out, boolean quiet, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.manager = manager;
+        this.out = out;
+        this.quiet = quiet;
+        this.batchSize = batchSize;
+        this.output = new TextAreaSink(this::print);
+    }
+
+    public static void main(String[] args) {
+        // Swing text areas carry Manager's output, so make sure no display is looked for
+        System.setProperty("java.awt.headless", "true");
+        Path input = null;
+        Path directory = Paths.get(".");
+        String shards = null;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        boolean quiet = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dir":
+                    directory = Paths.get(args[++i]);
+                    break;
+                case "--shards":
+                    shards = args[++i];
+                    break;
+                case "--batch":
+                    batchSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--quiet":
+                    quiet = true;
+                    break;
+                default:
+                    input = Paths.get(args[i]);
+            }
+        }
+
+        Depot manager;
+        try {
+            manager = shards == null ? new Manager(directory) : DepotShards.open(directory, shards);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error opening depot shards: " + e.getMessage());
+            return;
+        }
+        manager.loadData();
+        DepotCommandRunner runner = new DepotCommandRunner(manager, System.out, quiet, batchSize);
+        try (BufferedReader in = input == null
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            runner.run(in);
+        } catch (IOException e) {
+            System.err.println("Error reading commands: " + e.getMessage());
+        } finally {
+            manager.close();
+        }
+    }
+
+    // Returns when the input ends or a quit command is read
+    public void run(BufferedReader in) throws IOException {
+        long start = System.nanoTime();
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            String command = line.trim();
+            if (command.isEmpty() || command.startsWith("#")) {
+                continue;
+            }
+            commands++;
+            if (!execute(command, lineNumber)) {
+                break;
+            }
+            // Nothing more to read yet, so answer what has been pipelined rather than wait
+            if (!in.ready()) {
+                flushProcess();
+            }
+        }
+        flushProcess();
+        out.flush();
+        long elapsed = System.nanoTime() - start;
+        System.err.printf("%d commands in %.3f s, %.0f commands/s, %d failed%n",
+                commands, elapsed / 1e9, commands / Math.max(elapsed / 1e9, 1e-9), failures);
+    }
+
+    public long getCommandCount() {
+        return commands;
+    }
+
+    public long getFailureCount() {
+        return failures;
+    }
+
+    // Returns false for quit
+    private boolean execute(String command, int lineNumber) {
+        String[] parts = command.split("\\s+", 3);
+        String name = parts[0].toLowerCase();
+        if (name.equals("process")) {
+            if (parts.length != 2) {
+                return malformed(lineNumber, command);
+            }
+            pendingProcess.add(parts[1]);
+            if (pendingProcess.size() >= batchSize) {
+                flushProcess();
+            }
+            return true;
+        }
+        // Everything else sees the effects of the process commands before it
+        flushProcess();
+        try {
+            switch (name) {
+                case "batch":
+                    if (parts.length < 2 || !manager.processBatch(
+                            Manager.parseParcelIds(command.substring(parts[0].length())), output)) {
+                        failures++;
+                    }
+                    break;
+                case "add-customer":
+                    if (parts.length != 3) {
+                        return malformed(lineNumber, command);
+                    }
+                    manager.addNewCustomer(parts[2], parts[1], output);
+                    break;
+                case "remove-customer":
+                    if (parts.length != 3) {
+                        return malformed(lineNumber, command);
+                    }
+                    manager.removeCustomer(parts[2], parts[1], output);
+                    break;
+                case "add-parcel": {
+                    String[] fields = command.split("\\s+");
+                    if (fields.length != 4) {
+                        return malformed(lineNumber, command);
+                    }
+                    manager.addNewParcel(fields[1], Double.parseDouble(fields[2]), fields[3], output);
+                    break;
+                }
+                case "remove-parcel":
+                    if (parts.length != 2) {
+                        return malformed(lineNumber, command);
+                    }
+                    manager.removeParcel(parts[1], output);
+                    break;
+                case "ready":
+                    if (parts.length != 2) {
+                        return malformed(lineNumber, command);
+                    }
+                    manager.markParcelReady(parts[1], output);
+                    break;
+                case "find":
+                    if (parts.length != 2) {
+                        return malformed(lineNumber, command);
+                    }
+                    manager.findReleasedParcel(parts[1], output);
+                    break;
+                case "queue":
+                    manager.displayCustomerQueue(output);
+                    break;
+                case "parcels":
+                    manager.displayParcels(output);
+                    break;
+                case "released":
+                    manager.displayProcessedParcels(output);
+                    break;
+                case "log":
+                    manager.displayLog(output);
+                    break;
+                case "stats":
+                    manager.displayStats(output);
+                    break;
+                case "fees": {
+                    FeeCalculator.Result fees = manager.calculateOutstandingFees(RateTable.STANDARD);
+                    print(String.format("Outstanding fees for %d parcels: £%.2f%n", fees.size(), fees.getTotal()));
+                    break;
+                }
+                case "quit":
+                    return false;
+                default:
+                    System.err.println("Line " + lineNumber + ": unknown command " + parts[0]);
+                    failures++;
+            }
+        } catch (NumberFormatException e) {
+            return malformed(lineNumber, command);
+        }
+        return true;
+    }
+
+    private void flushProcess() {
+        if (pendingProcess.isEmpty()) {
+            return;
+        }
+        List<String> parcelIds = new ArrayList<>(pendingProcess);
+        pendingProcess.clear();
+        if (parcelIds.size() > 1) {
+            // Held back until the batch is known to have gone through
+            StringBuilder batchOutput = new StringBuilder();
+            if (manager.processBatch(parcelIds, new TextAreaSink(batchOutput::append))) {
+                print(batchOutput.toString());
+                return;
+            }
+        }
+        for (String parcelId : parcelIds) {
+            if (!manager.processNextCustomer(parcelId, output)) {
+                failures++;
+            }
+        }
+    }
+
+    private boolean malformed(int lineNumber, String command) {
+        System.err.println("Line " + lineNumber + ": malformed command: " + command);
+        failures++;
+        return true;
+    }
+
+    private void print(String text) {
+        if (!quiet) {
+            out.print(text);
+        }
+    }
+}
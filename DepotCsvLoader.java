@@ -0,0 +1,375 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Loads Parcels.csv and Custs.csv by cutting the file into newline-aligned
+// chunks and parsing them in parallel on a fork/join pool. Fields are parsed
+// straight from the bytes; only the strings a row keeps are created. Rows are
+// merged in file order, so a later duplicate parcel still wins and customers
+// keep their file sequence.
+//
+// Row handling matches the old String.split loaders: '#' lines are skipped,
+// trailing empty fields do not count, and rows with too few fields are
+// skipped silently. Rows that used to abort the load (a missing height, a bad
+// weight) are reported with their line number and skipped. The optional sixth
+// field is the parcel's days in depot, counted on the day the file was written.
+public class DepotCsvLoader {
+    private static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+    private static final int MAX_FIELDS = 6;
+
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    public DepotCsvLoader() {
+        this(DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public DepotCsvLoader(int chunkSize, ForkJoinPool pool) {
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    // Returns one message per malformed row, in file order
+    public List<String> loadParcels(Path file, ParcelMap parcelMap) throws IOException {
+        return loadParcels(file, Long.MAX_VALUE, parcelMap);
+    }
+
+    // As above, reading no further than end
+    public List<String> loadParcels(Path file, long end, ParcelMap parcelMap) throws IOException {
+        List<String> errors = new ArrayList<>();
+        for (Parcel parcel : readParcels(file, 0, end, errors)) {
+            if (parcelMap.canHold(parcel.getId(), parcel.getDimensions())) {
+                parcelMap.addParcel(parcel);
+            } else {
+                errors.add("Parcel " + parcel.getId() + ": id or dimensions too long for the parcel store");
+            }
+        }
+        return errors;
+    }
+
+    public List<String> loadCustomers(Path file, QueueOfCustomers customerQueue) throws IOException {
+        return loadCustomers(file, Long.MAX_VALUE, customerQueue);
+    }
+
+    public List<String> loadCustomers(Path file, long end, QueueOfCustomers customerQueue) throws IOException {
+        List<String> errors = new ArrayList<>();
+        int sequence = 1;
+        for (String[] row : readCustomers(file, 0, end, errors)) {
+            customerQueue.addCustomer(new Customer(row[0], row[1], sequence++));
+        }
+        return errors;
+    }
+
+    // The parcel rows between two offsets, which should both fall at the start
+    // of a line; errors gets one message per malformed row, with line numbers
+    // counted from start
+    public List<Parcel> readParcels(Path file, long start, long end, List<String> errors) throws IOException {
+        return rows(parse(file, start, end, DepotCsvLoader::parseParcel), errors);
+    }
+
+    // Name and parcel id of each customer row between two offsets
+    public List<String[]> readCustomers(Path file, long start, long end, List<String> errors)
+            throws IOException {
+        return rows(parse(file, start, end, DepotCsvLoader::parseCustomer), errors);
+    }
+
+    private static <T> List<T> rows(List<Chunk<T>> chunks, List<String> errors) {
+        List<T> rows = new ArrayList<>();
+        long firstLine = 1;
+        for (Chunk<T> chunk : chunks) {
+            rows.addAll(chunk.rows);
+            collectErrors(chunk, firstLine, errors);
+            firstLine += chunk.lines;
+        }
+        return rows;
+    }
+
+    // Parses one line into a row, or returns null to skip it; throws to report it
+    private interface RowParser<T> {
+        T parse(byte[] bytes, Fields fields);
+    }
+
+    private static final class Chunk<T> {
+        final long start;
+        final long end;
+        final List<T> rows = new ArrayList<>();
+        final List<Long> errorLines = new ArrayList<>();
+        final List<String> errorMessages = new ArrayList<>();
+        long lines;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // Trimmed bounds of the first MAX_FIELDS fields of the current line
+    private static final class Fields {
+        final int[] starts = new int[MAX_FIELDS];
+        final int[] ends = new int[MAX_FIELDS];
+        // As String.split(",").length: trailing empty fields are not counted
+        int count;
+        byte[] scratch = new byte[64];
+
+        String string(byte[] bytes, int field) {
+            return new String(bytes, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+        }
+
+        int length(int field) {
+            return ends[field] - starts[field];
+        }
+    }
+
+    private <T> List<Chunk<T>> parse(Path file, long start, long end, RowParser<T> parser) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<Chunk<T>> chunks = split(channel, start, Math.min(end, channel.size()));
+            try {
+                pool.invoke(new ParseTask<>(channel, chunks, 0, chunks.size(), parser));
+            } catch (ChunkReadException e) {
+                throw (IOException) e.getCause();
+            }
+            return chunks;
+        }
+    }
+
+    // Cuts [start, size) after the first newline at or past each multiple of the chunk size
+    private <T> List<Chunk<T>> split(FileChannel channel, long start, long size) throws IOException {
+        List<Chunk<T>> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        while (start < size) {
+            long end = Math.min(size, start + chunkSize);
+            while (end < size) {
+                int read = channel.read(probe.clear(), end);
+                if (read <= 0) {
+                    end = size;
+                    break;
+                }
+                int newline = -1;
+                for (int i = 0; i < read && newline < 0; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                    }
+                }
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+                end += read;
+            }
+            chunks.add(new Chunk<>(start, Math.min(end, size)));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static final class ParseTask<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final List<Chunk<T>> chunks;
+        private final int from;
+        private final int to;
+        private final RowParser<T> parser;
+
+        ParseTask(FileChannel channel, List<Chunk<T>> chunks, int from, int to, RowParser<T> parser) {
+            this.channel = channel;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.parser = parser;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParseTask<>(channel, chunks, from, middle, parser),
+                        new ParseTask<>(channel, chunks, middle, to, parser));
+                return;
+            }
+            if (from < to) {
+                try {
+                    parseChunk(chunks.get(from));
+                } catch (IOException e) {
+                    throw new ChunkReadException(e);
+                }
+            }
+        }
+
+        private void parseChunk(Chunk<T> chunk) throws IOException {
+            byte[] bytes = new byte[(int) (chunk.end - chunk.start)];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, chunk.start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            int length = buffer.position();
+            Fields fields = new Fields();
+            int lineStart = 0;
+            for (int i = 0; i <= length; i++) {
+                if (i < length && bytes[i] != '\n' && bytes[i] != '\r') {
+                    continue;
+                }
+                // "\r\n" counts as one line ending, as it does for BufferedReader
+                boolean crlf = i < length && bytes[i] == '\n' && i > 0 && bytes[i - 1] == '\r';
+                if (!crlf && (i < length || lineStart < length)) {
+                    chunk.lines++;
+                    parseLine(chunk, bytes, lineStart, i, fields);
+                }
+                lineStart = i + 1;
+            }
+        }
+
+        private void parseLine(Chunk<T> chunk, byte[] bytes, int start, int end, Fields fields) {
+            if (start < end && bytes[start] == '#') {
+                return;
+            }
+            splitFields(bytes, start, end, fields);
+            try {
+                T row = parser.parse(bytes, fields);
+                if (row != null) {
+                    chunk.rows.add(row);
+                }
+            } catch (RuntimeException e) {
+                chunk.errorLines.add(chunk.lines);
+                chunk.errorMessages.add(e.getMessage());
+            }
+        }
+    }
+
+    private static final class ChunkReadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ChunkReadException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    private static void splitFields(byte[] bytes, int start, int end, Fields fields) {
+        int field = 0;
+        int fieldStart = start;
+        int count = 0;
+        for (int i = start; i <= end; i++) {
+            if (i < end && bytes[i] != ',') {
+                continue;
+            }
+            if (i > fieldStart) {
+                count = field + 1;
+            }
+            if (field < MAX_FIELDS) {
+                int s = fieldStart;
+                int e = i;
+                while (s < e && (bytes[s] & 0xff) <= ' ') {
+                    s++;
+                }
+                while (e > s && (bytes[e - 1] & 0xff) <= ' ') {
+                    e--;
+                }
+                fields.starts[field] = s;
+                fields.ends[field] = e;
+            }
+            field++;
+            fieldStart = i + 1;
+        }
+        fields.count = count;
+    }
+
+    // id,weight,length,width,height[,days]
+    private static Parcel parseParcel(byte[] bytes, Fields fields) {
+        if (fields.count < 4) {
+            return null;
+        }
+        if (fields.count < 5) {
+            throw new IllegalArgumentException("missing height");
+        }
+        String id = fields.string(bytes, 0);
+        double weight = parseDouble(bytes, fields.starts[1], fields.ends[1]);
+        int length = fields.length(2) + fields.length(3) + fields.length(4) + 2;
+        if (fields.scratch.length < length) {
+            fields.scratch = new byte[length * 2];
+        }
+        byte[] scratch = fields.scratch;
+        int position = 0;
+        for (int field = 2; field <= 4; field++) {
+            if (field > 2) {
+                scratch[position++] = 'x';
+            }
+            System.arraycopy(bytes, fields.starts[field], scratch, position, fields.length(field));
+            position += fields.length(field);
+        }
+        int days = fields.count > 5 ? parseDays(bytes, fields.starts[5], fields.ends[5]) : 0;
+        return new Parcel(id, weight, new String(scratch, 0, position, StandardCharsets.UTF_8), days,
+                ParcelStatus.IN_DEPOT);
+    }
+
+    private static int parseDays(byte[] bytes, int start, int end) {
+        int days = 0;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9' || i - start >= 9) {
+                throw new IllegalArgumentException("bad days in depot: "
+                        + new String(bytes, start, end - start, StandardCharsets.UTF_8));
+            }
+            days = days * 10 + (bytes[i] - '0');
+        }
+        return days;
+    }
+
+    // name,parcelId
+    private static String[] parseCustomer(byte[] bytes, Fields fields) {
+        if (fields.count < 2) {
+            return null;
+        }
+        return new String[] {fields.string(bytes, 0), fields.string(bytes, 1)};
+    }
+
+    // Plain decimals of up to 15 digits are exact as mantissa / 10^n, so a single
+    // division rounds correctly; anything else goes through Double.parseDouble.
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    static double parseDouble(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (i < end || digits == 0 || digits > 15) {
+            return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+        }
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private static void collectErrors(Chunk<?> chunk, long firstLine, List<String> errors) {
+        for (int i = 0; i < chunk.errorLines.size(); i++) {
+            errors.add("line " + (firstLine + chunk.errorLines.get(i) - 1) + ": " + chunk.errorMessages.get(i));
+        }
+    }
+}
@@ -0,0 +1,770 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+// Picks up rows other systems append to Parcels.csv and Custs.csv while the
+// depot runs. A WatchService on the directory wakes it as soon as either file
+// changes; it keeps the byte offset it has consumed in each and parses only
+// the whole lines after it, so an arrival costs what its own row costs.
+//
+// A file that was replaced, got shorter, or no longer has the bytes it had
+// just before the offset was rewritten. It is then parsed whole and diffed
+// against the rows it held before, kept as 64-bit hashes, and only rows that
+// appeared, changed or went away touch the depot; releases and additions made
+// here since are left alone.
+//
+// Picked-up rows are not journaled: the CSV holds them until the next
+// snapshot, which carries them over (see DepotStore.SnapshotListener). The
+// depot's own snapshots are told apart by their file key. Rows that reach a
+// replaced file in the first seconds after the rename are moved to the new
+// one; a writer that keeps the file open for longer has to reopen it. On
+// platforms where WatchService polls rather than being told by the kernel,
+// arrivals take as long as the poll to show.
+//
+// On by default; -Ddepot.csv.watch=false leaves the files as loaded.
+public class DepotCsvWatcher implements DepotStore.SnapshotListener {
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("depot.csv.watch", "true"));
+    // Bytes before the offset compared to tell an in-place rewrite from an append
+    private static final int TAIL_CHECK = 64;
+    private static final int SCAN_BLOCK = 8192;
+    // How long a replaced file is still read for late appends, and how often
+    private static final long OLD_FILE_GRACE_NANOS = 3_000_000_000L;
+    private static final long OLD_FILE_CHECK_MS = 50;
+    private static final long REWRITE_QUIET_MS = 50;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Path directory;
+    private final TrackedFile parcels;
+    private final TrackedFile customers;
+    private final ParcelMap parcelMap;
+    private final QueueOfCustomers customerQueue;
+    private final DepotStore store;
+    private final Log log;
+    private final DepotCsvLoader loader = new DepotCsvLoader();
+    private final LatencyHistogram ingestTimer;
+    private final LongAdder rowsIngested;
+    private final LongAdder reloads;
+    private WatchService watchService;
+    private Thread thread;
+    private volatile boolean closed;
+
+    public DepotCsvWatcher(Path parcelsFile, Path customersFile, ParcelMap parcelMap,
+                           QueueOfCustomers customerQueue, DepotStore store, Log log, DepotMetrics metrics) {
+        this.directory = parcelsFile.toAbsolutePath().getParent();
+        this.parcels = new TrackedFile(parcelsFile, true);
+        this.customers = new TrackedFile(customersFile, false);
+        this.parcelMap = parcelMap;
+        this.customerQueue = customerQueue;
+        this.store = store;
+        this.log = log;
+        this.ingestTimer = metrics.timer("csv.ingest");
+        this.rowsIngested = metrics.counter("csv.rows.ingested");
+        this.reloads = metrics.counter("csv.reloads");
+    }
+
+    // Call just before the file is loaded, and load no further than the offset
+    // returned; rows after it are left to the watcher. A last line without a
+    // newline is part of the load, unlike a later one, which waits for it.
+    public synchronized long mark(Path file) {
+        TrackedFile tracked = tracked(file);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            tracked.fileKey = attributes.fileKey();
+            tracked.offset = attributes.size();
+            tracked.tail = readTail(file, tracked.offset);
+        } catch (IOException e) {
+            // Anything that appears later is all new
+            tracked.fileKey = null;
+            tracked.offset = 0;
+            tracked.tail = new byte[0];
+        }
+        return tracked.offset;
+    }
+
+    // Follows both files from their marks until closed. Call once the loaded
+    // state is complete, journal included.
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        store.setSnapshotListener(this);
+        thread = new Thread(this::run, "depot-csv-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops watching; snapshots still carry over rows appended up to then
+    public void close() {
+        Thread running;
+        synchronized (this) {
+            closed = true;
+            running = thread;
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+        }
+        if (running != null) {
+            try {
+                running.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        readBaseline(parcels);
+        readBaseline(customers);
+        if (closed) {
+            return;
+        }
+        // Rows appended while the depot was loading
+        ingest(parcels, true);
+        ingest(customers, true);
+        try {
+            while (!closed) {
+                WatchKey key = readingOldFiles()
+                        ? watchService.poll(OLD_FILE_CHECK_MS, TimeUnit.MILLISECONDS) : watchService.take();
+                // Late rows are appended to the new files, which brings an event for them
+                drainOldFile(parcels);
+                drainOldFile(customers);
+                if (key == null) {
+                    continue;
+                }
+                boolean parcelsChanged = false;
+                boolean customersChanged = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        parcelsChanged = true;
+                        customersChanged = true;
+                    } else if (parcels.file.getFileName().equals(event.context())) {
+                        parcelsChanged = true;
+                    } else if (customers.file.getFileName().equals(event.context())) {
+                        customersChanged = true;
+                    }
+                }
+                key.reset();
+                // Parcels first, so a customer arriving with their parcel finds it
+                if (parcelsChanged) {
+                    ingest(parcels, true);
+                }
+                if (customersChanged) {
+                    ingest(customers, true);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    // The rows the file held at its mark, for diffing a rewrite against
+    private void readBaseline(TrackedFile tracked) {
+        int version;
+        long offset;
+        synchronized (this) {
+            version = tracked.version;
+            offset = tracked.offset;
+        }
+        LongMap rows = new LongMap();
+        try {
+            if (offset > 0) {
+                hashRows(tracked, tracked.file, 0, offset, rows);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading " + tracked.file.getFileName() + ": " + e.getMessage());
+        }
+        synchronized (this) {
+            // A snapshot that replaced the file meanwhile brought its own rows
+            if (tracked.version == version || tracked.rows == null) {
+                tracked.rows = rows;
+            }
+        }
+    }
+
+    // Without wait, gives up rather than wait for the mutation lock
+    private void ingest(TrackedFile tracked, boolean wait) {
+        try {
+            while (!ingestOnce(tracked, wait)) {
+                // The file moved on while it was being read; look again
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading " + tracked.file.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    // Returns false if the file changed while it was being read
+    private boolean ingestOnce(TrackedFile tracked, boolean wait) throws IOException {
+        long start = System.nanoTime();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(tracked.file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // Gone, or between being deleted and replaced; the next event says which
+            return true;
+        }
+        Object key = attributes.fileKey();
+        int version;
+        long offset;
+        boolean rewritten;
+        synchronized (this) {
+            // run() reads the file once the baseline is in
+            if (!settleSnapshot(tracked, key) || tracked.rows == null) {
+                return true;
+            }
+            version = tracked.version;
+            offset = tracked.offset;
+            rewritten = !Objects.equals(key, tracked.fileKey) || attributes.size() < offset
+                    || !Arrays.equals(tracked.tail, readTail(tracked.file, offset));
+        }
+        if (rewritten && !quiet(tracked.file, attributes)) {
+            return false;
+        }
+        long from = rewritten ? 0 : offset;
+        long end = lineEnd(tracked.file, from, attributes.size());
+        if (end <= from && !rewritten) {
+            return true;
+        }
+        List<String> errors = new ArrayList<>();
+        List<Parcel> parcelRows = tracked.parcels ? loader.readParcels(tracked.file, from, end, errors) : null;
+        List<String[]> customerRows = tracked.parcels ? null : loader.readCustomers(tracked.file, from, end, errors);
+        byte[] tail = readTail(tracked.file, end);
+        // Appended rows are new arrivals; a rewritten file's days are counted on the day in its header
+        int today = parcelMap.today();
+        int fileDay = tracked.parcels && rewritten ? store.snapshotDay(today) : today;
+        BasicFileAttributes after = Files.readAttributes(tracked.file, BasicFileAttributes.class);
+        if (!Objects.equals(key, after.fileKey()) || after.size() < end) {
+            return false;
+        }
+
+        Lock mutation = store.mutationLock();
+        if (wait) {
+            mutation.lock();
+        } else if (!mutation.tryLock()) {
+            return true;
+        }
+        try {
+            synchronized (this) {
+                if (tracked.version != version) {
+                    return false;
+                }
+                if (rewritten) {
+                    LongMap previous = tracked.rows != null ? tracked.rows : new LongMap();
+                    tracked.rows = tracked.parcels ? diffParcels(parcelRows, previous, fileDay)
+                            : diffCustomers(customerRows, previous);
+                    tracked.fileKey = key;
+                    // What a snapshot captured before now no longer matches the file
+                    tracked.rewrittenSinceCapture = true;
+                    reloads.increment();
+                } else if (tracked.parcels) {
+                    int added = 0;
+                    for (Parcel row : parcelRows) {
+                        // An appended row may not replace a parcel already here, as with addNewParcel
+                        if (addParcel(row, fileDay, false)) {
+                            tracked.rows.put(idHash(row.getId()), rowHash(row));
+                            log.addEvent(LogEvent.parcelAdded(row.getId(), row.getWeight(), row.getDimensions()));
+                            added++;
+                        }
+                    }
+                    rowsIngested.add(added);
+                } else {
+                    for (String[] row : customerRows) {
+                        customerQueue.addCustomer(new Customer(row[0], row[1], customerQueue.size() + 1));
+                        tracked.rows.add(customerHash(row[0], row[1]), 1);
+                        log.addEvent(LogEvent.customerAdded(row[0], row[1]));
+                    }
+                    rowsIngested.add(customerRows.size());
+                }
+                tracked.offset = end;
+                tracked.tail = tail;
+                tracked.version++;
+            }
+        } finally {
+            mutation.unlock();
+        }
+        for (String error : errors) {
+            System.err.println("Error loading " + (tracked.parcels ? "parcels" : "customers") + " from "
+                    + tracked.file.getFileName() + ": " + error);
+        }
+        ingestTimer.recordNanos(System.nanoTime() - start);
+        return true;
+    }
+
+    // Applies the rows of a rewritten Parcels.csv that differ from the
+    // previous version's and returns the new version's rows
+    private LongMap diffParcels(List<Parcel> rows, LongMap previous, int fileDay) {
+        // A later row for the same id wins, as in a full load
+        Map<String, Parcel> latest = new LinkedHashMap<>();
+        for (Parcel row : rows) {
+            latest.put(row.getId(), row);
+        }
+        LongMap current = new LongMap();
+        int changed = 0;
+        for (Parcel row : latest.values()) {
+            long id = idHash(row.getId());
+            long hash = rowHash(row);
+            current.put(id, hash);
+            if (previous.get(id) != hash && addParcel(row, fileDay, true)) {
+                changed++;
+            }
+        }
+        int removed = 0;
+        // Released parcels have left the file already, so only those still held can go
+        for (String id : parcelMap.getColumns(ParcelStatus.IN_DEPOT, ParcelStatus.READY).ids) {
+            long hash = idHash(id);
+            if (previous.containsKey(hash) && !current.containsKey(hash) && parcelMap.removeParcel(id) != null) {
+                removed++;
+            }
+        }
+        log.addEntry("Reloaded " + parcels.file.getFileName() + " after it was rewritten: " + changed
+                + " parcel(s) added or changed, " + removed + " removed");
+        return current;
+    }
+
+    private LongMap diffCustomers(List<String[]> rows, LongMap previous) {
+        LongMap current = new LongMap();
+        // Rows of the previous version not yet matched by one of the new version
+        LongMap unmatched = previous.copy();
+        int added = 0;
+        for (String[] row : rows) {
+            long hash = customerHash(row[0], row[1]);
+            current.add(hash, 1);
+            if (unmatched.get(hash) > 0) {
+                unmatched.add(hash, -1);
+            } else {
+                customerQueue.addCustomer(new Customer(row[0], row[1], customerQueue.size() + 1));
+                added++;
+            }
+        }
+        int removed = 0;
+        for (Customer customer : customerQueue.getQueue()) {
+            long hash = customerHash(customer.getName(), customer.getParcelId());
+            if (unmatched.get(hash) > 0 && customerQueue.removeCustomer(customer)) {
+                unmatched.add(hash, -1);
+                removed++;
+            }
+        }
+        log.addEntry("Reloaded " + customers.file.getFileName() + " after it was rewritten: " + added
+                + " customer(s) added, " + removed + " removed");
+        return current;
+    }
+
+    // Days in depot in the file are counted on fileDay; a parcel already here keeps its status.
+    // Only a rewritten file may change a parcel already here. Returns whether the row was applied.
+    private boolean addParcel(Parcel row, int fileDay, boolean replace) {
+        if (!parcelMap.canHold(row.getId(), row.getDimensions())) {
+            System.err.println("Skipping parcel " + row.getId() + " from " + parcels.file.getFileName()
+                    + ": id or dimensions too long for the parcel store");
+            return false;
+        }
+        Parcel existing = parcelMap.getParcel(row.getId());
+        if (existing != null && !replace) {
+            System.err.println("Skipping parcel " + row.getId() + " from " + parcels.file.getFileName()
+                    + ": a parcel with this id is already in the depot");
+            return false;
+        }
+        parcelMap.addParcel(new Parcel(row.getId(), row.getWeight(), row.getDimensions(),
+                row.getDaysInDepot() + parcelMap.today() - fileDay,
+                existing != null ? existing.getStatus() : ParcelStatus.IN_DEPOT));
+        return true;
+    }
+
+    @Override
+    public synchronized void snapshotCaptured() {
+        for (TrackedFile tracked : new TrackedFile[] {parcels, customers}) {
+            try {
+                settleSnapshot(tracked, Files.readAttributes(tracked.file, BasicFileAttributes.class).fileKey());
+            } catch (IOException e) {
+                settleSnapshot(tracked, null);
+            }
+            // No rename is in flight while a snapshot is captured, so one still pending failed
+            tracked.pendingTemp = null;
+            tracked.pendingRows = null;
+            if (tracked.oldFileUntil == 0) {
+                closeOldFile(tracked);
+            }
+            tracked.capturedOffset = tracked.offset;
+            tracked.capturedKey = tracked.fileKey;
+            tracked.rewrittenSinceCapture = false;
+        }
+    }
+
+    @Override
+    public long replacing(Path file, Path tempFile) throws IOException {
+        TrackedFile tracked = trackedOrNull(file);
+        if (tracked == null) {
+            return 0;
+        }
+        // Catch up first, so an outside rewrite not yet seen is applied and
+        // asks for another snapshot rather than vanishing under this one.
+        // close() holds mutations off while it waits for this.
+        ingest(tracked, false);
+        long length = Files.size(tempFile);
+        // Nothing diffs against the snapshot once the watcher has stopped
+        LongMap rows = closed ? null : hashRows(tracked, tempFile, 0, length, new LongMap());
+        synchronized (this) {
+            Object key = null;
+            long size = 0;
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                key = attributes.fileKey();
+                size = attributes.size();
+            } catch (NoSuchFileException e) {
+                // Nothing to carry over
+            }
+            boolean stale = tracked.capturedOffset < 0 || tracked.rewrittenSinceCapture
+                    || !Objects.equals(key, tracked.capturedKey) || !Objects.equals(key, tracked.fileKey);
+            long carried = 0;
+            long consumed = 0;
+            // A file that does not exist yet has nothing to carry over
+            if (!stale && key != null) {
+                // Held open to read what still lands in this file once it is replaced
+                drainOldFile(tracked);
+                closeOldFile(tracked);
+                tracked.oldFile = FileChannel.open(file, StandardOpenOption.READ);
+                long end = lineEnd(tracked.oldFile, tracked.capturedOffset, size);
+                carried = copy(tracked.oldFile, tracked.capturedOffset, end, tempFile);
+                tracked.oldFileEnd = end;
+                consumed = tracked.offset - tracked.capturedOffset;
+                if (rows != null && consumed > 0) {
+                    hashRows(tracked, tempFile, length, length + consumed, rows);
+                }
+            }
+            // Rows carried over but not yet picked up are read from the snapshot once it is in place
+            tracked.pendingTemp = tempFile;
+            tracked.pendingKey = Files.readAttributes(tempFile, BasicFileAttributes.class).fileKey();
+            tracked.pendingOffset = length + consumed;
+            tracked.pendingRows = rows;
+            tracked.capturedOffset = -1;
+            tracked.version++;
+            return stale ? -1 : carried;
+        }
+    }
+
+    // Rows appended to the old file after replacing() copied it, by writers
+    // that opened it before the rename, go on the end of the new one, where
+    // they are read like any other arrival
+    @Override
+    public synchronized void replaced(Path file) {
+        TrackedFile tracked = trackedOrNull(file);
+        if (tracked == null || tracked.oldFile == null) {
+            return;
+        }
+        tracked.oldFileUntil = System.nanoTime() + OLD_FILE_GRACE_NANOS;
+        drainOldFile(tracked);
+        if (closed) {
+            closeOldFile(tracked);
+        }
+    }
+
+    private synchronized boolean readingOldFiles() {
+        return parcels.oldFileUntil != 0 || customers.oldFileUntil != 0;
+    }
+
+    // Moves whole rows that reached the replaced file since it was last read to
+    // the current one, and lets the replaced file go once its grace is over
+    private synchronized void drainOldFile(TrackedFile tracked) {
+        if (tracked.oldFile == null || tracked.oldFileUntil == 0) {
+            return;
+        }
+        try {
+            long end = lineEnd(tracked.oldFile, tracked.oldFileEnd, tracked.oldFile.size());
+            if (end > tracked.oldFileEnd) {
+                tracked.oldFileEnd += copy(tracked.oldFile, tracked.oldFileEnd, end, tracked.file);
+            }
+        } catch (IOException e) {
+            System.err.println("Error moving late rows to " + tracked.file.getFileName() + ": " + e.getMessage());
+            closeOldFile(tracked);
+            return;
+        }
+        if (System.nanoTime() - tracked.oldFileUntil > 0) {
+            closeOldFile(tracked);
+        }
+    }
+
+    // Takes over a snapshot the store has renamed into place. Returns false
+    // while one is about to be, as reading the file then would read it twice.
+    private boolean settleSnapshot(TrackedFile tracked, Object key) {
+        if (tracked.pendingTemp == null) {
+            return true;
+        }
+        if (key != null && key.equals(tracked.pendingKey)) {
+            tracked.fileKey = key;
+            tracked.offset = tracked.pendingOffset;
+            tracked.tail = readTail(tracked.file, tracked.offset);
+            if (tracked.pendingRows != null) {
+                tracked.rows = tracked.pendingRows;
+            }
+            tracked.version++;
+        } else if (Files.exists(tracked.pendingTemp)) {
+            return false;
+        }
+        // Either in place now, or the rename never happened
+        tracked.pendingTemp = null;
+        tracked.pendingRows = null;
+        return true;
+    }
+
+    private static void closeOldFile(TrackedFile tracked) {
+        if (tracked.oldFile != null) {
+            try {
+                tracked.oldFile.close();
+            } catch (IOException e) {
+                // Only read from
+            }
+        }
+        tracked.oldFile = null;
+        tracked.oldFileUntil = 0;
+    }
+
+    private LongMap hashRows(TrackedFile tracked, Path file, long start, long end, LongMap rows)
+            throws IOException {
+        List<String> errors = new ArrayList<>();
+        if (tracked.parcels) {
+            for (Parcel row : loader.readParcels(file, start, end, errors)) {
+                rows.put(idHash(row.getId()), rowHash(row));
+            }
+        } else {
+            for (String[] row : loader.readCustomers(file, start, end, errors)) {
+                rows.add(customerHash(row[0], row[1]), 1);
+            }
+        }
+        return rows;
+    }
+
+    private TrackedFile tracked(Path file) {
+        TrackedFile tracked = trackedOrNull(file);
+        if (tracked == null) {
+            throw new IllegalArgumentException("Not a watched file: " + file);
+        }
+        return tracked;
+    }
+
+    private TrackedFile trackedOrNull(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        if (absolute.equals(parcels.file.toAbsolutePath().normalize())) {
+            return parcels;
+        }
+        if (absolute.equals(customers.file.toAbsolutePath().normalize())) {
+            return customers;
+        }
+        return null;
+    }
+
+    // False if the file changes within REWRITE_QUIET_MS, as a file rewritten
+    // in place can be seen half written
+    private static boolean quiet(Path file, BasicFileAttributes attributes) throws IOException {
+        try {
+            Thread.sleep(REWRITE_QUIET_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        BasicFileAttributes now = Files.readAttributes(file, BasicFileAttributes.class);
+        return Objects.equals(now.fileKey(), attributes.fileKey()) && now.size() == attributes.size()
+                && now.lastModifiedTime().equals(attributes.lastModifiedTime());
+    }
+
+    // The offset just past the last newline in [from, size), or from if there is none
+    private static long lineEnd(Path file, long from, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return lineEnd(channel, from, size);
+        }
+    }
+
+    private static long lineEnd(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK);
+        long blockEnd = size;
+        while (blockEnd > from) {
+            long blockStart = Math.max(from, blockEnd - SCAN_BLOCK);
+            block.clear().limit((int) (blockEnd - blockStart));
+            while (block.hasRemaining() && channel.read(block, blockStart + block.position()) > 0) {
+                // Fill the block
+            }
+            for (int i = block.position() - 1; i >= 0; i--) {
+                if (block.get(i) == '\n') {
+                    return blockStart + i + 1;
+                }
+            }
+            blockEnd = blockStart;
+        }
+        return from;
+    }
+
+    // The bytes just before offset, compared later to see the file was only appended to
+    private static byte[] readTail(Path file, long offset) {
+        int length = (int) Math.min(TAIL_CHECK, offset);
+        ByteBuffer tail = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (tail.hasRemaining() && channel.read(tail, offset - length + tail.position()) > 0) {
+                // Fill the buffer
+            }
+        } catch (IOException e) {
+            return new byte[0];
+        }
+        return tail.hasRemaining() ? new byte[0] : tail.array();
+    }
+
+    // Appends [from, end) of in to target and returns how much that was
+    private static long copy(FileChannel in, long from, long end, Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long position = from;
+            while (position < end) {
+                long copied = in.transferTo(position, end - position, out);
+                if (copied <= 0) {
+                    break;
+                }
+                position += copied;
+            }
+            return position - from;
+        }
+    }
+
+    private static long idHash(String id) {
+        return nonZero(hash(FNV_OFFSET, id));
+    }
+
+    private static long rowHash(Parcel row) {
+        long hash = hash(FNV_OFFSET, row.getId());
+        hash = (hash ^ Double.doubleToLongBits(row.getWeight())) * FNV_PRIME;
+        hash = hash(hash, row.getDimensions());
+        return nonZero((hash ^ row.getDaysInDepot()) * FNV_PRIME);
+    }
+
+    private static long customerHash(String name, String parcelId) {
+        return nonZero(hash(hash(FNV_OFFSET, name), parcelId));
+    }
+
+    // FNV-1a over the chars, then a separator so "ab","c" and "a","bc" differ
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return (hash ^ 0x1f) * FNV_PRIME;
+    }
+
+    private static long nonZero(long hash) {
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static final class TrackedFile {
+        final Path file;
+        final boolean parcels;
+        Object fileKey;
+        // Consumed up to here
+        long offset;
+        byte[] tail = new byte[0];
+        // Rows up to offset: id hash to row hash for parcels, row hash to count for customers
+        LongMap rows;
+        // Bumped whenever the fields above change, so a read made without the lock can tell it is stale
+        int version;
+        // Where the file stood when the current snapshot's state was captured, or -1
+        long capturedOffset = -1;
+        Object capturedKey;
+        boolean rewrittenSinceCapture;
+        // A snapshot about to be renamed over the file, and where to carry on in it
+        Path pendingTemp;
+        Object pendingKey;
+        long pendingOffset;
+        LongMap pendingRows;
+        // The file the last snapshot replaced, how much of it has been carried
+        // over, and until when to look for more; 0 until it is replaced
+        FileChannel oldFile;
+        long oldFileEnd;
+        long oldFileUntil;
+
+        TrackedFile(Path file, boolean parcels) {
+            this.file = file;
+            this.parcels = parcels;
+        }
+    }
+
+    // Open addressing from non-zero long keys to long values; a missing key reads as 0
+    private static final class LongMap {
+        private long[] keys = new long[64];
+        private long[] values = new long[64];
+        private int size;
+
+        long get(long key) {
+            int slot = slot(key);
+            return keys[slot] == key ? values[slot] : 0;
+        }
+
+        boolean containsKey(long key) {
+            return keys[slot(key)] == key;
+        }
+
+        void put(long key, long value) {
+            int slot = slot(key);
+            if (keys[slot] != key) {
+                keys[slot] = key;
+                if (++size * 2 > keys.length) {
+                    values[slot] = value;
+                    grow();
+                    return;
+                }
+            }
+            values[slot] = value;
+        }
+
+        void add(long key, long delta) {
+            put(key, get(key) + delta);
+        }
+
+        LongMap copy() {
+            LongMap copy = new LongMap();
+            copy.keys = keys.clone();
+            copy.values = values.clone();
+            copy.size = size;
+            return copy;
+        }
+
+        // The key's slot, or the empty one where it would go
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) (key ^ (key >>> 32)) * 0x9E3779B9 & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = slot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
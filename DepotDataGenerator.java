@@ -0,0 +1,80 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+// Writes synthetic Parcels.csv and Custs.csv files in the same layout as the
+// shipped ones, for benchmarks and load testing. The same seed always produces
+// the same files.
+//
+//   java DepotDataGenerator <directory> <rows> [seed]
+public class DepotDataGenerator {
+    private static final String[] FIRST_NAMES = {
+        "Andrew", "Ann", "Blair", "Callum", "Daisy", "Ewan", "Fiona", "Grace", "Hamish", "Isla",
+        "Jack", "Katie", "Lewis", "Morag", "Niall", "Orla", "Peter", "Rory", "Sophie", "Tim"
+    };
+    private static final String[] LAST_NAMES = {
+        "Anderson", "Brown", "Campbell", "Davidson", "Foster", "Graham", "Jones", "MacDonald",
+        "Murray", "Reid", "Robertson", "Ross", "Scott", "Smith", "Stewart", "Thomson", "Wilson"
+    };
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java DepotDataGenerator <directory> <rows> [seed]");
+            System.exit(2);
+        }
+        Path directory = Paths.get(args[0]);
+        int rows = Integer.parseInt(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+        Files.createDirectories(directory);
+        writeParcels(directory.resolve(Manager.PARCELS_FILE), rows, seed);
+        writeCustomers(directory.resolve(Manager.CUSTOMERS_FILE), rows, seed);
+        System.out.println("Wrote " + rows + " parcels and customers to " + directory.toAbsolutePath());
+    }
+
+    public static String parcelId(int index) {
+        return "X" + index;
+    }
+
+    // id,weight,length,width,height,days
+    public static void writeParcels(Path file, int rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < rows; i++) {
+                line.setLength(0);
+                line.append(parcelId(i)).append(',')
+                        .append(1 + random.nextInt(20)).append(',')
+                        .append(1 + random.nextInt(10)).append(',')
+                        .append(1 + random.nextInt(10)).append(',')
+                        .append(1 + random.nextInt(10)).append(',')
+                        .append(random.nextInt(15)).append("\r\n");
+                out.write(line.toString());
+            }
+        }
+    }
+
+    // name,parcelId; every customer collects a different parcel, in shuffled order
+    public static void writeCustomers(Path file, int rows, long seed) throws IOException {
+        Random random = new Random(seed + 1);
+        int[] order = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            order[i] = i;
+        }
+        for (int i = rows - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < rows; i++) {
+                out.write(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " "
+                        + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + "," + parcelId(order[i]) + "\r\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,477 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// JSON over HTTP for the counter scanners, backed by Manager:
+//
+//   GET  /parcels/{id}                      the parcel, or 404
+//   POST /parcels    {"id","weight","dimensions"}
+//   GET  /queue?offset=0&limit=50           customers in arrival order
+//   POST /customers  {"name","parcelId"}
+//   POST /release    {"parcelId"} or {"parcelIds":[...]} (all or nothing);
+//                    a single release committed with others answers with its fee and record
+//   GET  /released/{id}                     when and for what fee it was released
+//   GET  /metrics                           the depot's metrics, with latency per route
+//
+//   java DepotHttpServer [--port 8080] [--host 127.0.0.1] [--threads n] [--dir path]
+//
+// Requests run on a fixed pool and responses always carry a length, so
+// clients keep their connections alive. Single releases that arrive together
+// are committed as one batch by a dispatcher thread; if the batch is refused
+// they are retried one by one, which ends the same as serving them in turn.
+public class DepotHttpServer {
+    public static final int DEFAULT_PORT = 8080;
+    private static final int MAX_RELEASE_BATCH = 256;
+    private static final int DEFAULT_QUEUE_LIMIT = 50;
+    // How long a single release waits for the dispatcher before giving up
+    private static final long RELEASE_TIMEOUT_MILLIS = Long.getLong("depot.http.releaseTimeoutMillis", 30_000L);
+
+    private final Manager manager;
+    private final HttpServer server;
+    private final ExecutorService requestPool;
+    // Route timers, looked up once each; "http." + route in the depot's metrics
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final BlockingQueue<PendingRelease> pendingReleases = new LinkedBlockingQueue<>();
+    private final Thread releaseDispatcher;
+    private volatile boolean running;
+    // Manager writes its messages to a text area; each request thread reuses its own
+    private final ThreadLocal<StringBuilder> messages = ThreadLocal.withInitial(StringBuilder::new);
+    private final ThreadLocal<TextAreaSink> sinks =
+            ThreadLocal.withInitial(() -> new TextAreaSink(text -> messages.get().append(text)));
+
+    private static final class PendingRelease {
+        final String parcelId;
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+
+        PendingRelease(String parcelId) {
+            this.parcelId = parcelId;
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    public DepotHttpServer(Manager manager, InetSocketAddress address, int threads) throws IOException {
+        this.manager = manager;
+        AtomicInteger threadCount = new AtomicInteger();
+        requestPool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "depot-http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Headers and body go out as separate writes; without this each keep-alive
+        // response waits on the client's delayed ACK, about 40 ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(address, 1024);
+        server.setExecutor(requestPool);
+        server.createContext("/", this::handle);
+        releaseDispatcher = new Thread(this::dispatchReleases, "depot-http-release");
+        releaseDispatcher.setDaemon(true);
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        String host = InetAddress.getLoopbackAddress().getHostAddress();
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        Path directory = Paths.get(".");
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--host": host = args[++i]; break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--dir": directory = Paths.get(args[++i]); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        Manager manager = new Manager(directory);
+        manager.loadData();
+        DepotHttpServer httpServer;
+        try {
+            httpServer = new DepotHttpServer(manager, new InetSocketAddress(host, port), threads);
+        } catch (IOException e) {
+            System.err.println("Cannot listen on " + host + ":" + port + ": " + e.getMessage());
+            manager.close();
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            httpServer.stop();
+            manager.close();
+        }, "depot-http-shutdown"));
+        httpServer.start();
+        System.err.println("Depot HTTP API listening on http://" + host + ":" + httpServer.getPort() + "/");
+    }
+
+    public void start() {
+        running = true;
+        releaseDispatcher.start();
+        server.start();
+    }
+
+    // Finishes requests in progress, waiting at most a second
+    public void stop() {
+        running = false;
+        server.stop(1);
+        releaseDispatcher.interrupt();
+        requestPool.shutdown();
+        try {
+            requestPool.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String route = "unknown";
+        try {
+            // Read the whole body so the connection can carry the next request
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            String method = exchange.getRequestMethod();
+            URI uri = exchange.getRequestURI();
+            String path = uri.getPath();
+            Response response;
+            if (method.equals("GET") && path.startsWith("/parcels/")) {
+                route = "GET /parcels/{id}";
+                response = getParcel(path.substring("/parcels/".length()));
+            } else if (method.equals("POST") && path.equals("/parcels")) {
+                route = "POST /parcels";
+                response = addParcel(body);
+            } else if (method.equals("GET") && path.equals("/queue")) {
+                route = "GET /queue";
+                response = getQueue(queryParameters(uri.getRawQuery()));
+            } else if (method.equals("POST") && path.equals("/customers")) {
+                route = "POST /customers";
+                response = addCustomer(body);
+            } else if (method.equals("POST") && path.equals("/release")) {
+                route = "POST /release";
+                response = release(body);
+            } else if (method.equals("GET") && path.startsWith("/released/")) {
+                route = "GET /released/{id}";
+                response = getReleased(path.substring("/released/".length()));
+            } else if (method.equals("GET") && path.equals("/metrics")) {
+                route = "GET /metrics";
+                response = getMetrics();
+            } else {
+                response = error(404, "No such endpoint: " + method + " " + path);
+            }
+            send(exchange, response);
+        } catch (IllegalArgumentException e) {
+            send(exchange, error(400, e.getMessage()));
+        } catch (Exception e) {
+            send(exchange, error(500, e.toString()));
+        } finally {
+            exchange.close();
+            latencies.computeIfAbsent(route, r -> manager.getMetrics().timer("http." + r))
+                    .recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    private Response getParcel(String id) {
+        Parcel parcel = manager.getParcelMap().getParcel(id);
+        return parcel == null ? error(404, "Parcel not found: " + id) : new Response(200, parcelJson(parcel));
+    }
+
+    private Response addParcel(String body) {
+        Map<String, Object> request = object(body);
+        String id = string(request, "id");
+        double weight = number(request, "weight");
+        String dimensions = string(request, "dimensions");
+        if (manager.getParcelMap().getParcel(id) != null) {
+            return error(409, "Parcel already exists: " + id);
+        }
+        String output = run(sink -> manager.addNewParcel(id, weight, dimensions, sink));
+        if (!output.startsWith("Parcel added successfully")) {
+            return result(500, false, output);
+        }
+        return new Response(201, parcelJson(manager.getParcelMap().getParcel(id)));
+    }
+
+    private Response getQueue(Map<String, String> query) {
+        int offset = intParameter(query, "offset", 0);
+        int limit = intParameter(query, "limit", DEFAULT_QUEUE_LIMIT);
+        QueueOfCustomers queue = manager.getCustomerQueue();
+        LanePolicy lanes = queue.getLanePolicy();
+        StringBuilder json = new StringBuilder("{\"size\":").append(queue.size()).append(",\"customers\":[");
+        // Counted from offset, so a huge limit cannot overflow the end position
+        for (int i = offset; i - offset < limit; i++) {
+            Customer customer = queue.getCustomerAt(i);
+            if (customer == null) {
+                break;
+            }
+            if (i > offset) {
+                json.append(',');
+            }
+            int lane = queue.laneOf(customer);
+            json.append("{\"position\":").append(i)
+                    .append(",\"name\":").append(Json.quote(customer.getName()))
+                    .append(",\"parcelId\":").append(Json.quote(customer.getParcelId()))
+                    .append(",\"lane\":").append(Json.quote(lane < 0 ? null : lanes.laneName(lane)))
+                    .append('}');
+        }
+        return new Response(200, json.append("]}").toString());
+    }
+
+    private Response addCustomer(String body) {
+        Map<String, Object> request = object(body);
+        String name = string(request, "name");
+        String parcelId = string(request, "parcelId");
+        if (manager.getParcelMap().getParcel(parcelId) == null) {
+            return error(404, "Parcel not found: " + parcelId);
+        }
+        String output = run(sink -> manager.addNewCustomer(name, parcelId, sink));
+        boolean added = output.startsWith("Customer added successfully");
+        return result(added ? 201 : 500, added, output);
+    }
+
+    private Response release(String body) throws Exception {
+        Map<String, Object> request = object(body);
+        Object ids = request.get("parcelIds");
+        if (ids == null) {
+            return releaseOne(string(request, "parcelId"));
+        }
+        if (!(ids instanceof List)) {
+            throw new IllegalArgumentException("parcelIds must be an array");
+        }
+        List<String> parcelIds = new ArrayList<>();
+        for (Object id : (List<?>) ids) {
+            if (!(id instanceof String)) {
+                throw new IllegalArgumentException("parcelIds must hold strings");
+            }
+            parcelIds.add((String) id);
+        }
+        boolean[] released = new boolean[1];
+        String output = run(sink -> released[0] = manager.processBatch(parcelIds, sink));
+        return result(released[0] ? 200 : 409, released[0], output);
+    }
+
+    // Hands the release to the dispatcher. One queued after the dispatcher has
+    // drained on stop, or still queued at the timeout, is taken back and never runs.
+    private Response releaseOne(String parcelId) throws Exception {
+        if (!running) {
+            return error(503, "Server is stopping");
+        }
+        PendingRelease pending = new PendingRelease(parcelId);
+        pendingReleases.add(pending);
+        if (!running && pendingReleases.remove(pending)) {
+            return error(503, "Server is stopping");
+        }
+        try {
+            return pending.response.get(RELEASE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (pendingReleases.remove(pending)) {
+                return error(503, "Release not started in time: " + parcelId);
+            }
+            return error(503, "Release still in progress: " + parcelId);
+        }
+    }
+
+    private Response getReleased(String id) throws IOException {
+        ReleasedStore.Release release = manager.getReleasedStore().find(id);
+        if (release == null) {
+            return error(404, "Parcel has not been released: " + id);
+        }
+        return new Response(200, "{\"parcelId\":" + Json.quote(id)
+                + ",\"day\":" + Json.quote(release.getDay().toString())
+                + ",\"record\":" + Json.quote(release.getRecord()) + "}");
+    }
+
+    private Response getMetrics() {
+        return new Response(200, manager.getMetrics().toJson());
+    }
+
+    // Takes whatever single releases are waiting and commits them together.
+    // Nothing waits for a batch to fill, so a lone release is not delayed.
+    private void dispatchReleases() {
+        List<PendingRelease> batch = new ArrayList<>();
+        while (running) {
+            try {
+                batch.add(pendingReleases.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            pendingReleases.drainTo(batch, MAX_RELEASE_BATCH - 1);
+            try {
+                releaseTogether(batch);
+            } catch (RuntimeException e) {
+                batch.forEach(pending -> pending.response.complete(error(500, e.toString())));
+            }
+            batch.clear();
+        }
+        PendingRelease pending;
+        while ((pending = pendingReleases.poll()) != null) {
+            pending.response.complete(error(503, "Server is stopping"));
+        }
+    }
+
+    private void releaseTogether(List<PendingRelease> batch) {
+        if (batch.size() > 1) {
+            List<String> parcelIds = new ArrayList<>(batch.size());
+            batch.forEach(pending -> parcelIds.add(pending.parcelId));
+            Manager.BatchRelease[] release = new Manager.BatchRelease[1];
+            run(sink -> release[0] = manager.releaseBatch(parcelIds, sink));
+            if (release[0] != null) {
+                // Batch order is the order of the pending releases
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).response.complete(released(release[0], i));
+                }
+                return;
+            }
+        }
+        for (PendingRelease pending : batch) {
+            boolean[] released = new boolean[1];
+            String output = run(sink -> released[0] = manager.processNextCustomer(pending.parcelId, sink));
+            pending.response.complete(result(released[0] ? 200 : 409, released[0], output));
+        }
+    }
+
+    // One parcel of a committed batch
+    private static Response released(Manager.BatchRelease release, int index) {
+        return new Response(200, "{\"ok\":true,\"parcelId\":" + Json.quote(release.getParcelId(index))
+                + ",\"fee\":" + release.getFee(index)
+                + ",\"record\":" + Json.quote(release.getRecord(index)) + "}");
+    }
+
+    private interface Command {
+        void run(TextAreaSink sink);
+    }
+
+    private String run(Command command) {
+        StringBuilder buffer = messages.get();
+        buffer.setLength(0);
+        command.run(sinks.get());
+        return buffer.toString();
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String parcelJson(Parcel parcel) {
+        return "{\"id\":" + Json.quote(parcel.getId())
+                + ",\"weight\":" + parcel.getWeight()
+                + ",\"dimensions\":" + Json.quote(parcel.getDimensions())
+                + ",\"daysInDepot\":" + parcel.getDaysInDepot()
+                + ",\"status\":" + Json.quote(parcel.getStatus().getLabel()) + "}";
+    }
+
+    private static Response result(int status, boolean ok, String output) {
+        StringBuilder json = new StringBuilder("{\"ok\":").append(ok).append(",\"messages\":[");
+        boolean first = true;
+        for (String line : output.split("\n")) {
+            if (!line.isEmpty()) {
+                json.append(first ? "" : ",").append(Json.quote(line));
+                first = false;
+            }
+        }
+        return new Response(status, json.append("]}").toString());
+    }
+
+    private static Response error(int status, String message) {
+        return new Response(status, "{\"ok\":false,\"error\":" + Json.quote(message) + "}");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> object(String body) {
+        Object value = Json.parse(body);
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Request body must be a JSON object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private static String string(Map<String, Object> request, String field) {
+        Object value = request.get(field);
+        if (!(value instanceof String) || ((String) value).trim().isEmpty()) {
+            throw new IllegalArgumentException(field + " must be a non-empty string");
+        }
+        return ((String) value).trim();
+    }
+
+    private static double number(Map<String, Object> request, String field) {
+        Object value = request.get(field);
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException(field + " must be a number");
+        }
+        return (Double) value;
+    }
+
+    private static Map<String, String> queryParameters(String query) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+            }
+        }
+        return parameters;
+    }
+
+    private static String decode(String text) {
+        return java.net.URLDecoder.decode(text, StandardCharsets.UTF_8);
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int defaultValue) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < 0) {
+                throw new NumberFormatException();
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a non-negative integer");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Drives a running DepotHttpServer the way a shift of scanners would: mostly
+// parcel lookups, with a release of a queued customer's parcel every few
+// requests, over keep-alive connections.
+//
+//   java DepotLoadClient [--url http://127.0.0.1:8080] [--threads 8] [--requests 10000] [--release-every 4]
+//
+// Releases take parcels from the front of the queue, so the run empties it;
+// use a copy of the data.
+public class DepotLoadClient {
+    public static void main(String[] args) throws Exception {
+        String url = "http://127.0.0.1:" + DepotHttpServer.DEFAULT_PORT;
+        int threads = 8;
+        int requests = 10000;
+        int releaseEvery = 4;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url": url = args[++i]; break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--requests": requests = Integer.parseInt(args[++i]); break;
+                case "--release-every": releaseEvery = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        String base = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        // Parcels with a customer waiting, in queue order, to release from
+        ConcurrentLinkedQueue<String> releasable = new ConcurrentLinkedQueue<>(queuedParcelIds(client, base));
+        List<String> lookups = new ArrayList<>(releasable);
+        if (lookups.isEmpty()) {
+            System.err.println("The queue is empty; nothing to look up or release");
+            return;
+        }
+        System.err.println(lookups.size() + " queued parcels to work with");
+
+        LatencyHistogram lookupLatency = new LatencyHistogram();
+        LatencyHistogram releaseLatency = new LatencyHistogram();
+        AtomicLong remaining = new AtomicLong(requests);
+        AtomicLong errors = new AtomicLong();
+        AtomicLong refused = new AtomicLong();
+        int releaseInterval = releaseEvery;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long n;
+                while ((n = remaining.getAndDecrement()) > 0) {
+                    String releaseId = releaseInterval > 0 && n % releaseInterval == 0 ? releasable.poll() : null;
+                    HttpRequest request = releaseId != null
+                            ? HttpRequest.newBuilder(URI.create(base + "/release"))
+                                    .header("Content-Type", "application/json")
+                                    .POST(HttpRequest.BodyPublishers.ofString("{\"parcelId\":" + Json.quote(releaseId) + "}"))
+                                    .build()
+                            : HttpRequest.newBuilder(URI.create(base + "/parcels/"
+                                    + lookups.get(random.nextInt(lookups.size())))).GET().build();
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        (releaseId != null ? releaseLatency : lookupLatency).recordNanos(System.nanoTime() - sent);
+                        if (response.statusCode() == 409) {
+                            refused.incrementAndGet();
+                        } else if (response.statusCode() >= 400) {
+                            errors.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%d requests on %d threads in %.3f s, %.0f requests/s, %d refused, %d errors%n",
+                requests, threads, elapsed / 1e9, requests / (elapsed / 1e9), refused.get(), errors.get());
+        System.out.println("lookup:  " + lookupLatency);
+        System.out.println("release: " + releaseLatency);
+        HttpResponse<String> metrics = client.send(
+                HttpRequest.newBuilder(URI.create(base + "/metrics")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        System.out.println("server:  " + metrics.body());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> queuedParcelIds(HttpClient client, String base) throws Exception {
+        List<String> parcelIds = new ArrayList<>();
+        int pageSize = 500;
+        for (int offset = 0; ; offset += pageSize) {
+            HttpResponse<String> response = client.send(
+                    HttpRequest.newBuilder(URI.create(base + "/queue?offset=" + offset + "&limit=" + pageSize)).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("GET /queue returned " + response.statusCode());
+            }
+            List<Object> customers = (List<Object>) ((Map<String, Object>) Json.parse(response.body())).get("customers");
+            for (Object customer : customers) {
+                parcelIds.add((String) ((Map<String, Object>) customer).get("parcelId"));
+            }
+            if (customers.size() < pageSize) {
+                return parcelIds;
+            }
+        }
+    }
+}
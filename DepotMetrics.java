@@ -0,0 +1,283 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Counters, gauges and latency timers for one depot directory. Callers look a
+// metric up once and keep it: recording is a LongAdder increment or a
+// LatencyHistogram record, with no locks, so it can sit on the release path.
+//
+// Once started, the metrics are published as the JMX MBean
+// depot:type=Metrics,directory="<dir>" and written to metrics.txt in the
+// directory every depot.metrics.dumpIntervalMs (60 s by default, 0 to stop).
+public class DepotMetrics {
+    public static final String DUMP_FILE = "metrics.txt";
+    private static final long DUMP_INTERVAL_MS = Long.getLong("depot.metrics.dumpIntervalMs", 60_000L);
+    private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
+    // Attribute names end in one of these for each timer
+    private static final String[] TIMER_FIELDS = {
+            "count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "p999Micros", "maxMicros"
+    };
+
+    // One instance per directory, like Log
+    private static final Map<Path, DepotMetrics> instances = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService dumper;
+    private ObjectName objectName;
+    // Counter values at the last dump, for the rates in the next one
+    private final Map<String, Long> lastDumpCounts = new HashMap<>();
+    private long lastDumpNanos = System.nanoTime();
+
+    private DepotMetrics(Path directory) {
+        this.directory = directory;
+    }
+
+    public static DepotMetrics getInstance() {
+        return getInstance(Paths.get("."));
+    }
+
+    public static DepotMetrics getInstance(Path directory) {
+        return instances.computeIfAbsent(directory.toAbsolutePath().normalize(), DepotMetrics::new);
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    // Read when the metrics are; a later gauge of the same name replaces it
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    // Registers the MBean and starts the periodic dump; does nothing if already started
+    public synchronized void start() {
+        if (objectName == null) {
+            try {
+                ObjectName name = new ObjectName("depot:type=Metrics,directory="
+                        + ObjectName.quote(directory.toString()));
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(new MetricsMBean(), name);
+                }
+                objectName = name;
+            } catch (JMException e) {
+                System.err.println("Error registering depot metrics with JMX: " + e.getMessage());
+            }
+        }
+        if (dumper == null && DUMP_INTERVAL_MS > 0) {
+            dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "depot-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleWithFixedDelay(this::dump, DUMP_INTERVAL_MS, DUMP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Writes a last dump and unregisters the MBean; the metrics keep counting
+    public synchronized void stop() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+            dump();
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // Already gone
+            }
+            objectName = null;
+        }
+    }
+
+    // Replaces metrics.txt with the current values; counters also show their
+    // rate since the previous dump
+    public synchronized void dump() {
+        Path file = directory.resolve(DUMP_FILE);
+        Path temp = directory.resolve(DUMP_FILE + ".tmp");
+        try {
+            Files.write(temp, format(true).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error writing depot metrics: " + e.getMessage());
+        }
+    }
+
+    public String format() {
+        return format(false);
+    }
+
+    private synchronized String format(boolean sinceLastDump) {
+        long now = System.nanoTime();
+        double seconds = (now - lastDumpNanos) / 1e9;
+        StringBuilder text = new StringBuilder("# Depot metrics at ")
+                .append(LocalDateTime.now().format(dtf)).append(System.lineSeparator());
+        new TreeMap<>(counters).forEach((name, adder) -> {
+            long value = adder.sum();
+            text.append("counter ").append(name).append(' ').append(value);
+            if (sinceLastDump) {
+                long delta = value - lastDumpCounts.getOrDefault(name, 0L);
+                lastDumpCounts.put(name, value);
+                text.append(String.format(" (+%d, %.1f/s)", delta, seconds > 0 ? delta / seconds : 0));
+            }
+            text.append(System.lineSeparator());
+        });
+        new TreeMap<>(gauges).forEach((name, gauge) -> text.append("gauge ").append(name).append(' ')
+                .append(gauge.getAsLong()).append(System.lineSeparator()));
+        new TreeMap<>(timers).forEach((name, timer) -> text.append("timer ").append(name).append(' ')
+                .append(timer).append(System.lineSeparator()));
+        if (sinceLastDump) {
+            lastDumpNanos = now;
+        }
+        return text.toString();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"counters\":{");
+        appendJson(json, new TreeMap<>(counters), adder -> Long.toString(adder.sum()));
+        json.append("},\"gauges\":{");
+        appendJson(json, new TreeMap<>(gauges), gauge -> Long.toString(gauge.getAsLong()));
+        json.append("},\"timers\":{");
+        appendJson(json, new TreeMap<>(timers), LatencyHistogram::toJson);
+        return json.append("}}").toString();
+    }
+
+    private static <T> void appendJson(StringBuilder json, Map<String, T> values,
+                                       Function<T, String> format) {
+        boolean first = true;
+        for (Map.Entry<String, T> entry : values.entrySet()) {
+            json.append(first ? "" : ",").append(Json.quote(entry.getKey())).append(':')
+                    .append(format.apply(entry.getValue()));
+            first = false;
+        }
+    }
+
+    // Counters and gauges are attributes under their own names; each timer is
+    // one attribute per TIMER_FIELDS entry, e.g. manager.processNextCustomer.p99Micros
+    private Object attribute(String name) throws AttributeNotFoundException {
+        LongAdder counter = counters.get(name);
+        if (counter != null) {
+            return counter.sum();
+        }
+        LongSupplier gauge = gauges.get(name);
+        if (gauge != null) {
+            return gauge.getAsLong();
+        }
+        int dot = name.lastIndexOf('.');
+        LatencyHistogram timer = dot < 0 ? null : timers.get(name.substring(0, dot));
+        if (timer != null) {
+            switch (name.substring(dot + 1)) {
+                case "count": return timer.getCount();
+                case "meanMicros": return timer.getMean();
+                case "p50Micros": return timer.getPercentile(50);
+                case "p90Micros": return timer.getPercentile(90);
+                case "p99Micros": return timer.getPercentile(99);
+                case "p999Micros": return timer.getPercentile(99.9);
+                case "maxMicros": return timer.getMax();
+                default: break;
+            }
+        }
+        throw new AttributeNotFoundException(name);
+    }
+
+    // Dynamic so metrics added after registration show up without re-registering
+    private class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String name) throws AttributeNotFoundException {
+            return attribute(name);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                try {
+                    list.add(new Attribute(name, attribute(name)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the interface expects
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Depot metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String operation, Object[] params, String[] signature) throws ReflectionException {
+            if (operation.equals("format")) {
+                return format();
+            }
+            // What the platform server expects, so a JMX client gets a proper error back
+            throw new ReflectionException(new NoSuchMethodException(operation));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : new TreeMap<>(counters).keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", "Counter", true, false, false));
+            }
+            for (String name : new TreeMap<>(gauges).keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", "Gauge", true, false, false));
+            }
+            for (String name : new TreeMap<>(timers).keySet()) {
+                for (String field : TIMER_FIELDS) {
+                    String type = field.equals("meanMicros") ? "double" : "long";
+                    attributes.add(new MBeanAttributeInfo(name + "." + field, type, "Latency", true, false, false));
+                }
+            }
+            MBeanOperationInfo[] operations = {
+                    new MBeanOperationInfo("format", "All metrics as text", null, "java.lang.String",
+                            MBeanOperationInfo.INFO)
+            };
+            return new MBeanInfo(DepotMetrics.class.getName(), "Depot throughput and latency",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, operations, null);
+        }
+    }
+}
@@ -0,0 +1,398 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.swing.JTextArea;
+
+// Several depots run in one process. Each shard is a Manager over its own
+// directory under the root, with its own CSVs, journal, released records, log,
+// metrics and worker threads. A ShardRouter maps each parcel id to a shard,
+// and operations on a parcel go straight to that shard. No lock spans shards,
+// so work on different shards runs in parallel. Queries over every shard
+// run on each shard's threads at once, and their results are merged in shard
+// order.
+//
+//   java Manager --headless --shards north:X,south:Y+Z [--dir root] ...
+//   java Manager --headless --shards 4 ...
+//
+// Each shard is named and may be followed by the id prefixes routed to it,
+// joined by '+'. Ids matching no prefix are spread over all shards by hash.
+// With only a count, shards are named shard-0, shard-1, ... and every id is
+// hashed. A parcel that is not on the shard its id routes to is still found,
+// e.g. one a depot held before it was given a prefix.
+public class DepotShards implements Depot {
+    // Threads per shard, for work submitted to it and its part of queries
+    private static final int THREADS = Integer.getInteger("depot.shards.threads", 2);
+
+    private final String[] names;
+    private final Manager[] shards;
+    private final ExecutorService[] executors;
+    private final ShardRouter router;
+
+    public DepotShards(Path root, List<String> names, ShardRouter router) throws IOException {
+        if (names.isEmpty() || names.size() != router.shardCount()) {
+            throw new IllegalArgumentException("Router has " + router.shardCount() + " shards but "
+                    + names.size() + " are named");
+        }
+        if (new HashSet<>(names).size() != names.size()) {
+            throw new IllegalArgumentException("Shard names must differ: " + names);
+        }
+        this.names = names.toArray(new String[0]);
+        this.router = router;
+        shards = new Manager[names.size()];
+        executors = new ExecutorService[names.size()];
+        for (int i = 0; i < shards.length; i++) {
+            Path directory = root.resolve(names.get(i));
+            Files.createDirectories(directory);
+            // A new shard starts with no parcels rather than with missing files
+            for (String file : new String[] {Manager.PARCELS_FILE, Manager.CUSTOMERS_FILE}) {
+                if (Files.notExists(directory.resolve(file))) {
+                    Files.createFile(directory.resolve(file));
+                }
+            }
+            shards[i] = new Manager(directory);
+            String prefix = "depot-shard-" + names.get(i) + "-";
+            AtomicInteger threadNumber = new AtomicInteger();
+            executors[i] = Executors.newFixedThreadPool(THREADS, r -> {
+                Thread thread = new Thread(r, prefix + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // Shards as described above, as subdirectories of root
+    public static DepotShards open(Path root, String spec) throws IOException {
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> prefixes = new HashMap<>();
+        if (spec.matches("\\d+")) {
+            int count = Integer.parseInt(spec);
+            for (int i = 0; i < count; i++) {
+                names.add("shard-" + i);
+            }
+        } else {
+            for (String shard : spec.split(",")) {
+                String[] parts = shard.trim().split(":", 2);
+                if (parts[0].isEmpty()) {
+                    throw new IllegalArgumentException("Shard without a name in " + spec);
+                }
+                if (parts.length == 2) {
+                    for (String prefix : parts[1].split("\\+")) {
+                        if (!prefix.isEmpty() && prefixes.put(prefix, names.size()) != null) {
+                            throw new IllegalArgumentException("Prefix " + prefix + " given to two shards");
+                        }
+                    }
+                }
+                names.add(parts[0]);
+            }
+        }
+        ShardRouter router = ShardRouter.hashing(names.size());
+        if (!prefixes.isEmpty()) {
+            router = ShardRouter.byPrefix(prefixes, router);
+        }
+        return new DepotShards(root, names, router);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public String getShardName(int shard) {
+        return names[shard];
+    }
+
+    public Manager getShard(int shard) {
+        return shards[shard];
+    }
+
+    // The shard holding the parcel: the one its id routes to, unless another
+    // shard has it and that one does not. New ids go where they route.
+    public int shardOf(String parcelId) {
+        int routed = router.shardFor(parcelId);
+        if (shards[routed].getParcelMap().getParcel(parcelId) != null) {
+            return routed;
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (i != routed && shards[i].getParcelMap().getParcel(parcelId) != null) {
+                return i;
+            }
+        }
+        return routed;
+    }
+
+    // Runs the task on the shard's own threads
+    public <T> CompletableFuture<T> submit(int shard, Function<Manager, T> task) {
+        return CompletableFuture.supplyAsync(() -> task.apply(shards[shard]), executors[shard]);
+    }
+
+    // Runs the task on every shard at once; results are in shard order
+    public <T> List<T> onEveryShard(Function<Manager, T> task) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            futures.add(submit(i, task));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    // Every shard loads its files at the same time
+    @Override
+    public void loadData() {
+        onEveryShard(shard -> {
+            shard.loadData();
+            return null;
+        });
+    }
+
+    @Override
+    public boolean processNextCustomer(String parcelId, JTextArea displayArea) {
+        return shards[shardOf(parcelId)].processNextCustomer(parcelId, displayArea);
+    }
+
+    // Releases every parcel in the batch or none of them, as Manager does. A
+    // batch on one shard is handed to it whole. Otherwise the batch is claimed
+    // on each of its shards, holding their mutation locks in shard order,
+    // before any is committed. Only a journal write failing on one shard after
+    // another has committed leaves a batch partly released, and that is reported.
+    @Override
+    public boolean processBatch(List<String> parcelIds, JTextArea displayArea) {
+        if (parcelIds.isEmpty()) {
+            displayArea.append("No parcel IDs in batch.\n");
+            return false;
+        }
+        Map<Integer, List<String>> byShard = new TreeMap<>();
+        for (String parcelId : parcelIds) {
+            byShard.computeIfAbsent(shardOf(parcelId), shard -> new ArrayList<>()).add(parcelId);
+        }
+        if (byShard.size() == 1) {
+            Map.Entry<Integer, List<String>> only = byShard.entrySet().iterator().next();
+            return shards[only.getKey()].processBatch(only.getValue(), displayArea);
+        }
+
+        Deque<Lock> locks = new ArrayDeque<>();
+        Deque<Manager> claimedShards = new ArrayDeque<>();
+        Deque<Manager.BatchClaim> claims = new ArrayDeque<>();
+        try {
+            for (Map.Entry<Integer, List<String>> entry : byShard.entrySet()) {
+                Manager shard = shards[entry.getKey()];
+                Lock lock = shard.mutationLock();
+                lock.lock();
+                locks.push(lock);
+                Manager.BatchClaim claim = shard.claimBatch(entry.getValue(), displayArea);
+                if (claim == null) {
+                    return false;
+                }
+                claimedShards.addLast(shard);
+                claims.addLast(claim);
+            }
+            List<String> committed = new ArrayList<>();
+            double totalFee = 0;
+            for (Map.Entry<Integer, List<String>> entry : byShard.entrySet()) {
+                Manager shard = claimedShards.removeFirst();
+                Manager.BatchRelease release = shard.commitBatch(claims.removeFirst(), displayArea);
+                if (release == null) {
+                    if (!committed.isEmpty()) {
+                        displayArea.append("Batch only partly processed; parcels were released on "
+                                + String.join(", ", committed) + ".\n");
+                    }
+                    return false;
+                }
+                committed.add(names[entry.getKey()]);
+                totalFee += release.getTotalFee();
+            }
+            Manager.appendBatchSummary(displayArea, parcelIds.size(), totalFee);
+            return true;
+
+        } catch (Exception e) {
+            displayArea.append("Error processing batch: " + e.getMessage() + "\n");
+            return false;
+        } finally {
+            // Claims not committed are handed back before their shard is unlocked
+            while (!claims.isEmpty()) {
+                claimedShards.removeLast().abandonBatch(claims.removeLast());
+            }
+            while (!locks.isEmpty()) {
+                locks.pop().unlock();
+            }
+        }
+    }
+
+    // The customer joins the queue of the shard holding their parcel
+    @Override
+    public void addNewCustomer(String name, String parcelId, JTextArea displayArea) {
+        shards[shardOf(parcelId)].addNewCustomer(name, parcelId, displayArea);
+    }
+
+    @Override
+    public void addNewParcel(String id, double weight, String dimensions, JTextArea displayArea) {
+        shards[shardOf(id)].addNewParcel(id, weight, dimensions, displayArea);
+    }
+
+    @Override
+    public void removeCustomer(String name, String parcelId, JTextArea displayArea) {
+        shards[shardOf(parcelId)].removeCustomer(name, parcelId, displayArea);
+    }
+
+    @Override
+    public void removeParcel(String id, JTextArea displayArea) {
+        shards[shardOf(id)].removeParcel(id, displayArea);
+    }
+
+    @Override
+    public void markParcelReady(String id, JTextArea displayArea) {
+        shards[shardOf(id)].markParcelReady(id, displayArea);
+    }
+
+    // Asks the shard the id belongs to, then every shard at once: a parcel
+    // kept on another shard than its id routes to is only found by routing
+    // once its release has been compacted out of memory
+    @Override
+    public void findReleasedParcel(String parcelId, JTextArea displayArea) {
+        try {
+            ReleasedStore.Release release = shards[shardOf(parcelId)].getReleasedStore().find(parcelId);
+            if (release == null) {
+                for (ReleasedStore.Release found : onEveryShard(shard -> findReleased(shard, parcelId))) {
+                    if (found != null) {
+                        release = found;
+                        break;
+                    }
+                }
+            }
+            if (release == null) {
+                displayArea.append("Parcel has not been released: " + parcelId + "\n");
+            } else {
+                displayArea.append("Parcel " + parcelId + " released on " + release.getDay() + ": " +
+                                   release.getRecord() + "\n");
+            }
+        } catch (IOException | UncheckedIOException e) {
+            displayArea.append("Error looking up released parcel: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static ReleasedStore.Release findReleased(Manager shard, String parcelId) {
+        try {
+            return shard.getReleasedStore().find(parcelId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void displayCustomerQueue(JTextArea displayArea) {
+        displayEach(displayArea, Manager::displayCustomerQueue);
+    }
+
+    @Override
+    public void displayParcels(JTextArea displayArea) {
+        displayEach(displayArea, Manager::displayParcels);
+    }
+
+    @Override
+    public void displayProcessedParcels(JTextArea processedArea) {
+        displayEach(processedArea, Manager::displayProcessedParcels);
+    }
+
+    @Override
+    public void displayLog(JTextArea displayArea) {
+        displayEach(displayArea, Manager::displayLog);
+    }
+
+    // One line per shard and the depot-wide totals
+    @Override
+    public void displayStats(JTextArea displayArea) {
+        List<long[]> counts = onEveryShard(shard -> new long[] {
+                shard.getCustomerQueue().size(),
+                shard.getParcelMap().count(ParcelStatus.IN_DEPOT),
+                shard.getParcelMap().count(ParcelStatus.READY),
+                shard.getReleasedStore().size()
+        });
+        long[] total = new long[4];
+        displayArea.append("\n");
+        for (int i = 0; i < shards.length; i++) {
+            long[] shard = counts.get(i);
+            for (int j = 0; j < total.length; j++) {
+                total[j] += shard[j];
+            }
+            displayArea.append(names[i] + ": " + Manager.formatStats(shard[0], shard[1], shard[2], shard[3]) + "\n");
+        }
+        displayArea.append("All shards: " + Manager.formatStats(total[0], total[1], total[2], total[3]) + "\n");
+    }
+
+    // Each shard prices its own parcels; the results are joined in shard order
+    @Override
+    public FeeCalculator.Result calculateOutstandingFees(RateTable rates) {
+        List<FeeCalculator.Result> results = onEveryShard(shard -> shard.calculateOutstandingFees(rates));
+        int size = 0;
+        for (FeeCalculator.Result result : results) {
+            size += result.size();
+        }
+        String[] ids = new String[size];
+        double[] fees = new double[size];
+        double total = 0;
+        int next = 0;
+        for (FeeCalculator.Result result : results) {
+            for (int i = 0; i < result.size(); i++, next++) {
+                ids[next] = result.getId(i);
+                fees[next] = result.getFee(i);
+            }
+            total += result.getTotal();
+        }
+        return new FeeCalculator.Result(ids, fees, total);
+    }
+
+    @Override
+    public void close() {
+        try {
+            onEveryShard(shard -> {
+                shard.close();
+                return null;
+            });
+        } finally {
+            for (ExecutorService executor : executors) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    // Each shard writes to its own buffer at the same time; the buffers are
+    // then shown one after another under the shard's name
+    private void displayEach(JTextArea displayArea, BiConsumer<Manager, JTextArea> display) {
+        List<String> texts = onEveryShard(shard -> {
+            StringBuilder text = new StringBuilder();
+            display.accept(shard, new TextAreaSink(text::append));
+            return text.toString();
+        });
+        for (int i = 0; i < shards.length; i++) {
+            String text = texts.get(i);
+            displayArea.append("\n== " + names[i] + " ==\n");
+            displayArea.append(text.startsWith("\n") ? text.substring(1) : text);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+// Binary image of the depot, written next to each pair of CSV snapshots so a
+// restart can skip parsing them. It holds exactly what the CSVs hold and is
+// only used while both CSVs are unchanged since it was written.
+//
+// Layout, big-endian:
+//   header (64 bytes): magic "DPSN", version, generation, size and modified
+//     time of Parcels.csv and Custs.csv, body length, body CRC32C, header CRC32C
+//   body: string table (count, then length-prefixed UTF-8), parcels (count,
+//     then 28-byte records: id ref, weight, length, width, height, days in
+//     depot), customers (count, then 8-byte records: name ref, parcel id ref)
+// Days in depot are counted on the same day as those in Parcels.csv.
+// Dimensions of the form "LxWxH" are packed as three ints; any other form is
+// stored as a string, flagged by a length of -1 with the string ref in width.
+public final class DepotSnapshot {
+    private static final int MAGIC = 0x4450534E;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    // Spelled out field by field, so the sizes cannot drift from what write() emits
+    private static final int PARCEL_RECORD_SIZE = Integer.BYTES + Double.BYTES + 4 * Integer.BYTES;
+    private static final int CUSTOMER_RECORD_SIZE = 2 * Integer.BYTES;
+
+    private DepotSnapshot() {
+    }
+
+    public static void write(Path file, long generation, List<Parcel> parcels, List<Customer> customers,
+                             Path parcelsCsv, Path customersCsv) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        int[][] dimensions = new int[parcels.size()][];
+        for (int i = 0; i < parcels.size(); i++) {
+            Parcel parcel = parcels.get(i);
+            intern(strings, parcel.getId());
+            String[] fields = DepotStore.dimensionFields(parcel.getDimensions());
+            dimensions[i] = pack(fields);
+            if (dimensions[i] == null) {
+                dimensions[i] = new int[] {-1, intern(strings, String.join("x", fields)), 0};
+            }
+        }
+        for (Customer customer : customers) {
+            intern(strings, customer.getName());
+            intern(strings, customer.getParcelId());
+        }
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            CRC32C bodyChecksum = new CRC32C();
+            // Not closed, as that would close the channel before the header is written
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), bodyChecksum), 1 << 16));
+            out.writeInt(strings.size());
+            for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(parcels.size());
+            for (int i = 0; i < parcels.size(); i++) {
+                Parcel parcel = parcels.get(i);
+                out.writeInt(strings.get(parcel.getId()));
+                out.writeDouble(parcel.getWeight());
+                out.writeInt(dimensions[i][0]);
+                out.writeInt(dimensions[i][1]);
+                out.writeInt(dimensions[i][2]);
+                out.writeInt(parcel.getDaysInDepot());
+            }
+            out.writeInt(customers.size());
+            for (Customer customer : customers) {
+                out.writeInt(strings.get(customer.getName()));
+                out.writeInt(strings.get(customer.getParcelId()));
+            }
+            out.flush();
+            long bodyLength = channel.position() - HEADER_SIZE;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(generation)
+                    .putLong(Files.size(parcelsCsv)).putLong(modified(parcelsCsv))
+                    .putLong(Files.size(customersCsv)).putLong(modified(customersCsv))
+                    .putLong(bodyLength).putInt((int) bodyChecksum.getValue());
+            CRC32C headerChecksum = new CRC32C();
+            headerChecksum.update(header.array(), 0, HEADER_SIZE - 4);
+            header.putInt((int) headerChecksum.getValue()).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+        DurableFiles.replace(tempFile, file);
+    }
+
+    // Loads the snapshot into empty structures. Returns false, without touching
+    // them, if either CSV changed since it was written; throws if the file is
+    // torn, corrupt or from another version. A null parcelMap skips the parcels,
+    // for a map whose store kept them from the last run.
+    public static boolean read(Path file, ParcelMap parcelMap, QueueOfCustomers customerQueue,
+                               Path parcelsCsv, Path customersCsv) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("truncated header");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("too large to map");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32C headerChecksum = new CRC32C();
+            headerChecksum.update(buffer.slice(0, HEADER_SIZE - 4));
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("not a depot snapshot");
+            }
+            if (buffer.getInt(HEADER_SIZE - 4) != (int) headerChecksum.getValue()) {
+                throw new IOException("header checksum mismatch");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("unsupported version " + buffer.getInt(4));
+            }
+            if (!Files.exists(parcelsCsv) || !Files.exists(customersCsv)
+                    || buffer.getLong(16) != Files.size(parcelsCsv) || buffer.getLong(24) != modified(parcelsCsv)
+                    || buffer.getLong(32) != Files.size(customersCsv) || buffer.getLong(40) != modified(customersCsv)) {
+                return false;
+            }
+            long bodyLength = buffer.getLong(48);
+            if (bodyLength != size - HEADER_SIZE) {
+                throw new IOException("truncated body");
+            }
+            CRC32C bodyChecksum = new CRC32C();
+            bodyChecksum.update(buffer.slice(HEADER_SIZE, (int) bodyLength));
+            if (buffer.getInt(56) != (int) bodyChecksum.getValue()) {
+                throw new IOException("body checksum mismatch");
+            }
+
+            buffer.position(HEADER_SIZE);
+            try {
+                List<Parcel> parcels = new ArrayList<>();
+                List<Customer> customers = new ArrayList<>();
+                decode(buffer, parcelMap == null ? null : parcels, customers);
+                if (parcelMap != null) {
+                    parcels.forEach(parcelMap::addParcel);
+                }
+                customers.forEach(customerQueue::addCustomer);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IOException("malformed body", e);
+            }
+            return true;
+        }
+    }
+
+    // Strings are decoded when first referenced, so skipping the parcels also
+    // skips the ids only they refer to
+    private static void decode(ByteBuffer buffer, List<Parcel> parcels, List<Customer> customers) {
+        int[] offsets = new int[buffer.getInt()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = buffer.position();
+            int length = buffer.getInt();
+            checkRemaining(buffer, length);
+            buffer.position(buffer.position() + length);
+        }
+        String[] strings = new String[offsets.length];
+        byte[][] scratch = {new byte[256]};
+        IntFunction<String> string = i -> {
+            if (strings[i] == null) {
+                int length = buffer.getInt(offsets[i]);
+                if (scratch[0].length < length) {
+                    scratch[0] = new byte[Math.max(length, scratch[0].length * 2)];
+                }
+                buffer.get(offsets[i] + 4, scratch[0], 0, length);
+                strings[i] = new String(scratch[0], 0, length, StandardCharsets.UTF_8);
+            }
+            return strings[i];
+        };
+
+        int parcelCount = buffer.getInt();
+        checkRemaining(buffer, (long) parcelCount * PARCEL_RECORD_SIZE);
+        if (parcels == null) {
+            buffer.position(buffer.position() + parcelCount * PARCEL_RECORD_SIZE);
+            parcelCount = 0;
+        }
+        // Parcels with the same dimensions share one string
+        Map<Long, String> dimensionStrings = new HashMap<>();
+        for (int i = 0; i < parcelCount; i++) {
+            String id = string.apply(buffer.getInt());
+            double weight = buffer.getDouble();
+            int length = buffer.getInt();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int days = buffer.getInt();
+            String dimensions;
+            if (length < 0) {
+                dimensions = string.apply(width);
+            } else if (length < (1 << 21) && width < (1 << 21) && height < (1 << 21)) {
+                long key = ((long) length << 42) | ((long) width << 21) | height;
+                dimensions = dimensionStrings.computeIfAbsent(key, k -> length + "x" + width + "x" + height);
+            } else {
+                dimensions = length + "x" + width + "x" + height;
+            }
+            parcels.add(new Parcel(id, weight, dimensions, days, ParcelStatus.IN_DEPOT));
+        }
+
+        int customerCount = buffer.getInt();
+        checkRemaining(buffer, (long) customerCount * CUSTOMER_RECORD_SIZE);
+        for (int i = 0; i < customerCount; i++) {
+            String name = string.apply(buffer.getInt());
+            String parcelId = string.apply(buffer.getInt());
+            customers.add(new Customer(name, parcelId, i + 1));
+        }
+    }
+
+    private static void checkRemaining(ByteBuffer buffer, long needed) {
+        if (needed < 0 || needed > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+    }
+
+    // Three canonical non-negative ints, so formatting them gives back the same string
+    private static int[] pack(String[] fields) {
+        int[] packed = new int[3];
+        for (int i = 0; i < 3; i++) {
+            String field = fields[i];
+            if (field.isEmpty() || field.length() > 9 || (field.length() > 1 && field.charAt(0) == '0')) {
+                return null;
+            }
+            for (int j = 0; j < field.length(); j++) {
+                if (field.charAt(j) < '0' || field.charAt(j) > '9') {
+                    return null;
+                }
+            }
+            packed[i] = Integer.parseInt(field);
+        }
+        return packed;
+    }
+
+    private static int intern(Map<String, Integer> strings, String string) {
+        Integer index = strings.putIfAbsent(string, strings.size());
+        return index == null ? strings.size() - 1 : index;
+    }
+
+    private static long modified(Path file) throws IOException {
+        return Files.getLastModifiedTime(file).toMillis();
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Writes binary snapshots of generated depots and reads them back, checking
+// every parcel and customer survives unchanged. Covers depots with no queued
+// customers and with far fewer customers than parcels, the usual state of a
+// large depot, as well as reading customers alone over a kept parcel store.
+//
+//   java DepotSnapshotCheck [parcels customers]...
+public class DepotSnapshotCheck {
+    public static void main(String[] args) throws IOException {
+        int[][] cases = {{0, 0}, {1, 0}, {1000, 0}, {1000, 3}, {1000, 499}, {1000, 1000}, {100000, 0}, {100000, 10}};
+        if (args.length > 1) {
+            cases = new int[args.length / 2][];
+            for (int i = 0; i < cases.length; i++) {
+                cases[i] = new int[] {Integer.parseInt(args[2 * i]), Integer.parseInt(args[2 * i + 1])};
+            }
+        }
+        boolean passed = true;
+        for (int[] size : cases) {
+            passed &= run(size[0], size[1]);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(int parcelCount, int customerCount) throws IOException {
+        Path directory = Files.createTempDirectory("depot-snapshot");
+        Path file = directory.resolve("depot.snapshot");
+        Path parcelsCsv = Files.writeString(directory.resolve(Manager.PARCELS_FILE), "");
+        Path customersCsv = Files.writeString(directory.resolve(Manager.CUSTOMERS_FILE), "");
+        try {
+            Random random = new Random(parcelCount * 31L + customerCount);
+            List<Parcel> parcels = new ArrayList<>();
+            for (int i = 0; i < parcelCount; i++) {
+                // Every seventh parcel has dimensions that are stored as a string
+                String dimensions = i % 7 == 0 ? "0" + random.nextInt(10) + "x1x1"
+                        : (1 + random.nextInt(100)) + "x" + (1 + random.nextInt(100)) + "x" + (1 + random.nextInt(100));
+                parcels.add(new Parcel(DepotDataGenerator.parcelId(i), random.nextInt(100000) / 100.0,
+                        dimensions, random.nextInt(365), ParcelStatus.IN_DEPOT));
+            }
+            List<Customer> customers = new ArrayList<>();
+            for (int i = 0; i < customerCount; i++) {
+                customers.add(new Customer("Customer, No. " + i, parcels.isEmpty() ? "X" + i
+                        : parcels.get(random.nextInt(parcels.size())).getId(), i + 1));
+            }
+            DepotSnapshot.write(file, 1, parcels, customers, parcelsCsv, customersCsv);
+
+            ParcelMap parcelMap = new ParcelMap();
+            QueueOfCustomers customerQueue = new QueueOfCustomers();
+            boolean read = DepotSnapshot.read(file, parcelMap, customerQueue, parcelsCsv, customersCsv);
+            int parcelMismatches = 0;
+            for (Parcel parcel : parcels) {
+                Parcel loaded = parcelMap.getParcel(parcel.getId());
+                if (loaded == null || loaded.getWeight() != parcel.getWeight()
+                        || !loaded.getDimensions().equals(parcel.getDimensions())
+                        || loaded.getDaysInDepot() != parcel.getDaysInDepot()) {
+                    parcelMismatches++;
+                }
+            }
+            int customerMismatches = mismatches(customers, customerQueue);
+
+            QueueOfCustomers customersOnly = new QueueOfCustomers();
+            boolean readCustomersOnly = DepotSnapshot.read(file, null, customersOnly, parcelsCsv, customersCsv);
+            int customersOnlyMismatches = mismatches(customers, customersOnly);
+
+            boolean passed = read && readCustomersOnly && parcelMap.size() == parcelCount
+                    && parcelMismatches == 0 && customerMismatches == 0 && customersOnlyMismatches == 0;
+            System.out.printf("parcels=%d customers=%d read=%b parcelMismatches=%d customerMismatches=%d"
+                            + " customersOnly=%b/%d %s%n", parcelCount, customerCount, read, parcelMismatches,
+                    customerMismatches, readCustomersOnly, customersOnlyMismatches, passed ? "OK" : "FAILED");
+            return passed;
+        } catch (IOException e) {
+            System.out.printf("parcels=%d customers=%d FAILED: %s%n", parcelCount, customerCount, e);
+            return false;
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(parcelsCsv);
+            Files.deleteIfExists(customersCsv);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    // Customers out of place or changed, in queue order
+    private static int mismatches(List<Customer> expected, QueueOfCustomers customerQueue) {
+        int mismatches = Math.abs(expected.size() - customerQueue.size());
+        List<Customer> loaded = new ArrayList<>(customerQueue.getQueue());
+        for (int i = 0; i < Math.min(expected.size(), loaded.size()); i++) {
+            if (!expected.get(i).getName().equals(loaded.get(i).getName())
+                    || !expected.get(i).getParcelId().equals(loaded.get(i).getParcelId())) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+}
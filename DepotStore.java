@@ -0,0 +1,748 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Append-only persistence for the depot. Every mutation is one journal line;
+// Parcels.csv and Custs.csv are only rewritten when the journal is compacted
+// into fresh snapshots on a background thread, together with a binary
+// snapshot that lets the next start skip parsing them. Journal entries carry a
+// parcel's arrival day; the CSVs carry its days in depot, counted on the day
+// recorded in their header.
+//
+// The journal is the write-ahead log: a release is journaled, together with
+// its released record, before the record is appended there, and open()
+// appends any record a crash left out. Every journal line ends with a marker
+// field, so a line torn by a crash is skipped rather than applied in part.
+// DurableFiles.SYNC sets when journal entries are forced to disk.
+public class DepotStore {
+    private static final String SNAPSHOT_HEADER = "#depot-snapshot ";
+    private static final String JOURNAL_PREFIX = "depot-";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    // Last field of every entry, missing if the line was torn. Journals from
+    // before it only ended batch entries with it, and have no header line.
+    private static final String LINE_END = "end";
+    private static final String JOURNAL_HEADER = "#depot-journal 2";
+    private static final int DEFAULT_COMPACT_THRESHOLD = 50000;
+    // Snapshots are also taken this often while the journal has entries
+    private static final long SNAPSHOT_INTERVAL_MS = Long.getLong("depot.snapshot.intervalMs", 5 * 60 * 1000L);
+
+    private final Path directory;
+    private final Path parcelsFile;
+    private final Path customersFile;
+    private final int compactThreshold;
+    private final ScheduledExecutorService compactor;
+    // Separate from the compactor: a sync waiting for this store's monitor must
+    // not sit in front of the compaction close() waits for while holding it
+    private ScheduledExecutorService journalSyncer;
+    // Shared by operations that change memory and journal it, exclusive while a
+    // snapshot is captured, so a snapshot never falls between the two halves
+    private final ReentrantReadWriteLock mutations = new ReentrantReadWriteLock();
+    private volatile SnapshotListener snapshotListener;
+
+    private ParcelMap parcelMap;
+    private QueueOfCustomers customerQueue;
+    private BufferedWriter journal;
+    private FileChannel journalChannel;
+    // Entries written since the journal was last forced
+    private boolean journalDirty;
+    private ReleasedStore releasedStore;
+    private long generation;
+    private int journalEntries;
+    // The generation of the last binary snapshot written, and the one the
+    // structures still matched once close() finished, or -1
+    private volatile long binarySnapshotGeneration = -1;
+    private long cleanGeneration = -1;
+    private Future<?> pendingCompaction;
+    private Thread shutdownHook;
+    private volatile boolean compactionRequested;
+    private final LatencyHistogram appendTimer;
+    private final LatencyHistogram forceTimer;
+    private final LatencyHistogram snapshotTimer;
+
+    // For whatever adds rows appended to the CSVs by other systems, such as
+    // DepotCsvWatcher. Those rows are in memory and in the CSVs but not in the
+    // journal, so a snapshot that replaces a CSV must keep the ones added after
+    // its state was captured.
+    public interface SnapshotListener {
+        // Called with mutations blocked, as a snapshot's state is captured
+        void snapshotCaptured();
+
+        // Called just before tempFile, a complete snapshot, replaces file.
+        // Appends to tempFile the rows file gained since the capture and returns
+        // their length, or -1 if memory changed in some other way since then and
+        // needs another snapshot.
+        long replacing(Path file, Path tempFile) throws IOException;
+
+        // Called once it has, for rows that reached the old file in between
+        void replaced(Path file) throws IOException;
+    }
+
+    public DepotStore(Path directory, String parcelsFileName, String customersFileName) {
+        this(directory, parcelsFileName, customersFileName, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    public DepotStore(Path directory, String parcelsFileName, String customersFileName, int compactThreshold) {
+        this.directory = directory;
+        this.parcelsFile = directory.resolve(parcelsFileName);
+        this.customersFile = directory.resolve(customersFileName);
+        this.compactThreshold = compactThreshold;
+        DepotMetrics metrics = DepotMetrics.getInstance(directory);
+        this.appendTimer = metrics.timer("io.journal.append");
+        this.forceTimer = metrics.timer("io.journal.force");
+        this.snapshotTimer = metrics.timer("io.snapshot.write");
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "depot-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Replays every journal newer than the snapshots into the freshly loaded
+    // structures and starts a new journal generation for this session.
+    public synchronized void open(ParcelMap parcelMap, QueueOfCustomers customerQueue) throws IOException {
+        open(parcelMap, customerQueue, null);
+    }
+
+    // As above, and appends to the opened released store any release record
+    // that was journaled but never reached it
+    public synchronized void open(ParcelMap parcelMap, QueueOfCustomers customerQueue, ReleasedStore releasedStore)
+            throws IOException {
+        this.parcelMap = parcelMap;
+        this.customerQueue = customerQueue;
+        this.releasedStore = releasedStore;
+
+        List<String> releasedRecords = new ArrayList<>();
+        long parcelsGeneration = readSnapshotGeneration(parcelsFile);
+        long customersGeneration = readSnapshotGeneration(customersFile);
+        long lastGeneration = Math.max(parcelsGeneration, customersGeneration);
+        for (long journalGeneration : listGenerations(JOURNAL_SUFFIX)) {
+            replay(journalFile(journalGeneration),
+                    journalGeneration > parcelsGeneration,
+                    journalGeneration > customersGeneration, releasedRecords);
+            lastGeneration = Math.max(lastGeneration, journalGeneration);
+        }
+        if (releasedStore != null && !releasedRecords.isEmpty()) {
+            int recovered = releasedStore.appendMissing(releasedRecords);
+            if (recovered > 0) {
+                System.err.println("Recovered " + recovered + " released record(s) from the depot journal");
+            }
+        }
+
+        generation = lastGeneration + 1;
+        journal = openJournal(generation);
+        journalEntries = 0;
+        shutdownHook = new Thread(this::close, "depot-store-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        if (SNAPSHOT_INTERVAL_MS > 0) {
+            compactor.scheduleWithFixedDelay(this::compactIfChanged, SNAPSHOT_INTERVAL_MS,
+                    SNAPSHOT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        if (DurableFiles.SYNC == DurableFiles.Sync.INTERVAL && journalSyncer == null) {
+            journalSyncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "depot-journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            journalSyncer.scheduleWithFixedDelay(this::syncJournal, DurableFiles.SYNC_INTERVAL_MS,
+                    DurableFiles.SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Fills the empty structures from the newest binary snapshot, if it is
+    // intact and both CSVs are unchanged since it was written. Call before
+    // open(), which then replays the journals as usual. Parcels a store kept
+    // from that snapshot's run are used as they are; any others are cleared.
+    public boolean loadSnapshot(ParcelMap parcelMap, QueueOfCustomers customerQueue) {
+        List<Long> generations;
+        try {
+            generations = listGenerations(SNAPSHOT_SUFFIX);
+        } catch (IOException e) {
+            generations = List.of();
+        }
+        long latest = generations.isEmpty() ? -1 : generations.get(generations.size() - 1);
+        boolean parcelsKept = latest >= 0 && parcelMap.getKeptGeneration() == latest;
+        if (!parcelsKept) {
+            parcelMap.clear();
+        }
+        if (latest < 0) {
+            return false;
+        }
+        Path file = snapshotFile(latest);
+        try {
+            if (DepotSnapshot.read(file, parcelsKept ? null : parcelMap, customerQueue, parcelsFile, customersFile)) {
+                return true;
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring depot snapshot " + file.getFileName() + ": " + e.getMessage());
+        }
+        parcelMap.clear();
+        return false;
+    }
+
+    // The generation of the binary snapshot the structures matched when close()
+    // finished, so a parcel store kept on disk can be used with it next time;
+    // -1 if there is none, as when entries were journaled after it
+    public synchronized long getCleanGeneration() {
+        return cleanGeneration;
+    }
+
+    // Callers hold this around the in-memory change and its journal entry. It must
+    // not be held when calling compact() or close().
+    public Lock mutationLock() {
+        return mutations.readLock();
+    }
+
+    public void setSnapshotListener(SnapshotListener listener) {
+        snapshotListener = listener;
+    }
+
+    public synchronized void appendParcel(Parcel parcel) throws IOException {
+        append("P", parcel.getId(), String.valueOf(parcel.getWeight()), parcel.getDimensions(),
+                String.valueOf(parcelMap.today() - parcel.getDaysInDepot()));
+    }
+
+    // The day the days in depot in Parcels.csv were counted on, or the given
+    // day for a hand-written file
+    public int snapshotDay(int defaultDay) {
+        String[] header = readSnapshotHeader(parcelsFile);
+        if (header.length > 1) {
+            try {
+                return Integer.parseInt(header[1]);
+            } catch (NumberFormatException e) {
+                // Fall through to the default
+            }
+        }
+        return defaultDay;
+    }
+
+    public synchronized void appendCustomer(Customer customer) throws IOException {
+        append("C", customer.getName(), customer.getParcelId());
+    }
+
+    // Journaled before releasedRecord reaches the released store, so a restart can add it if that never happened
+    public synchronized void recordRelease(Customer customer, String releasedRecord) throws IOException {
+        append("R", customer.getName(), customer.getParcelId(), releasedRecord);
+    }
+
+    // One line for the whole batch, so after a crash either every release in it
+    // is replayed or, if the line was torn, none is
+    public synchronized void recordReleases(List<Customer> customers, List<String> releasedRecords)
+            throws IOException {
+        String[] fields = new String[customers.size() * 3 + 2];
+        fields[0] = "RB";
+        fields[1] = Integer.toString(customers.size());
+        for (int i = 0; i < customers.size(); i++) {
+            fields[2 + 3 * i] = customers.get(i).getName();
+            fields[3 + 3 * i] = customers.get(i).getParcelId();
+            fields[4 + 3 * i] = releasedRecords.get(i);
+        }
+        append(fields);
+    }
+
+    public synchronized void recordCustomerRemoval(String name, String parcelId) throws IOException {
+        append("XC", name, parcelId);
+    }
+
+    public synchronized void recordParcelRemoval(String parcelId) throws IOException {
+        append("XP", parcelId);
+    }
+
+    // Flushes the journal and writes the final snapshots before exit.
+    public void close() {
+        mutations.writeLock().lock();
+        try {
+            synchronized (this) {
+                if (journal == null) {
+                    return;
+                }
+                try {
+                    compact().get();
+                    forceJournal();
+                    journal.close();
+                    if (journalEntries == 0) {
+                        Files.deleteIfExists(journalFile(generation));
+                        if (binarySnapshotGeneration == generation - 1) {
+                            cleanGeneration = binarySnapshotGeneration;
+                        }
+                    }
+                } catch (Exception e) {
+                    System.err.println("Error closing depot journal: " + e.getMessage());
+                }
+                journal = null;
+                // Otherwise the hook keeps this store and everything it loaded reachable
+                if (Thread.currentThread() != shutdownHook) {
+                    try {
+                        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                    } catch (IllegalStateException e) {
+                        // Already shutting down
+                    }
+                }
+                compactor.shutdown();
+                if (journalSyncer != null) {
+                    journalSyncer.shutdown();
+                }
+            }
+        } finally {
+            mutations.writeLock().unlock();
+        }
+    }
+
+    // Starts a new journal generation and writes the current state as the
+    // snapshot for everything up to the previous one.
+    public Future<?> compact() throws IOException {
+        mutations.writeLock().lock();
+        try {
+            synchronized (this) {
+                return startCompaction();
+            }
+        } finally {
+            mutations.writeLock().unlock();
+        }
+    }
+
+    private Future<?> startCompaction() throws IOException {
+        compactionRequested = false;
+        if (pendingCompaction != null && !pendingCompaction.isDone()) {
+            return pendingCompaction;
+        }
+        if (journal == null) {
+            throw new IOException("Depot journal is not open");
+        }
+        long snapshotGeneration = generation;
+        int snapshotDay;
+        List<Parcel> parcels;
+        // Held across both lists so a day rollover cannot fall between them
+        synchronized (parcelMap) {
+            snapshotDay = parcelMap.today();
+            parcels = new ArrayList<>(parcelMap.getParcels(ParcelStatus.IN_DEPOT));
+            parcels.addAll(parcelMap.getParcels(ParcelStatus.READY));
+        }
+        List<Customer> customers = new ArrayList<>(customerQueue.getQueue());
+        SnapshotListener listener = snapshotListener;
+        if (listener != null) {
+            listener.snapshotCaptured();
+        }
+
+        // The old journal is all there is of these entries until the snapshot is on disk
+        forceJournal();
+        journal.close();
+        generation++;
+        journal = openJournal(generation);
+        journalEntries = 0;
+
+        pendingCompaction = compactor.submit(() -> {
+            long parcelsLength;
+            long customersLength;
+            try {
+                List<String> parcelRows = new ArrayList<>(parcels.size());
+                for (Parcel parcel : parcels) {
+                    parcelRows.add(toParcelRow(parcel));
+                }
+                List<String> customerRows = new ArrayList<>(customers.size());
+                for (Customer customer : customers) {
+                    customerRows.add(customer.getName() + "," + customer.getParcelId());
+                }
+                parcelsLength = writeSnapshot(parcelsFile, snapshotGeneration, snapshotDay, parcelRows, listener);
+                customersLength = writeSnapshot(customersFile, snapshotGeneration, snapshotDay, customerRows,
+                        listener);
+                if (parcelsLength < 0 || customersLength < 0) {
+                    // A CSV it replaced had been rewritten from outside; the next snapshot has that too
+                    compactionRequested = true;
+                    compactor.submit(this::compactOnRequest);
+                }
+                // Released records are only recoverable from the journals being dropped
+                if (releasedStore != null) {
+                    releasedStore.force();
+                }
+                for (long journalGeneration : listGenerations(JOURNAL_SUFFIX)) {
+                    if (journalGeneration <= snapshotGeneration) {
+                        Files.deleteIfExists(journalFile(journalGeneration));
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error compacting depot journal: " + e.getMessage());
+                return;
+            }
+            writeBinarySnapshot(snapshotGeneration, parcels, customers, parcelsLength, customersLength);
+        });
+        return pendingCompaction;
+    }
+
+    private void append(String... fields) throws IOException {
+        if (journal == null) {
+            throw new IOException("Depot journal is not open");
+        }
+        long start = System.nanoTime();
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append('\t');
+            }
+            escape(fields[i], line);
+        }
+        journal.write(line.append('\t').append(LINE_END).append('\n').toString());
+        journal.flush();
+        if (DurableFiles.SYNC == DurableFiles.Sync.ALWAYS) {
+            journalChannel.force(false);
+        } else {
+            journalDirty = true;
+        }
+        appendTimer.recordNanos(System.nanoTime() - start);
+        if (++journalEntries >= compactThreshold && !compactionRequested) {
+            // The caller holds the mutation lock, so the snapshot is taken from the compactor thread
+            compactionRequested = true;
+            compactor.submit(this::compactOnRequest);
+        }
+    }
+
+    // Group commit for the interval policy: one force covers every entry since the last
+    private synchronized void syncJournal() {
+        try {
+            forceJournal();
+        } catch (IOException e) {
+            System.err.println("Error syncing depot journal: " + e.getMessage());
+        }
+    }
+
+    private void forceJournal() throws IOException {
+        if (journal != null && journalDirty && DurableFiles.SYNC != DurableFiles.Sync.NONE) {
+            long start = System.nanoTime();
+            journalChannel.force(false);
+            forceTimer.recordNanos(System.nanoTime() - start);
+        }
+        journalDirty = false;
+    }
+
+    private void compactIfChanged() {
+        synchronized (this) {
+            if (journal == null || journalEntries == 0 || compactionRequested) {
+                return;
+            }
+            compactionRequested = true;
+        }
+        compactOnRequest();
+    }
+
+    // The CSVs stay the source of truth, so a failure here only costs the next start time.
+    // Skipped if either CSV holds more than the lists, as when rows were appended to it.
+    private void writeBinarySnapshot(long snapshotGeneration, List<Parcel> parcels, List<Customer> customers,
+                                     long parcelsLength, long customersLength) {
+        try {
+            if (!csvLengthsAre(parcelsLength, customersLength)) {
+                return;
+            }
+            Path file = snapshotFile(snapshotGeneration);
+            DepotSnapshot.write(file, snapshotGeneration, parcels, customers, parcelsFile, customersFile);
+            // It records the CSVs as they were while it was written
+            if (!csvLengthsAre(parcelsLength, customersLength)) {
+                Files.deleteIfExists(file);
+                return;
+            }
+            binarySnapshotGeneration = snapshotGeneration;
+            for (long snapshot : listGenerations(SNAPSHOT_SUFFIX)) {
+                if (snapshot < snapshotGeneration) {
+                    try {
+                        Files.deleteIfExists(snapshotFile(snapshot));
+                    } catch (IOException e) {
+                        // Still mapped somewhere on platforms that lock mapped files; retried next time
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing depot snapshot: " + e.getMessage());
+        }
+    }
+
+    private boolean csvLengthsAre(long parcelsLength, long customersLength) throws IOException {
+        return Files.size(parcelsFile) == parcelsLength && Files.size(customersFile) == customersLength;
+    }
+
+    // Gives up once another compaction or close() has taken the request, since
+    // close() waits on this thread while holding the lock.
+    private void compactOnRequest() {
+        try {
+            while (compactionRequested) {
+                if (mutations.writeLock().tryLock(50, TimeUnit.MILLISECONDS)) {
+                    try {
+                        synchronized (this) {
+                            if (compactionRequested && journal != null) {
+                                startCompaction();
+                            }
+                        }
+                    } finally {
+                        mutations.writeLock().unlock();
+                    }
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error compacting depot journal: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void replay(Path file, boolean applyParcels, boolean applyCustomers, List<String> releasedRecords)
+            throws IOException {
+        // Decoded leniently, as a crash can tear the last line inside a character
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            boolean terminated = JOURNAL_HEADER.equals(line);
+            if (terminated) {
+                line = reader.readLine();
+            }
+            for (; line != null; line = reader.readLine()) {
+                String[] entry = unescape(line);
+                try {
+                    // A torn final line from a crash lacks its end, even if what is left still parses
+                    if (terminated || entry[0].equals("RB")) {
+                        if (!complete(entry, terminated)) {
+                            throw new IllegalArgumentException("Incomplete journal entry");
+                        }
+                        entry = Arrays.copyOf(entry, entry.length - 1);
+                    }
+                    apply(entry, applyParcels, applyCustomers, releasedRecords);
+                } catch (RuntimeException e) {
+                    System.err.println("Skipping unreadable journal entry in " + file.getFileName() + ": " + line);
+                }
+            }
+        }
+    }
+
+    // Ends with LINE_END and, in a journal that ends every line, has exactly
+    // the fields append() wrote for its kind
+    private static boolean complete(String[] entry, boolean terminated) {
+        if (entry.length < 2 || !LINE_END.equals(entry[entry.length - 1])) {
+            return false;
+        }
+        if (!terminated) {
+            return true;
+        }
+        switch (entry[0]) {
+            case "P": return entry.length == 6;
+            case "C": case "XC": return entry.length == 4;
+            case "R": return entry.length == 5;
+            case "XP": return entry.length == 3;
+            default: return true;
+        }
+    }
+
+    private void apply(String[] entry, boolean applyParcels, boolean applyCustomers, List<String> releasedRecords) {
+        switch (entry[0]) {
+            case "P":
+                if (applyParcels) {
+                    // Entries from before arrival days were journaled count as arriving today
+                    int days = entry.length > 4 ? parcelMap.today() - Integer.parseInt(entry[4]) : 0;
+                    parcelMap.addParcel(new Parcel(entry[1], Double.parseDouble(entry[2]), entry[3], days,
+                            ParcelStatus.IN_DEPOT));
+                }
+                break;
+            case "C":
+                if (applyCustomers) {
+                    customerQueue.addCustomer(new Customer(entry[1], entry[2], customerQueue.size() + 1));
+                }
+                break;
+            case "R":
+                // A released parcel has left both files, exactly as after a restart today
+                if (applyParcels) {
+                    parcelMap.removeParcel(entry[2]);
+                }
+                if (applyCustomers) {
+                    removeQueuedCustomer(entry[1], entry[2]);
+                }
+                // Entries from before releases were written ahead carry no record
+                if (entry.length > 3) {
+                    releasedRecords.add(entry[3]);
+                }
+                break;
+            case "RB":
+                // Checked complete by replay(), so the batch is applied whole or not at all
+                int count = Integer.parseInt(entry[1]);
+                if (count < 1) {
+                    throw new IllegalArgumentException("Incomplete batch entry");
+                }
+                // Three fields per release, or two in batches journaled without their records
+                int stride = (entry.length - 2) / count;
+                if (entry.length != count * stride + 2 || stride < 2 || stride > 3) {
+                    throw new IllegalArgumentException("Incomplete batch entry");
+                }
+                for (int i = 0; i < count; i++) {
+                    String[] release = new String[stride + 1];
+                    release[0] = "R";
+                    System.arraycopy(entry, 2 + stride * i, release, 1, stride);
+                    apply(release, applyParcels, applyCustomers, releasedRecords);
+                }
+                break;
+            case "XC":
+                if (applyCustomers) {
+                    removeQueuedCustomer(entry[1], entry[2]);
+                }
+                break;
+            case "XP":
+                if (applyParcels) {
+                    parcelMap.removeParcel(entry[1]);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown journal entry " + entry[0]);
+        }
+    }
+
+    private void removeQueuedCustomer(String name, String parcelId) {
+        Customer customer = customerQueue.findCustomer(name, parcelId);
+        if (customer != null) {
+            customerQueue.removeCustomer(customer);
+        }
+    }
+
+    // Returns the length of the rows given, or -1 if the listener wants another snapshot
+    private long writeSnapshot(Path file, long snapshotGeneration, int snapshotDay, List<String> rows,
+                               SnapshotListener listener) throws IOException {
+        long start = System.nanoTime();
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            // Loaders skip '#' lines, so the header can carry the generation and day
+            writer.write(SNAPSHOT_HEADER + snapshotGeneration + " " + snapshotDay + System.lineSeparator());
+            for (String row : rows) {
+                writer.write(row + System.lineSeparator());
+            }
+        }
+        long length = Files.size(tempFile);
+        if (listener != null && listener.replacing(file, tempFile) < 0) {
+            length = -1;
+        }
+        DurableFiles.replace(tempFile, file);
+        if (listener != null) {
+            listener.replaced(file);
+        }
+        snapshotTimer.recordNanos(System.nanoTime() - start);
+        return length;
+    }
+
+    private static String toParcelRow(Parcel parcel) {
+        StringBuilder row = new StringBuilder(parcel.getId()).append(',').append(parcel.getWeight());
+        for (String dimension : dimensionFields(parcel.getDimensions())) {
+            row.append(',').append(dimension);
+        }
+        return row.append(',').append(parcel.getDaysInDepot()).toString();
+    }
+
+    // Length, width and height as written to Parcels.csv, padded with "0"
+    static String[] dimensionFields(String dimensions) {
+        String[] dims = dimensions.trim().split("[xX\\s]+");
+        String[] fields = new String[3];
+        for (int i = 0; i < 3; i++) {
+            fields[i] = i < dims.length ? dims[i] : "0";
+        }
+        return fields;
+    }
+
+    private static long readSnapshotGeneration(Path file) {
+        String[] header = readSnapshotHeader(file);
+        try {
+            return header.length > 0 ? Long.parseLong(header[0]) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // The generation and, since arrival days, the day; empty for a file without a header
+    private static String[] readSnapshotHeader(Path file) {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header != null && header.startsWith(SNAPSHOT_HEADER)) {
+                return header.substring(SNAPSHOT_HEADER.length()).trim().split("\\s+");
+            }
+        } catch (IOException e) {
+            // Hand-written files without a header predate the journal
+        }
+        return new String[0];
+    }
+
+    private List<Long> listGenerations(String suffix) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, JOURNAL_PREFIX + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring(JOURNAL_PREFIX.length(),
+                            name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private Path journalFile(long journalGeneration) {
+        return directory.resolve(JOURNAL_PREFIX + journalGeneration + JOURNAL_SUFFIX);
+    }
+
+    private Path snapshotFile(long snapshotGeneration) {
+        return directory.resolve(JOURNAL_PREFIX + snapshotGeneration + SNAPSHOT_SUFFIX);
+    }
+
+    private BufferedWriter openJournal(long journalGeneration) throws IOException {
+        journalChannel = FileChannel.open(journalFile(journalGeneration),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        DurableFiles.forceDirectory(directory);
+        BufferedWriter writer = new BufferedWriter(Channels.newWriter(journalChannel, StandardCharsets.UTF_8));
+        // Tells replay() that every line of this journal ends with LINE_END
+        if (journalChannel.size() == 0) {
+            writer.write(JOURNAL_HEADER + "\n");
+            writer.flush();
+        }
+        return writer;
+    }
+
+    private static void escape(String field, StringBuilder out) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '\t') {
+                out.append("\\t");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\r') {
+                out.append("\\r");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static String[] unescape(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                field.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,62 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// How far depot writes go before they count as done. A file is replaced by
+// writing a temporary sibling, forcing it to disk and renaming it over the
+// original in one step, so a crash leaves either the old file or the new one.
+//
+//   -Ddepot.fsync=always     force every journal entry before it returns
+//   -Ddepot.fsync=interval   force the journal every depot.fsync.intervalMs (default)
+//   -Ddepot.fsync=none       leave it to the OS; survives a process crash, not a power cut
+public final class DurableFiles {
+    public enum Sync {
+        NONE, INTERVAL, ALWAYS
+    }
+
+    public static final Sync SYNC = parseSync(System.getProperty("depot.fsync", "interval"));
+    public static final long SYNC_INTERVAL_MS = Long.getLong("depot.fsync.intervalMs", 1000L);
+
+    private DurableFiles() {
+    }
+
+    // Moves tempFile over target, atomically where the file system allows it
+    public static void replace(Path tempFile, Path target) throws IOException {
+        if (SYNC != Sync.NONE) {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        try {
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        forceDirectory(target.toAbsolutePath().getParent());
+    }
+
+    // Makes a new or renamed entry in the directory itself durable
+    public static void forceDirectory(Path directory) {
+        if (SYNC == Sync.NONE || directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can open a directory; its entries are synced with the files there
+        }
+    }
+
+    private static Sync parseSync(String value) {
+        try {
+            return Sync.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown depot.fsync " + value + "; using interval");
+            return Sync.INTERVAL;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// events.bin, the depot log as LogEvents: a magic number, then one record per
+// event of a length followed by LogEvent.encode(). Appends are whole records;
+// open() cuts off a record a crash left half written.
+//
+// Replays the file as log.txt lines, or counts events by kind:
+//   java EventLog [events.bin] [--summary]
+public class EventLog {
+    public static final int HEADER_SIZE = 4;
+    private static final int MAGIC = 0x44455631; // "DEV1"
+    private static final int MIN_RECORD = 1 + 8 + 8 + 4 + 3 * 4;
+    private static final int MAX_RECORD = 16 * 1024 * 1024;
+    private static final int READ_CHUNK = 256 * 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    private EventLog(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    // Creates the file if needed. Records from validFrom on are checked and
+    // anything after the last whole one is truncated; records before it are
+    // taken as sound.
+    public static EventLog open(Path file, long validFrom) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC);
+                header.flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException(file + " is not a depot event log");
+                }
+            }
+            long start = validFrom >= HEADER_SIZE && validFrom <= channel.size() ? validFrom : HEADER_SIZE;
+            long end = scan(channel, start, null);
+            if (end < channel.size()) {
+                channel.truncate(end);
+            }
+            channel.position(end);
+            return new EventLog(file, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    public void append(LogEvent event) throws IOException {
+        append(List.of(event));
+    }
+
+    // One write for the whole list
+    public synchronized void append(List<LogEvent> events) throws IOException {
+        if (events.isEmpty()) {
+            return;
+        }
+        buffer.clear();
+        for (LogEvent event : events) {
+            int needed = 4 + event.maxEncodedSize();
+            if (buffer.remaining() < needed) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+                buffer.flip();
+                buffer = larger.put(buffer);
+            }
+            int lengthAt = buffer.position();
+            buffer.putInt(0);
+            event.encode(buffer);
+            buffer.putInt(lengthAt, buffer.position() - lengthAt - 4);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    // Passes every whole record from offset on to the visitor and returns the
+    // offset after the last one, where the next read should start
+    public static long read(Path file, long offset, Consumer<LogEvent> visitor) throws IOException {
+        if (!Files.exists(file)) {
+            return offset;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return scan(channel, Math.max(offset, HEADER_SIZE), visitor);
+        }
+    }
+
+    // Stops at the first record that is incomplete or not a record at all
+    private static long scan(FileChannel channel, long offset, Consumer<LogEvent> visitor) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(READ_CHUNK);
+        long position = offset;
+        while (true) {
+            chunk.clear();
+            while (chunk.hasRemaining() && channel.read(chunk, position + chunk.position()) > 0) {
+                // Fill the chunk, so a record that fits and is cut short can only be the file's end
+            }
+            chunk.flip();
+            boolean grown = false;
+            int parsed = 0;
+            while (chunk.remaining() >= 4) {
+                int length = chunk.getInt(chunk.position());
+                if (length < MIN_RECORD || length > MAX_RECORD) {
+                    return position + parsed;
+                }
+                if (chunk.remaining() < 4 + length) {
+                    if (4 + length > chunk.capacity()) {
+                        chunk = ByteBuffer.allocate(4 + length);
+                        grown = true;
+                    }
+                    break;
+                }
+                int bodyStart = chunk.position() + 4;
+                if (visitor != null) {
+                    ByteBuffer body = chunk.duplicate();
+                    body.position(bodyStart).limit(bodyStart + length);
+                    LogEvent event;
+                    try {
+                        event = LogEvent.decode(body);
+                    } catch (RuntimeException e) {
+                        return position + parsed;
+                    }
+                    if (event != null) {
+                        visitor.accept(event);
+                    }
+                }
+                chunk.position(bodyStart + length);
+                parsed += 4 + length;
+            }
+            if (parsed == 0 && !grown) {
+                return position;
+            }
+            position += parsed;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of event log");
+            }
+        }
+    }
+
+    // Turns events into log.txt lines, formatting each second's timestamp once
+    public static final class LineRenderer {
+        private final DateTimeFormatter formatter;
+        private long cachedSecond = Long.MIN_VALUE;
+        private String cachedTimestamp;
+
+        public LineRenderer(DateTimeFormatter formatter) {
+            this.formatter = formatter;
+        }
+
+        public void append(LogEvent event, StringBuilder out) {
+            long second = Math.floorDiv(event.getTimestamp(), 1000);
+            if (second != cachedSecond) {
+                cachedSecond = second;
+                cachedTimestamp = LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault())
+                        .format(formatter);
+            }
+            out.append(cachedTimestamp).append(" - ");
+            event.render(out);
+            out.append(System.lineSeparator());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path file = Paths.get(Log.EVENTS_FILE);
+        boolean summary = false;
+        for (String arg : args) {
+            if (arg.equals("--summary")) {
+                summary = true;
+            } else {
+                file = Paths.get(arg);
+            }
+        }
+        if (summary) {
+            Map<LogEvent.Kind, long[]> counts = new EnumMap<>(LogEvent.Kind.class);
+            double[] fees = new double[1];
+            read(file, HEADER_SIZE, event -> {
+                counts.computeIfAbsent(event.getKind(), kind -> new long[1])[0]++;
+                if (event.getKind() == LogEvent.Kind.COLLECTED) {
+                    fees[0] += event.getAmount();
+                }
+            });
+            counts.forEach((kind, count) -> System.out.printf("%-22s %d%n", kind, count[0]));
+            System.out.printf("Fees collected: £%.2f%n", fees[0]);
+            return;
+        }
+        LineRenderer renderer = new LineRenderer(DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss"));
+        StringBuilder out = new StringBuilder();
+        read(file, HEADER_SIZE, event -> {
+            renderer.append(event, out);
+            if (out.length() > 64 * 1024) {
+                System.out.print(out);
+                out.setLength(0);
+            }
+        });
+        System.out.print(out);
+        System.out.flush();
+    }
+}
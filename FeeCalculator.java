@@ -0,0 +1,151 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// Prices whole batches of parcels from their weight and days-in-depot columns.
+// The kernel is a plain loop over primitive arrays with no calls or branches,
+// which C2 can unroll and compile to SIMD code, and large batches are split
+// across the fork/join pool. Each fee is added up in the same order as RateTable.fee, so
+// results match Worker.calculateFee exactly.
+public class FeeCalculator {
+    // Below this many parcels a batch is priced on the calling thread
+    private static final int SPLIT_THRESHOLD = 1 << 15;
+
+    private final ForkJoinPool pool;
+
+    public FeeCalculator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public FeeCalculator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Outstanding fees for a batch, with the ids they belong to and their total
+    public static final class Result {
+        private final String[] ids;
+        private final double[] fees;
+        private final double total;
+
+        Result(String[] ids, double[] fees, double total) {
+            this.ids = ids;
+            this.fees = fees;
+            this.total = total;
+        }
+
+        public int size() { return fees.length; }
+        public String getId(int index) { return ids[index]; }
+        public double getFee(int index) { return fees[index]; }
+        public double getTotal() { return total; }
+    }
+
+    public Result calculate(RateTable rates, ParcelMap.Columns parcels) {
+        double[] fees = calculateFees(rates, parcels.weights, parcels.days);
+        return new Result(parcels.ids, fees, total(fees));
+    }
+
+    public double[] calculateFees(RateTable rates, double[] weights, int[] days) {
+        double[] fees = new double[weights.length];
+        calculateFees(rates, weights, days, fees);
+        return fees;
+    }
+
+    // Into the caller's array, so repeated what-if runs can reuse it
+    public void calculateFees(RateTable rates, double[] weights, int[] days, double[] fees) {
+        if (weights.length != days.length || fees.length < weights.length) {
+            throw new IllegalArgumentException("weights, days and fees differ in length");
+        }
+        if (weights.length < SPLIT_THRESHOLD) {
+            calculateFees(rates, weights, days, fees, 0, weights.length);
+        } else {
+            pool.invoke(new PriceTask(rates, weights, days, fees, 0, weights.length));
+        }
+    }
+
+    // Sums in fixed halves, so the total does not depend on how the work was split
+    public double total(double[] fees) {
+        if (fees.length < SPLIT_THRESHOLD) {
+            return sum(fees, 0, fees.length);
+        }
+        return pool.invoke(new SumTask(fees, 0, fees.length));
+    }
+
+    // The kernel; fees[i] for every i in [from, to)
+    public static void calculateFees(RateTable rates, double[] weights, int[] days, double[] fees, int from, int to) {
+        double baseFee = rates.getBaseFee();
+        double weightRate = rates.getWeightRate();
+        double daysRate = rates.getDaysRate();
+        for (int i = from; i < to; i++) {
+            fees[i] = baseFee + weights[i] * weightRate + days[i] * daysRate;
+        }
+    }
+
+    private static double sum(double[] fees, int from, int to) {
+        if (to - from <= SPLIT_THRESHOLD) {
+            double total = 0;
+            for (int i = from; i < to; i++) {
+                total += fees[i];
+            }
+            return total;
+        }
+        int middle = (from + to) >>> 1;
+        return sum(fees, from, middle) + sum(fees, middle, to);
+    }
+
+    private static final class PriceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RateTable rates;
+        private final double[] weights;
+        private final int[] days;
+        private final double[] fees;
+        private final int from;
+        private final int to;
+
+        PriceTask(RateTable rates, double[] weights, int[] days, double[] fees, int from, int to) {
+            this.rates = rates;
+            this.weights = weights;
+            this.days = days;
+            this.fees = fees;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                calculateFees(rates, weights, days, fees, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new PriceTask(rates, weights, days, fees, from, middle),
+                    new PriceTask(rates, weights, days, fees, middle, to));
+        }
+    }
+
+    private static final class SumTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] fees;
+        private final int from;
+        private final int to;
+
+        SumTask(double[] fees, int from, int to) {
+            this.fees = fees;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                return sum(fees, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            SumTask right = new SumTask(fees, middle, to);
+            right.fork();
+            double left = new SumTask(fees, from, middle).compute();
+            return left + right.join();
+        }
+    }
+}
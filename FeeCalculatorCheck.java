@@ -0,0 +1,64 @@
+import java.util.Random;
+
+// Prices random depots with FeeCalculator and checks every fee is bit for bit
+// what Worker.calculateFee gives for the same parcel, for several rate tables
+// and for batches priced on one thread and split across the pool.
+//
+//   java FeeCalculatorCheck [parcels...]
+public class FeeCalculatorCheck {
+    private static final RateTable[] RATE_TABLES = {
+        RateTable.STANDARD,
+        new RateTable(7.35, 0.61, 1.15),
+        new RateTable(0.1, 0.3, 0.7),
+        new RateTable(12.0, 0.0, 2.5)
+    };
+
+    public static void main(String[] args) {
+        int[] sizes = {0, 1, 1000, 100000, 1000000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        boolean passed = true;
+        for (int size : sizes) {
+            for (RateTable rates : RATE_TABLES) {
+                passed &= run(size, rates);
+            }
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(int size, RateTable rates) {
+        Random random = new Random(size);
+        ParcelMap parcelMap = new ParcelMap();
+        parcelMap.setToday(400);
+        for (int i = 0; i < size; i++) {
+            double weight = random.nextInt(100000) / 1000.0;
+            parcelMap.addParcel(new Parcel(DepotDataGenerator.parcelId(i), weight, "1x1x1",
+                    random.nextInt(365), ParcelStatus.IN_DEPOT));
+        }
+        FeeCalculator.Result result = new FeeCalculator().calculate(rates,
+                parcelMap.getColumns(ParcelStatus.IN_DEPOT, ParcelStatus.READY));
+
+        Worker worker = new Worker(rates);
+        int mismatches = 0;
+        double expectedTotal = 0;
+        for (int i = 0; i < result.size(); i++) {
+            double expected = worker.calculateFee(parcelMap.getParcel(result.getId(i)));
+            if (Double.doubleToLongBits(expected) != Double.doubleToLongBits(result.getFee(i))) {
+                mismatches++;
+            }
+            expectedTotal += expected;
+        }
+        // Summation order differs from the running total, so only the total is approximate
+        boolean totalMatches = Math.abs(expectedTotal - result.getTotal()) <= 1e-9 * Math.max(1, expectedTotal);
+        boolean passed = result.size() == size && mismatches == 0 && totalMatches;
+        System.out.printf("parcels=%d %s mismatches=%d total=%.2f %s%n",
+                size, rates, mismatches, result.getTotal(), passed ? "OK" : "FAILED");
+        return passed;
+    }
+}
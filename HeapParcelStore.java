@@ -0,0 +1,237 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Parcels column by column in parallel primitive arrays indexed by row, with
+// an open-addressing id index, rather than as one object per parcel. Each
+// status also keeps the set of its rows, so counting or listing one status
+// costs nothing for parcels in the others. ParcelMap's default store.
+public class HeapParcelStore implements ParcelStore {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] ids;
+    private double[] weights;
+    // Packed by PackedDimensions, or -1 with the text in irregularDimensions
+    private long[] dimensions;
+    private int[] arrivalDays;
+    private byte[] statuses;
+    // Rows in each status, by ordinal; statusSlots[row] is the row's position there
+    private int[][] statusRows;
+    private int[] statusCounts;
+    private int[] statusSlots;
+    private int size;
+    private final Map<String, String> irregularDimensions = new HashMap<>();
+    // Linear probing; each slot holds the id's hash in the high half and row + 1
+    // in the low half, or 0 when empty, so most mismatches skip the id compare
+    private long[] index;
+    private final PackedDimensions dimensionStrings = new PackedDimensions();
+
+    public HeapParcelStore() {
+        clear();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int find(String id) {
+        int slot = slotOf(id);
+        return slot < 0 ? -1 : (int) index[slot] - 1;
+    }
+
+    @Override
+    public int add(String id, double weight, String dimensions, int arrivalDay, ParcelStatus status) {
+        if (size == ids.length) {
+            grow();
+        }
+        int row = size++;
+        ids[row] = id;
+        store(row, weight, dimensions, arrivalDay, status);
+        insert(row);
+        return row;
+    }
+
+    @Override
+    public void update(int row, double weight, String dimensions, int arrivalDay, ParcelStatus status) {
+        leaveStatus(row);
+        if (this.dimensions[row] < 0) {
+            irregularDimensions.remove(ids[row]);
+        }
+        store(row, weight, dimensions, arrivalDay, status);
+    }
+
+    @Override
+    public void remove(int row) {
+        leaveStatus(row);
+        if (dimensions[row] < 0) {
+            irregularDimensions.remove(ids[row]);
+        }
+        deleteSlot(slotOf(ids[row]));
+        int lastIndex = size - 1;
+        if (row != lastIndex) {
+            // Fill the gap with the last row so removal stays O(1)
+            int moved = slotOf(ids[lastIndex]);
+            index[moved] = (index[moved] & ~0xFFFFFFFFL) | (row + 1);
+            ids[row] = ids[lastIndex];
+            weights[row] = weights[lastIndex];
+            dimensions[row] = dimensions[lastIndex];
+            arrivalDays[row] = arrivalDays[lastIndex];
+            statuses[row] = statuses[lastIndex];
+            statusSlots[row] = statusSlots[lastIndex];
+            statusRows[statuses[row]][statusSlots[row]] = row;
+        }
+        ids[lastIndex] = null;
+        size--;
+    }
+
+    @Override
+    public String id(int row) {
+        return ids[row];
+    }
+
+    @Override
+    public double weight(int row) {
+        return weights[row];
+    }
+
+    @Override
+    public String dimensions(int row) {
+        return dimensions[row] < 0 ? irregularDimensions.get(ids[row]) : dimensionStrings.unpack(dimensions[row]);
+    }
+
+    @Override
+    public int arrivalDay(int row) {
+        return arrivalDays[row];
+    }
+
+    @Override
+    public ParcelStatus status(int row) {
+        return ParcelStatus.fromOrdinal(statuses[row]);
+    }
+
+    @Override
+    public void setStatus(int row, ParcelStatus status) {
+        leaveStatus(row);
+        joinStatus(row, status);
+    }
+
+    @Override
+    public int count(ParcelStatus status) {
+        return statusCounts[status.ordinal()];
+    }
+
+    @Override
+    public int[] rows(ParcelStatus status) {
+        return Arrays.copyOf(statusRows[status.ordinal()], statusCounts[status.ordinal()]);
+    }
+
+    @Override
+    public void clear() {
+        ids = new String[INITIAL_CAPACITY];
+        weights = new double[INITIAL_CAPACITY];
+        dimensions = new long[INITIAL_CAPACITY];
+        arrivalDays = new int[INITIAL_CAPACITY];
+        statuses = new byte[INITIAL_CAPACITY];
+        statusRows = new int[ParcelStatus.count()][INITIAL_CAPACITY];
+        statusCounts = new int[ParcelStatus.count()];
+        statusSlots = new int[INITIAL_CAPACITY];
+        irregularDimensions.clear();
+        index = new long[INITIAL_CAPACITY * 2];
+        size = 0;
+    }
+
+    // The caller takes the row out of its old status first, if it had one
+    private void store(int row, double weight, String dimensions, int arrivalDay, ParcelStatus status) {
+        weights[row] = weight;
+        long packed = PackedDimensions.pack(dimensions);
+        this.dimensions[row] = packed;
+        if (packed < 0) {
+            irregularDimensions.put(ids[row], dimensions);
+        }
+        arrivalDays[row] = arrivalDay;
+        joinStatus(row, status);
+    }
+
+    private void joinStatus(int row, ParcelStatus status) {
+        int ordinal = status.ordinal();
+        int count = statusCounts[ordinal];
+        if (count == statusRows[ordinal].length) {
+            statusRows[ordinal] = Arrays.copyOf(statusRows[ordinal], count * 2);
+        }
+        statusRows[ordinal][count] = row;
+        statusSlots[row] = count;
+        statusCounts[ordinal] = count + 1;
+        statuses[row] = (byte) ordinal;
+    }
+
+    // Fills the row's place in its status with that status's last row
+    private void leaveStatus(int row) {
+        int ordinal = statuses[row];
+        int last = --statusCounts[ordinal];
+        int moved = statusRows[ordinal][last];
+        statusRows[ordinal][statusSlots[row]] = moved;
+        statusSlots[moved] = statusSlots[row];
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+        dimensions = Arrays.copyOf(dimensions, capacity);
+        arrivalDays = Arrays.copyOf(arrivalDays, capacity);
+        statuses = Arrays.copyOf(statuses, capacity);
+        statusSlots = Arrays.copyOf(statusSlots, capacity);
+    }
+
+    private int slotOf(String id) {
+        int hash = ParcelStore.hash(id);
+        int mask = index.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = index[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if ((int) (entry >>> 32) == hash && ids[(int) entry - 1].equals(id)) {
+                return slot;
+            }
+        }
+    }
+
+    // Keeps the index at most half full
+    private void insert(int row) {
+        if (size * 2 > index.length) {
+            index = new long[index.length * 2];
+            for (int i = 0; i < size; i++) {
+                place(i);
+            }
+            return;
+        }
+        place(row);
+    }
+
+    private void place(int row) {
+        int hash = ParcelStore.hash(ids[row]);
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = ((long) hash << 32) | (row + 1);
+    }
+
+    // Backward-shift deletion, so lookups never need tombstones
+    private void deleteSlot(int slot) {
+        int mask = index.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int home = (int) (index[next] >>> 32) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+        }
+        index[hole] = 0;
+    }
+}
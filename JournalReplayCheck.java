@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+import javax.swing.JTextArea;
+
+// Crashes a depot just after each kind of journal entry, then truncates the
+// journal at every byte offset of that last line and restarts from it. Each
+// restart must match the depot either without the last entry or, once the
+// whole line is there, with it; a torn line is never applied in part.
+// Runs in scratch directories.
+//
+//   java JournalReplayCheck
+public class JournalReplayCheck {
+    public static void main(String[] args) throws Exception {
+        boolean passed = true;
+        passed &= run("parcel added", true, (manager, area) -> manager.addNewParcel("T1", 12.5, "10x20x30", area));
+        passed &= run("customer added", true, (manager, area) -> manager.addNewCustomer("Torn, Tess", "X064", area));
+        passed &= run("parcel released", true, (manager, area) -> manager.processNextCustomer("X919", area));
+        passed &= run("batch released", true,
+                (manager, area) -> manager.processBatch(List.of("X919", "X064", "X682"), area));
+        passed &= run("customer removed", true, (manager, area) -> manager.removeCustomer("Late, Lee", "T0", area));
+        // A released parcel has already left the files, so replaying its removal changes nothing
+        passed &= run("parcel removed", false, (manager, area) -> manager.removeParcel("T0", area));
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(String name, boolean changes, BiConsumer<Manager, JTextArea> lastEntry)
+            throws Exception {
+        Path image = Files.createTempDirectory("depot-journal");
+        Path restart = Files.createTempDirectory("depot-journal-restart");
+        try {
+            Files.copy(Path.of(Manager.PARCELS_FILE), image.resolve(Manager.PARCELS_FILE));
+            Files.copy(Path.of(Manager.CUSTOMERS_FILE), image.resolve(Manager.CUSTOMERS_FILE));
+            Manager manager = new Manager(image);
+            manager.loadData();
+            JTextArea area = new JTextArea();
+            // T0 is released, with a second customer still queued for it
+            manager.addNewParcel("T0", 3.0, "1x2x3", area);
+            manager.addNewCustomer("Setup, Sam", "T0", area);
+            manager.processNextCustomer("T0", area);
+            manager.addNewCustomer("Late, Lee", "T0", area);
+            long start = Files.size(journal(image));
+            lastEntry.accept(manager, area);
+            long end = Files.size(journal(image));
+            // Everything is in the files now; what a crash leaves is copied before closing
+            Path crashed = Files.createTempDirectory("depot-journal-image");
+            copy(image, crashed);
+            manager.close();
+
+            String before = restartWith(crashed, restart, start);
+            String after = restartWith(crashed, restart, end);
+            int wrong = 0;
+            // end - 1 is the whole line without its newline, which still counts as written
+            for (long cut = start; cut <= end; cut++) {
+                String expected = cut >= end - 1 ? after : before;
+                if (!expected.equals(restartWith(crashed, restart, cut))) {
+                    wrong++;
+                    System.out.println("  " + name + ": wrong state after cutting the journal at " + (cut - start)
+                            + " of " + (end - start) + " bytes");
+                }
+            }
+            delete(crashed);
+            boolean passed = end > start && changes != before.equals(after) && wrong == 0;
+            System.out.printf("%s: line of %d bytes, %d cuts wrong %s%n", name, end - start, wrong,
+                    passed ? "OK" : "FAILED");
+            return passed;
+        } finally {
+            delete(image);
+            delete(restart);
+        }
+    }
+
+    // The depot's contents after restarting from the crash image with its journal cut at length
+    private static String restartWith(Path crashed, Path restart, long length) throws IOException {
+        delete(restart);
+        Files.createDirectories(restart);
+        copy(crashed, restart);
+        try (FileChannel channel = FileChannel.open(journal(restart), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+        Manager manager = new Manager(restart);
+        manager.loadData();
+        StringBuilder state = new StringBuilder();
+        List<String> parcels = new ArrayList<>();
+        for (Parcel parcel : manager.getParcelMap().getAllParcels()) {
+            parcels.add(parcel.getId() + "," + parcel.getWeight() + "," + parcel.getDimensions() + ","
+                    + parcel.getDaysInDepot() + "," + parcel.getStatus());
+        }
+        parcels.sort(null);
+        state.append(parcels).append('\n');
+        for (Customer customer : manager.getCustomerQueue().getQueue()) {
+            state.append(customer.getName()).append('/').append(customer.getParcelId()).append(';');
+        }
+        state.append('\n');
+        ReleasedStore releasedStore = manager.getReleasedStore();
+        for (int i = 0; i < releasedStore.size(); i++) {
+            state.append(releasedStore.getRecord(i)).append('\n');
+        }
+        manager.close();
+        return state.toString();
+    }
+
+    private static Path journal(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".journal"))
+                    .max(Comparator.comparingLong(JournalReplayCheck::generation))
+                    .orElseThrow(() -> new IOException("No journal in " + directory));
+        }
+    }
+
+    // depot-<generation>.journal
+    private static long generation(Path journal) {
+        String name = journal.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.indexOf('.')));
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        try (Stream<Path> files = Files.walk(from)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Path target = to.resolve(from.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(file, target);
+                }
+            }
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+// Decides which lane a queued customer waits in and which lane the next free
+// counter serves. Called with the queue held, so implementations need no
+// locking of their own but must not call back into the queue.
+public interface LanePolicy {
+    // One first-come first-served lane, as the depot has always worked
+    LanePolicy SINGLE_LANE = new LanePolicy() {
+        @Override
+        public int laneCount() {
+            return 1;
+        }
+
+        @Override
+        public String laneName(int lane) {
+            return "Queue";
+        }
+
+        @Override
+        public int laneFor(Customer customer) {
+            return 0;
+        }
+
+        @Override
+        public int nextLane(int[] laneSizes) {
+            return 0;
+        }
+    };
+
+    int laneCount();
+
+    String laneName(int lane);
+
+    int laneFor(Customer customer);
+
+    // Only called while some lane has customers; must return one of those and
+    // leave the array as it is
+    int nextLane(int[] laneSizes);
+}
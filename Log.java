@@ -1,44 +1,251 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+// The depot log. Entries are LogEvents appended to events.bin without being
+// formatted; log.txt is brought up to date from it only when the log is read
+// and at exit. events.rendered records how far that has got: the event log
+// offset and the length log.txt had then, so text left by a render cut short
+// is replaced rather than repeated.
 public class Log {
-    private static Log instance;
-    private static final String LOG_FILE = "log.txt";
+    public static final String LOG_FILE = "log.txt";
+    public static final String EVENTS_FILE = "events.bin";
+    private static final String RENDERED_FILE = "events.rendered";
     private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
+    private static final int RENDER_CHUNK = 256 * 1024;
 
-    private Log() {
+    // Asynchronous mode is the default; -Ddepot.log.async=false writes each entry inline
+    private static final boolean ASYNC = Boolean.parseBoolean(System.getProperty("depot.log.async", "true"));
+    private static final int CAPACITY = Integer.getInteger("depot.log.capacity", 65536);
+    private static final int BATCH_SIZE = Integer.getInteger("depot.log.batchSize", 512);
+    private static final long FLUSH_INTERVAL_MS = Long.getLong("depot.log.flushIntervalMs", 200);
+    private static final AsyncLogWriter.OverflowPolicy OVERFLOW = AsyncLogWriter.OverflowPolicy.valueOf(
+            System.getProperty("depot.log.overflow", "BLOCK"));
+
+    // One instance per log file; computeIfAbsent makes concurrent first calls safe
+    private static final Map<Path, Log> instances = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final Path eventsFile;
+    private final Path renderedFile;
+    private EventLog events;
+    private AsyncLogWriter asyncWriter;
+    private final LogReader reader;
+    private final EventLog.LineRenderer renderer = new EventLog.LineRenderer(dtf);
+    // Events before this offset are in log.txt, which was this long afterwards
+    private long renderedEvents = EventLog.HEADER_SIZE;
+    private long renderedLength;
+
+    private Log(Path file) {
         // Private constructor for Singleton pattern
+        this.file = file;
+        this.eventsFile = file.resolveSibling(EVENTS_FILE);
+        this.renderedFile = file.resolveSibling(RENDERED_FILE);
+        reader = new LogReader(file);
+        readRenderedMark();
+        try {
+            events = EventLog.open(eventsFile, renderedEvents);
+            if (renderedEvents > events.size()) {
+                // The event log was replaced; render all of the new one
+                renderedEvents = EventLog.HEADER_SIZE;
+            }
+        } catch (IOException e) {
+            System.err.println("Error opening event log, writing log.txt directly: " + e.getMessage());
+        }
+        if (ASYNC && events != null) {
+            asyncWriter = new AsyncLogWriter(events, CAPACITY, BATCH_SIZE, FLUSH_INTERVAL_MS, OVERFLOW);
+        }
+        // Leaves log.txt complete for anyone reading it after the depot has stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "log-shutdown"));
     }
 
     public static Log getInstance() {
-        if (instance == null) {
-            instance = new Log();
-        }
-        return instance;
+        return getInstance(Paths.get(LOG_FILE));
     }
 
+    public static Log getInstance(Path file) {
+        return instances.computeIfAbsent(file.toAbsolutePath().normalize(), Log::new);
+    }
+
+    // Free text; the operations the depot performs have their own LogEvents
     public void addEntry(String entry) {
-        try (FileWriter fw = new FileWriter(LOG_FILE, true);
+        addEvent(LogEvent.message(entry));
+    }
+
+    public void addEvent(LogEvent event) {
+        if (asyncWriter != null && asyncWriter.submit(event)) {
+            return;
+        }
+        if (asyncWriter != null && !asyncWriter.isClosed() && OVERFLOW == AsyncLogWriter.OverflowPolicy.DROP) {
+            return;
+        }
+        if (events != null) {
+            try {
+                events.append(event);
+                return;
+            } catch (IOException e) {
+                System.err.println("Error writing to event log: " + e.getMessage());
+            }
+        }
+        appendText(event);
+    }
+
+    // Waits for queued events to reach events.bin
+    public void flush() {
+        if (asyncWriter != null) {
+            asyncWriter.flush();
+        }
+    }
+
+    public void close() {
+        if (asyncWriter != null) {
+            asyncWriter.close();
+        }
+        render();
+    }
+
+    // Appends the events written since the last render to log.txt
+    public synchronized void render() {
+        flush();
+        // Nothing to render if the depot's directory has been removed
+        if (events == null || !Files.exists(eventsFile)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            if (length > renderedLength) {
+                // A render that stopped before recording its progress
+                channel.truncate(renderedLength);
+            }
+            long position = Math.min(length, renderedLength);
+            StringBuilder text = new StringBuilder();
+            long[] written = {position};
+            IOException[] failure = new IOException[1];
+            long end = EventLog.read(eventsFile, renderedEvents, event -> {
+                renderer.append(event, text);
+                if (text.length() >= RENDER_CHUNK && failure[0] == null) {
+                    try {
+                        written[0] += write(channel, text, written[0]);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            written[0] += write(channel, text, written[0]);
+            if (end != renderedEvents || written[0] != renderedLength) {
+                renderedEvents = end;
+                renderedLength = written[0];
+                writeRenderedMark();
+            }
+        } catch (IOException e) {
+            System.err.println("Error rendering log file: " + e.getMessage());
+        }
+    }
+
+    public List<String> getLastEntries(int count) {
+        render();
+        try {
+            return reader.tail(count);
+        } catch (IOException e) {
+            System.err.println("Error reading log file: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    public List<String> getEntries(long firstEntry, int limit) {
+        render();
+        try {
+            return reader.page(firstEntry, limit);
+        } catch (IOException e) {
+            System.err.println("Error reading log file: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    public List<String> getEntriesBetween(LocalDateTime from, LocalDateTime to, int limit) {
+        render();
+        try {
+            return reader.between(from, to, limit);
+        } catch (IOException e) {
+            System.err.println("Error reading log file: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    public long getEntryCount() {
+        render();
+        try {
+            return reader.entryCount();
+        } catch (IOException e) {
+            System.err.println("Error reading log file: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private static int write(FileChannel channel, StringBuilder text, long position) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(text.toString());
+        text.setLength(0);
+        int length = bytes.remaining();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, position + length - bytes.remaining());
+        }
+        return length;
+    }
+
+    // Only used when events.bin cannot be written. The mark moves past the
+    // line so a later render does not take it for one of its own cut short.
+    private synchronized void appendText(LogEvent event) {
+        try (FileWriter fw = new FileWriter(file.toFile(), StandardCharsets.UTF_8, true);
              BufferedWriter bw = new BufferedWriter(fw);
              PrintWriter out = new PrintWriter(bw)) {
             String timestamp = LocalDateTime.now().format(dtf);
-            out.println(timestamp + " - " + entry);
+            out.println(timestamp + " - " + event.render());
         } catch (IOException e) {
             System.err.println("Error writing to log file: " + e.getMessage());
+            return;
+        }
+        try {
+            renderedLength = Files.size(file);
+            writeRenderedMark();
+        } catch (IOException e) {
+            System.err.println("Error writing log render mark: " + e.getMessage());
         }
     }
 
-    public String getLog() {
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(new FileReader(LOG_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                content.append(line).append("\n");
+    // Without a mark, whatever log.txt already holds predates the event log
+    private void readRenderedMark() {
+        try {
+            String[] fields = Files.readString(renderedFile, StandardCharsets.US_ASCII).trim().split(" ");
+            renderedEvents = Long.parseLong(fields[0]);
+            renderedLength = Long.parseLong(fields[1]);
+        } catch (IOException | RuntimeException e) {
+            renderedEvents = EventLog.HEADER_SIZE;
+            try {
+                renderedLength = Files.exists(file) ? Files.size(file) : 0;
+            } catch (IOException sizeError) {
+                renderedLength = 0;
             }
-        } catch (IOException e) {
-            System.err.println("Error reading log file: " + e.getMessage());
         }
-        return content.toString();
     }
-}
\ No newline at end of file
+
+    private void writeRenderedMark() throws IOException {
+        Path temp = renderedFile.resolveSibling(RENDERED_FILE + ".tmp");
+        Files.write(temp, (renderedEvents + " " + renderedLength + "\n").getBytes(StandardCharsets.US_ASCII));
+        Files.move(temp, renderedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,230 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+
+// One entry of the depot log as data: what happened, to which parcel and
+// customer, and the fee or weight involved. Creating one does no formatting;
+// the text in log.txt is produced by render() when the log is read.
+public final class LogEvent {
+    // Codes are stored in events.bin, so existing ones must never change
+    public enum Kind {
+        MESSAGE(0, (event, out) -> out.append(event.text)),
+        COLLECTED(1, (event, out) -> out.append(String.format("Customer %s collected parcel %s. Fee: £%.2f",
+                event.customer, event.parcelId, event.amount))),
+        BATCH_PROCESSED(2, (event, out) -> out.append(String.format(
+                "Processed batch of %d parcels. Total fees: £%.2f", event.count, event.amount))),
+        CUSTOMER_ADDED(3, (event, out) -> out.append("Added new customer: ").append(event.customer)
+                .append(" with parcel ID: ").append(event.parcelId)),
+        CUSTOMER_NOT_ADDED(4, (event, out) -> out.append("Failed to add customer ").append(event.customer)
+                .append(": Parcel ID ").append(event.parcelId).append(" not found")),
+        PARCEL_ADDED(5, (event, out) -> out.append("Added new parcel: ").append(event.parcelId)
+                .append(" with weight: ").append(event.amount).append(" and dimensions: ").append(event.text)),
+        CUSTOMER_REMOVED(6, (event, out) -> out.append("Removed customer: ").append(event.customer)
+                .append(" with parcel ID: ").append(event.parcelId)),
+        CUSTOMER_NOT_REMOVED(7, (event, out) -> out.append("Failed to remove customer ").append(event.customer)
+                .append(": Parcel ").append(event.parcelId).append(" is still in depot")),
+        CUSTOMER_NOT_FOUND(8, (event, out) -> out.append("Failed to remove customer: ").append(event.customer)
+                .append(" - not found in records")),
+        PARCEL_REMOVED(9, (event, out) -> out.append("Removed parcel: ").append(event.parcelId)),
+        PARCEL_NOT_FOUND(10, (event, out) -> out.append("Failed to remove parcel ").append(event.parcelId)
+                .append(": not found")),
+        PARCEL_NOT_REMOVED(11, (event, out) -> out.append("Failed to remove parcel ").append(event.parcelId)
+                .append(": ").append(event.text)),
+        PARCEL_READY(12, (event, out) -> out.append("Parcel ready for collection: ").append(event.parcelId));
+
+        private static final Kind[] byCode = new Kind[16];
+
+        static {
+            for (Kind kind : values()) {
+                byCode[kind.code] = kind;
+            }
+        }
+
+        private final int code;
+        private final BiConsumer<LogEvent, StringBuilder> renderer;
+
+        Kind(int code, BiConsumer<LogEvent, StringBuilder> renderer) {
+            this.code = code;
+            this.renderer = renderer;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        // Null for a code this version does not know
+        public static Kind fromCode(int code) {
+            return code >= 0 && code < byCode.length ? byCode[code] : null;
+        }
+    }
+
+    private final Kind kind;
+    private final long timestamp;
+    private final String parcelId;
+    private final String customer;
+    private final double amount;
+    private final int count;
+    private final String text;
+
+    private LogEvent(Kind kind, long timestamp, String parcelId, String customer, double amount, int count,
+                     String text) {
+        this.kind = kind;
+        this.timestamp = timestamp;
+        this.parcelId = parcelId;
+        this.customer = customer;
+        this.amount = amount;
+        this.count = count;
+        this.text = text;
+    }
+
+    private static LogEvent now(Kind kind, String parcelId, String customer, double amount, int count, String text) {
+        return new LogEvent(kind, System.currentTimeMillis(), parcelId, customer, amount, count, text);
+    }
+
+    public static LogEvent message(String text) {
+        return now(Kind.MESSAGE, null, null, 0, 0, text);
+    }
+
+    public static LogEvent collected(String customer, String parcelId, double fee) {
+        return now(Kind.COLLECTED, parcelId, customer, fee, 0, null);
+    }
+
+    public static LogEvent batchProcessed(int parcels, double totalFee) {
+        return now(Kind.BATCH_PROCESSED, null, null, totalFee, parcels, null);
+    }
+
+    public static LogEvent customerAdded(String customer, String parcelId) {
+        return now(Kind.CUSTOMER_ADDED, parcelId, customer, 0, 0, null);
+    }
+
+    public static LogEvent customerNotAdded(String customer, String parcelId) {
+        return now(Kind.CUSTOMER_NOT_ADDED, parcelId, customer, 0, 0, null);
+    }
+
+    public static LogEvent parcelAdded(String parcelId, double weight, String dimensions) {
+        return now(Kind.PARCEL_ADDED, parcelId, null, weight, 0, dimensions);
+    }
+
+    public static LogEvent customerRemoved(String customer, String parcelId) {
+        return now(Kind.CUSTOMER_REMOVED, parcelId, customer, 0, 0, null);
+    }
+
+    public static LogEvent customerNotRemoved(String customer, String parcelId) {
+        return now(Kind.CUSTOMER_NOT_REMOVED, parcelId, customer, 0, 0, null);
+    }
+
+    public static LogEvent customerNotFound(String customer) {
+        return now(Kind.CUSTOMER_NOT_FOUND, null, customer, 0, 0, null);
+    }
+
+    public static LogEvent parcelRemoved(String parcelId) {
+        return now(Kind.PARCEL_REMOVED, parcelId, null, 0, 0, null);
+    }
+
+    public static LogEvent parcelNotFound(String parcelId) {
+        return now(Kind.PARCEL_NOT_FOUND, parcelId, null, 0, 0, null);
+    }
+
+    public static LogEvent parcelNotRemoved(String parcelId, String statusLabel) {
+        return now(Kind.PARCEL_NOT_REMOVED, parcelId, null, 0, 0, statusLabel);
+    }
+
+    public static LogEvent parcelReady(String parcelId) {
+        return now(Kind.PARCEL_READY, parcelId, null, 0, 0, null);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    // Milliseconds since the epoch
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getParcelId() {
+        return parcelId;
+    }
+
+    public String getCustomer() {
+        return customer;
+    }
+
+    // The fee, total fee or weight, depending on the kind
+    public double getAmount() {
+        return amount;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    // The text of the entry as it appears in log.txt, without the timestamp
+    public void render(StringBuilder out) {
+        kind.renderer.accept(this, out);
+    }
+
+    public String render() {
+        StringBuilder out = new StringBuilder();
+        render(out);
+        return out.toString();
+    }
+
+    @Override
+    public String toString() {
+        return render();
+    }
+
+    // kind, timestamp, amount, count, then parcelId, customer and text as
+    // length-prefixed UTF-8 with -1 for null
+    void encode(ByteBuffer out) {
+        out.put((byte) kind.code).putLong(timestamp).putDouble(amount).putInt(count);
+        putString(out, parcelId);
+        putString(out, customer);
+        putString(out, text);
+    }
+
+    // An upper bound on what encode() writes
+    int maxEncodedSize() {
+        return 1 + 8 + 8 + 4 + 3 * 4 + maxBytes(parcelId) + maxBytes(customer) + maxBytes(text);
+    }
+
+    // Null for an unknown kind, so newer files can still be read for what is known
+    static LogEvent decode(ByteBuffer in) {
+        Kind kind = Kind.fromCode(in.get());
+        long timestamp = in.getLong();
+        double amount = in.getDouble();
+        int count = in.getInt();
+        String parcelId = getString(in);
+        String customer = getString(in);
+        String text = getString(in);
+        return kind == null ? null : new LogEvent(kind, timestamp, parcelId, customer, amount, count, text);
+    }
+
+    private static int maxBytes(String value) {
+        return value == null ? 0 : value.length() * 3;
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        if (value == null) {
+            out.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Reads slices of log.txt without loading the whole file. Tail reads seek
+// backwards from the end; paging and time-range reads start from the nearest
+// checkpoint of a sparse index that is extended as the file grows.
+public class LogReader {
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final long MAP_CHUNK = 64L * 1024 * 1024;
+    private static final int INDEX_INTERVAL = 1024;
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private final Path file;
+
+    // Byte offset and timestamp of every INDEX_INTERVAL-th entry
+    private long[] checkpointOffsets = new long[64];
+    private long[] checkpointTimes = new long[64];
+    private int checkpoints;
+    private long indexedLength;
+    private long indexedEntries;
+    private long lastTime = NO_TIME;
+
+    public LogReader(Path file) {
+        this.file = file;
+    }
+
+    // Last count entries, oldest first.
+    public synchronized List<String> tail(int count) throws IOException {
+        if (count <= 0 || !Files.exists(file)) {
+            return new ArrayList<>();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long end = size;
+            if (end > 0 && byteAt(channel, end - 1) == '\n') {
+                end--;
+            }
+            long start = 0;
+            int newlines = 0;
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            long position = end;
+            search:
+            while (position > 0) {
+                int length = (int) Math.min(BLOCK_SIZE, position);
+                position -= length;
+                block.clear().limit(length);
+                readFully(channel, block, position);
+                for (int i = length - 1; i >= 0; i--) {
+                    if (block.get(i) == '\n' && ++newlines == count) {
+                        start = position + i + 1;
+                        break search;
+                    }
+                }
+            }
+            return readLines(channel, start, Integer.MAX_VALUE, 0);
+        }
+    }
+
+    // Up to limit entries starting at the given entry number (0 = oldest).
+    public synchronized List<String> page(long firstEntry, int limit) throws IOException {
+        updateIndex();
+        if (firstEntry < 0 || firstEntry >= indexedEntries || limit <= 0) {
+            return new ArrayList<>();
+        }
+        int checkpoint = (int) (firstEntry / INDEX_INTERVAL);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readLines(channel, checkpointOffsets[checkpoint], limit,
+                    firstEntry - (long) checkpoint * INDEX_INTERVAL);
+        }
+    }
+
+    // Entries stamped within [from, to], capped at limit.
+    public synchronized List<String> between(LocalDateTime from, LocalDateTime to, int limit) throws IOException {
+        updateIndex();
+        List<String> result = new ArrayList<>();
+        if (indexedEntries == 0) {
+            return result;
+        }
+        long fromTime = from.toEpochSecond(ZoneOffset.UTC);
+        long toTime = to.toEpochSecond(ZoneOffset.UTC);
+
+        // Last checkpoint stamped strictly before the range, so no earlier entry can match
+        int low = 0;
+        int high = checkpoints - 1;
+        int startCheckpoint = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (checkpointTimes[mid] != NO_TIME && checkpointTimes[mid] < fromTime) {
+                startCheckpoint = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     Channels.newInputStream(channel.position(checkpointOffsets[startCheckpoint])),
+                     StandardCharsets.UTF_8))) {
+            long remaining = indexedEntries - (long) startCheckpoint * INDEX_INTERVAL;
+            String line;
+            while (remaining-- > 0 && result.size() < limit && (line = reader.readLine()) != null) {
+                long time = parseTime(line);
+                if (time == NO_TIME || time < fromTime) {
+                    continue;
+                }
+                if (time > toTime) {
+                    break;
+                }
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    public synchronized long entryCount() throws IOException {
+        updateIndex();
+        return indexedEntries;
+    }
+
+    // Scans only the bytes appended since the last call.
+    private void updateIndex() throws IOException {
+        if (!Files.exists(file)) {
+            resetIndex();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < indexedLength) {
+                // Truncated or replaced, start over
+                resetIndex();
+            }
+            long lineStart = indexedLength;
+            long chunkStart = indexedLength;
+            while (chunkStart < size) {
+                long chunkLength = Math.min(MAP_CHUNK, size - chunkStart);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkLength);
+                for (int i = 0; i < chunkLength; i++) {
+                    if (chunk.get(i) != '\n') {
+                        continue;
+                    }
+                    if (indexedEntries % INDEX_INTERVAL == 0) {
+                        addCheckpoint(lineStart, timeAt(channel, chunk, chunkStart, lineStart));
+                    }
+                    indexedEntries++;
+                    lineStart = chunkStart + i + 1;
+                }
+                chunkStart += chunkLength;
+            }
+            // A partially written last line is picked up on the next call
+            indexedLength = lineStart;
+        }
+    }
+
+    private void resetIndex() {
+        checkpoints = 0;
+        indexedLength = 0;
+        indexedEntries = 0;
+        lastTime = NO_TIME;
+    }
+
+    private void addCheckpoint(long offset, long time) {
+        if (checkpoints == checkpointOffsets.length) {
+            checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpoints * 2);
+            checkpointTimes = Arrays.copyOf(checkpointTimes, checkpoints * 2);
+        }
+        // Undated lines inherit the previous stamp so the index stays sorted
+        if (time == NO_TIME) {
+            time = lastTime;
+        } else {
+            lastTime = time;
+        }
+        checkpointOffsets[checkpoints] = offset;
+        checkpointTimes[checkpoints] = time;
+        checkpoints++;
+    }
+
+    private long timeAt(FileChannel channel, MappedByteBuffer chunk, long chunkStart, long lineStart) throws IOException {
+        byte[] stamp = new byte[19];
+        if (lineStart >= chunkStart && lineStart + stamp.length <= chunkStart + chunk.limit()) {
+            chunk.get((int) (lineStart - chunkStart), stamp);
+        } else {
+            ByteBuffer buffer = ByteBuffer.wrap(stamp);
+            if (channel.read(buffer, lineStart) < stamp.length) {
+                return NO_TIME;
+            }
+        }
+        return parseTime(new String(stamp, StandardCharsets.US_ASCII));
+    }
+
+    // Parses the "yyyy/MM/dd HH:mm:ss" prefix written by Log.
+    private static long parseTime(String line) {
+        if (line.length() < 19 || line.charAt(4) != '/' || line.charAt(7) != '/' || line.charAt(10) != ' '
+                || line.charAt(13) != ':' || line.charAt(16) != ':') {
+            return NO_TIME;
+        }
+        try {
+            LocalDateTime time = LocalDateTime.of(digits(line, 0, 4), digits(line, 5, 2), digits(line, 8, 2),
+                    digits(line, 11, 2), digits(line, 14, 2), digits(line, 17, 2));
+            return time.toEpochSecond(ZoneOffset.UTC);
+        } catch (RuntimeException e) {
+            return NO_TIME;
+        }
+    }
+
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException(text.substring(start, start + count));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static List<String> readLines(FileChannel channel, long offset, int limit, long skip) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(channel.position(offset)), StandardCharsets.UTF_8));
+        String line;
+        while (lines.size() < limit && (line = reader.readLine()) != null) {
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static byte byteAt(FileChannel channel, long position) throws IOException {
+        ByteBuffer single = ByteBuffer.allocate(1);
+        channel.read(single, position);
+        return single.get(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+    }
+}
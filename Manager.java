@@ -1,70 +1,245 @@
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Queue;
-import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 
 import javax.swing.JOptionPane;
 import javax.swing.JTextArea;
 
-public class Manager {
+public class Manager implements Depot {
+    public static final int LOG_PAGE_SIZE = 1000;
+    public static final String PARCELS_FILE = "Parcels.csv";
+    public static final String CUSTOMERS_FILE = "Custs.csv";
+    // "weight" splits the queue into Express, Standard and Bulky lanes by parcel weight
+    private static final String LANES = System.getProperty("depot.lanes", "single");
+    // "mapped" keeps the parcels in memory-mapped files rather than on the heap
+    private static final String PARCEL_STORE = System.getProperty("depot.parcels.store", "heap");
+    private static final double EXPRESS_MAX_WEIGHT = 2.0;
+    private static final double BULKY_MIN_WEIGHT = 15.0;
+
+    public enum ServeResult { SERVED, REQUEUED, WAITING, EMPTY }
+
+    private final Path directory;
     private QueueOfCustomers customerQueue;
     private ParcelMap parcelMap;
     private Worker worker;
     private Log log;
-    private Scanner scanner; // Declare a single Scanner object
+    private DepotStore store;
+    private ReleasedStore releasedStore;
+    private DepotCsvLoader csvLoader;
+    private DepotCalendar calendar;
+    private DepotCsvWatcher csvWatcher;
+    private FeeCalculator feeCalculator;
+    private DepotMetrics metrics;
+    private LatencyHistogram processTimer;
+    private LatencyHistogram batchTimer;
+    private LatencyHistogram serveTimer;
+    private LatencyHistogram addCustomerTimer;
+    private LatencyHistogram addParcelTimer;
+    private LatencyHistogram removeCustomerTimer;
+    private LatencyHistogram removeParcelTimer;
+    private LatencyHistogram markReadyTimer;
+    private LongAdder releasedCount;
+    private LongAdder batchCount;
 
     public Manager() {
-        customerQueue = new QueueOfCustomers();
-        parcelMap = new ParcelMap();
-        worker = new Worker();
-        log = Log.getInstance();
-        scanner = new Scanner(System.in); // Initialize the Scanner object
+        this(Paths.get("."));
     }
 
-    public void loadData() {
-        loadParcels("Parcels.csv");
-        loadCustomers("Custs.csv");
-    }
-
-    private void loadParcels(String filename) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line;
-            boolean firstLine = true;
-            while ((line = br.readLine()) != null) {
-                if (firstLine) {
-                    firstLine = false;
-                    continue;
-                }
-                String[] data = line.split(",");
-                if (data.length >= 4) {
-                    String id = data[0].trim();
-                    double weight = Double.parseDouble(data[1].trim());
-                    String dimensions = data[2].trim() + "x" + data[3].trim() + "x" + data[4].trim();
-                    Parcel parcel = new Parcel(id, weight, dimensions);
-                    parcelMap.addParcel(parcel);
+    // All data files, including log.txt, are kept in the given directory
+    public Manager(Path directory) {
+        this.directory = directory;
+        parcelMap = new ParcelMap(createParcelStore());
+        customerQueue = new QueueOfCustomers(createLanePolicy());
+        metrics = DepotMetrics.getInstance(directory);
+        worker = new Worker(RateTable.STANDARD, metrics);
+        log = Log.getInstance(directory.resolve(Log.LOG_FILE));
+        store = new DepotStore(directory, PARCELS_FILE, CUSTOMERS_FILE);
+        releasedStore = new ReleasedStore(directory);
+        csvLoader = new DepotCsvLoader();
+        calendar = new DepotCalendar(directory.resolve(DepotCalendar.DAY_FILE));
+        feeCalculator = new FeeCalculator();
+        if (DepotCsvWatcher.ENABLED) {
+            csvWatcher = new DepotCsvWatcher(directory.resolve(PARCELS_FILE), directory.resolve(CUSTOMERS_FILE),
+                    parcelMap, customerQueue, store, log, metrics);
+        }
+        registerMetrics();
+    }
+
+    private void registerMetrics() {
+        processTimer = metrics.timer("manager.processNextCustomer");
+        batchTimer = metrics.timer("manager.processBatch");
+        serveTimer = metrics.timer("manager.serveNextCustomer");
+        addCustomerTimer = metrics.timer("manager.addNewCustomer");
+        addParcelTimer = metrics.timer("manager.addNewParcel");
+        removeCustomerTimer = metrics.timer("manager.removeCustomer");
+        removeParcelTimer = metrics.timer("manager.removeParcel");
+        markReadyTimer = metrics.timer("manager.markParcelReady");
+        // Counted once the release is journaled, for single releases and batches alike
+        releasedCount = metrics.counter("parcels.released");
+        batchCount = metrics.counter("batches.released");
+        metrics.gauge("queue.depth", customerQueue::size);
+        metrics.gauge("parcels.inDepot", () -> parcelMap.count(ParcelStatus.IN_DEPOT));
+        metrics.gauge("parcels.ready", () -> parcelMap.count(ParcelStatus.READY));
+        metrics.gauge("released.records", releasedStore::size);
+    }
+
+    private LanePolicy createLanePolicy() {
+        switch (LANES) {
+            case "weight":
+                // Express and Standard get two turns for each one Bulky gets
+                return new ParcelWeightLanes(parcelId -> {
+                    Parcel parcel = parcelMap.getParcel(parcelId);
+                    return parcel == null ? 0 : parcel.getWeight();
+                }, EXPRESS_MAX_WEIGHT, BULKY_MIN_WEIGHT, 2, 2, 1);
+            case "single":
+                return LanePolicy.SINGLE_LANE;
+            default:
+                System.err.println("Unknown depot.lanes " + LANES + ", using a single lane");
+                return LanePolicy.SINGLE_LANE;
+        }
+    }
+
+    private ParcelStore createParcelStore() {
+        switch (PARCEL_STORE) {
+            case "mapped":
+                try {
+                    return MappedParcelStore.open(directory);
+                } catch (IOException e) {
+                    System.err.println("Error opening the mapped parcel store, keeping parcels on the heap: "
+                            + e.getMessage());
+                    return new HeapParcelStore();
                 }
+            case "heap":
+                return new HeapParcelStore();
+            default:
+                System.err.println("Unknown depot.parcels.store " + PARCEL_STORE + ", keeping parcels on the heap");
+                return new HeapParcelStore();
+        }
+    }
+
+    public void loadData() {
+        try {
+            calendar.open();
+        } catch (IOException e) {
+            System.err.println("Error loading depot day: " + e.getMessage());
+        }
+        int today = calendar.today();
+        // Snapshot days in depot were counted on the day they were written
+        parcelMap.setToday(store.snapshotDay(today));
+        // Rows appended to the CSVs from here on are left to the watcher
+        Path parcelsFile = directory.resolve(PARCELS_FILE);
+        Path customersFile = directory.resolve(CUSTOMERS_FILE);
+        long parcelsEnd = csvWatcher != null ? csvWatcher.mark(parcelsFile) : Long.MAX_VALUE;
+        long customersEnd = csvWatcher != null ? csvWatcher.mark(customersFile) : Long.MAX_VALUE;
+        // A binary snapshot from the last compaction saves parsing the CSVs
+        if (!store.loadSnapshot(parcelMap, customerQueue)) {
+            loadParcels(parcelsFile, parcelsEnd);
+            loadCustomers(customersFile, customersEnd);
+        }
+        parcelMap.setToday(today);
+        calendar.addListener(parcelMap::setToday);
+        calendar.start();
+        // Opened first so replaying the journal can add releases a crash kept out of it
+        try {
+            releasedStore.open();
+        } catch (IOException e) {
+            System.err.println("Error loading released records: " + e.getMessage());
+        }
+        try {
+            store.open(parcelMap, customerQueue, releasedStore);
+        } catch (IOException e) {
+            System.err.println("Error replaying depot journal: " + e.getMessage());
+        }
+        if (csvWatcher != null) {
+            try {
+                csvWatcher.start();
+            } catch (IOException e) {
+                System.err.println("Error watching the depot CSVs: " + e.getMessage());
+            }
+        }
+        metrics.start();
+    }
+
+    public ParcelMap getParcelMap() {
+        return parcelMap;
+    }
+
+    public QueueOfCustomers getCustomerQueue() {
+        return customerQueue;
+    }
+
+    public ReleasedStore getReleasedStore() {
+        return releasedStore;
+    }
+
+    public Log getLog() {
+        return log;
+    }
+
+    public DepotCalendar getCalendar() {
+        return calendar;
+    }
+
+    public DepotMetrics getMetrics() {
+        return metrics;
+    }
+
+    // What every parcel still in the depot would be charged today at the given
+    // rates; the counters' own rates are worker.getRates()
+    public FeeCalculator.Result calculateOutstandingFees(RateTable rates) {
+        return feeCalculator.calculate(rates, parcelMap.getColumns(ParcelStatus.IN_DEPOT, ParcelStatus.READY));
+    }
+
+    // Writes the final snapshots now rather than from the shutdown hook
+    public void close() {
+        if (csvWatcher != null) {
+            csvWatcher.close();
+        }
+        calendar.close();
+        store.close();
+        try {
+            parcelMap.close(store.getCleanGeneration());
+        } catch (IOException e) {
+            System.err.println("Error closing the parcel store: " + e.getMessage());
+        }
+        releasedStore.close();
+        metrics.stop();
+        log.flush();
+    }
+
+    // Package-private so DepotBenchmark can time each file on its own
+    void loadParcels(Path file) {
+        loadParcels(file, Long.MAX_VALUE);
+    }
+
+    void loadCustomers(Path file) {
+        loadCustomers(file, Long.MAX_VALUE);
+    }
+
+    private void loadParcels(Path file, long end) {
+        try {
+            // Snapshot headers are written as comments and skipped by the loader
+            for (String error : csvLoader.loadParcels(file, end, parcelMap)) {
+                System.err.println("Error loading parcels: " + error);
             }
         } catch (IOException e) {
             System.err.println("Error loading parcels: " + e.getMessage());
         }
     }
 
-    private void loadCustomers(String filename) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line;
-            boolean firstLine = true;
-            int sequence = 1;
-            while ((line = br.readLine()) != null) {
-                if (firstLine) {
-                    firstLine = false;
-                    continue;
-                }
-                String[] data = line.split(",");
-                if (data.length >= 2) {
-                    String name = data[0].trim();
-                    String parcelId = data[1].trim();
-                    Customer customer = new Customer(name, parcelId, sequence++);
-                    customerQueue.addCustomer(customer);
-                }
+    private void loadCustomers(Path file, long end) {
+        try {
+            for (String error : csvLoader.loadCustomers(file, end, customerQueue)) {
+                System.err.println("Error loading customers: " + error);
             }
         } catch (IOException e) {
             System.err.println("Error loading customers: " + e.getMessage());
@@ -146,129 +321,349 @@ public class Manager {
                 running = false;
                 displayArea.append("Exiting application.\n");
                 break;
+            case "10":
+                String batchIds = JOptionPane.showInputDialog("Enter Parcel IDs to process, separated by commas:");
+                if (batchIds != null && !batchIds.trim().isEmpty()) {
+                    processBatch(parseParcelIds(batchIds), displayArea);
+                } else {
+                    displayArea.append("Invalid Parcel IDs.\n");
+                }
+                break;
+            case "11":
+                String releasedId = JOptionPane.showInputDialog("Enter Parcel ID to look up:");
+                if (releasedId != null && !releasedId.trim().isEmpty()) {
+                    findReleasedParcel(releasedId.trim(), displayArea);
+                } else {
+                    displayArea.append("Invalid Parcel ID.\n");
+                }
+                break;
             default:
                 displayArea.append("Invalid choice. Please try again.\n");
         }
     }
 }
 
-private void updateReleasedFile(Customer customerToProcess, Parcel parcel, double processingFee, JTextArea displayArea) {
-    try (FileWriter fw = new FileWriter("released.csv", true);
-         BufferedWriter bw = new BufferedWriter(fw);
-         PrintWriter out = new PrintWriter(bw)) {
-        
+private static String releasedRecord(Customer customer, Parcel parcel, double processingFee) {
+    return customer.getName() + "," +
+           customer.getParcelId() + "," +
+           parcel.getWeight() + "," +
+           parcel.getDimensions() + "," +
+           parcel.getStatus().getLabel() + ",£" + String.format("%.2f", processingFee);
+}
+
+// The release is already journaled with this record, so a failure here is
+// repaired the next time the depot is opened
+private void updateReleasedFile(List<String> records, JTextArea displayArea) {
+    try {
         // Write customer and parcel details to the file
-        out.println(customerToProcess.getName() + "," +
-                    customerToProcess.getParcelId() + "," +
-                    parcel.getWeight() + "," +
-                    parcel.getDimensions() + "," +
-                    parcel.getStatus() + ",£" + String.format("%.2f", processingFee));
-        
-        displayArea.append("Details added to released.csv\n");
+        releasedStore.appendAll(records);
+
+        displayArea.append("Details added to released records\n");
     } catch (IOException e) {
         displayArea.append("Error updating released file: " + e.getMessage() + "\n");
     }
 }
 
-private void removeCustomerFromFile(String customerName, String parcelId, JTextArea displayArea) {
+public boolean processNextCustomer(String parcelId, JTextArea displayArea) {
+    long start = System.nanoTime();
+    Lock mutation = store.mutationLock();
+    mutation.lock();
     try {
-        File inputFile = new File("Custs.csv");
-        File tempFile = new File("Custs_temp.csv");
-        
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
-            
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                // Skip the customer to be removed
-                if (data.length >= 2 && data[0].trim().equals(customerName) && data[1].trim().equals(parcelId)) {
-                    continue;
-                }
-                writer.write(line + System.lineSeparator());
-            }
+        // Validate Parcel ID against the in-memory parcel index
+        Parcel parcel = parcelMap.getParcel(parcelId);
+        if (!isParcelInDepot(parcel)) {
+            displayArea.append("Parcel not found in Parcels.csv: " + parcelId + "\n");
+            return false;
         }
-        
-        // Replace original file with the updated one
-        if (inputFile.delete() && tempFile.renameTo(inputFile)) {
-            displayArea.append("Customer removed from Custs.csv\n");
-        } else {
-            displayArea.append("Error updating Custs.csv\n");
+
+        // Look up the queued customer collecting this parcel
+        Customer customerToProcess = customerQueue.findByParcelId(parcelId);
+        if (customerToProcess == null) {
+            displayArea.append("Parcel not associated with any customer in Custs.csv: " + parcelId + "\n");
+            return false;
         }
-    } catch (IOException e) {
-        displayArea.append("Error updating Custs.csv: " + e.getMessage() + "\n");
+
+        // Taking the customer off the queue claims them for this counter
+        QueueOfCustomers.Place place = customerQueue.takeCustomer(customerToProcess);
+        if (place == null) {
+            displayArea.append("Customer is already being served at another counter: " + parcelId + "\n");
+            return false;
+        }
+        if (!serveCustomer(customerToProcess, worker, displayArea)) {
+            // Nothing was journaled, so they go back where they were
+            customerQueue.reinsert(place);
+            return false;
+        }
+        return true;
+
+    } catch (Exception e) {
+        displayArea.append("Error processing customer with parcel ID " + parcelId + ": " + e.getMessage() + "\n");
+        return false;
+    } finally {
+        mutation.unlock();
+        processTimer.recordNanos(System.nanoTime() - start);
     }
 }
 
-private void removeParcelFromFile(String parcelId, JTextArea displayArea) {
+// Releases every parcel in the batch or none of them. All ids are checked
+// before anything changes, and the whole batch is journaled in one line and
+// added to the released records in one write.
+public boolean processBatch(List<String> parcelIds, JTextArea displayArea) {
+    return releaseBatch(parcelIds, displayArea) != null;
+}
+
+// processBatch, handing back what each parcel was released for; null if the
+// batch was refused
+BatchRelease releaseBatch(List<String> parcelIds, JTextArea displayArea) {
+    if (parcelIds.isEmpty()) {
+        displayArea.append("No parcel IDs in batch.\n");
+        return null;
+    }
+    long start = System.nanoTime();
+    Lock mutation = store.mutationLock();
+    mutation.lock();
     try {
-        File inputFile = new File("Parcels.csv");
-        File tempFile = new File("Parcels_temp.csv");
-        
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
-            
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                // Skip the parcel to be removed
-                if (data.length >= 1 && data[0].trim().equals(parcelId)) {
-                    continue;
-                }
-                writer.write(line + System.lineSeparator());
-            }
+        BatchClaim claim = claimBatch(parcelIds, displayArea);
+        BatchRelease release = claim == null ? null : commitBatch(claim, displayArea);
+        if (release != null) {
+            appendBatchSummary(displayArea, parcelIds.size(), release.getTotalFee());
         }
-        
-        // Replace original file with the updated one
-        if (inputFile.delete() && tempFile.renameTo(inputFile)) {
-            displayArea.append("Parcel removed from Parcels.csv\n");
-        } else {
-            displayArea.append("Error updating Parcels.csv\n");
-        }
-    } catch (IOException e) {
-        displayArea.append("Error updating Parcels.csv: " + e.getMessage() + "\n");
+        return release;
+
+    } catch (Exception e) {
+        displayArea.append("Error processing batch: " + e.getMessage() + "\n");
+        return null;
+    } finally {
+        mutation.unlock();
+        batchTimer.recordNanos(System.nanoTime() - start);
     }
 }
 
+// A batch whose customers are off the queue and whose parcels are marked
+// released, but which is not journaled yet and can still be handed back
+static final class BatchClaim {
+    private final List<Parcel> parcels;
+    private final List<Customer> customers;
+    // Where each customer stood in the queue
+    private final List<QueueOfCustomers.Place> places;
+    private final List<ParcelStatus> previous;
+
+    private BatchClaim(List<Parcel> parcels, List<Customer> customers, List<QueueOfCustomers.Place> places,
+                       List<ParcelStatus> previous) {
+        this.parcels = parcels;
+        this.customers = customers;
+        this.places = places;
+        this.previous = previous;
+    }
+}
 
-public boolean processNextCustomer(String parcelId, JTextArea displayArea) {
-    try {
-        // Validate Parcel ID in Parcels.csv
-        if (!isParcelInParcelFile(parcelId)) {
+// The first half of processBatch, for DepotShards to claim a batch on every
+// shard before committing any. The caller holds mutationLock() until the claim
+// is committed or abandoned. Null, with the reason written out, if refused.
+BatchClaim claimBatch(List<String> parcelIds, JTextArea displayArea) {
+    List<Parcel> parcels = new ArrayList<>(parcelIds.size());
+    List<Customer> customers = new ArrayList<>(parcelIds.size());
+    Set<String> seen = new HashSet<>();
+    boolean valid = true;
+    for (String parcelId : parcelIds) {
+        Parcel parcel = parcelMap.getParcel(parcelId);
+        Customer customer = customerQueue.findByParcelId(parcelId);
+        if (!seen.add(parcelId)) {
+            displayArea.append("Parcel listed twice in batch: " + parcelId + "\n");
+            valid = false;
+        } else if (!isParcelInDepot(parcel)) {
             displayArea.append("Parcel not found in Parcels.csv: " + parcelId + "\n");
-            return false;
+            valid = false;
+        } else if (customer == null) {
+            displayArea.append("Parcel not associated with any customer in Custs.csv: " + parcelId + "\n");
+            valid = false;
+        } else {
+            parcels.add(parcel);
+            customers.add(customer);
         }
+    }
+    if (!valid) {
+        displayArea.append("Batch not processed; no parcels were released.\n");
+        return null;
+    }
 
-        // Validate Parcel ID in Custs.csv
-        if (!isParcelInCustomerFile(parcelId)) {
-            displayArea.append("Parcel not associated with any customer in Custs.csv: " + parcelId + "\n");
-            return false;
+    // Claim every customer first, handing them all back in place if another counter got one
+    List<QueueOfCustomers.Place> places = new ArrayList<>(customers.size());
+    for (int i = 0; i < customers.size(); i++) {
+        QueueOfCustomers.Place place = customerQueue.takeCustomer(customers.get(i));
+        if (place == null) {
+            displayArea.append("Customer is already being served at another counter: " +
+                               parcels.get(i).getId() + "\n");
+            places.forEach(customerQueue::reinsert);
+            displayArea.append("Batch not processed; no parcels were released.\n");
+            return null;
         }
+        places.add(place);
+    }
+    List<ParcelStatus> previous = new ArrayList<>(parcels.size());
+    parcels.forEach(parcel -> previous.add(parcel.getStatus()));
+    if (!parcelMap.transitionAll(parcels, ParcelStatus.RELEASED)) {
+        places.forEach(customerQueue::reinsert);
+        displayArea.append("Batch not processed; a parcel was released at another counter.\n");
+        return null;
+    }
+    return new BatchClaim(parcels, customers, places, previous);
+}
 
-        // Find and process the customer
-        Customer customerToProcess = customerQueue.getQueue()
-                .stream()
-                .filter(customer -> customer.getParcelId().equals(parcelId))
-                .findFirst()
-                .orElse(null);
+// A committed batch: each parcel's fee and released record, in batch order
+static final class BatchRelease {
+    private final List<Parcel> parcels;
+    private final double[] fees;
+    private final List<String> records;
+    private final double totalFee;
+
+    private BatchRelease(List<Parcel> parcels, double[] fees, List<String> records, double totalFee) {
+        this.parcels = parcels;
+        this.fees = fees;
+        this.records = records;
+        this.totalFee = totalFee;
+    }
 
-        if (customerToProcess == null) {
-            displayArea.append("Customer with Parcel ID not found in memory queue: " + parcelId + "\n");
-            return false;
+    int size() {
+        return parcels.size();
+    }
+
+    String getParcelId(int index) {
+        return parcels.get(index).getId();
+    }
+
+    double getFee(int index) {
+        return fees[index];
+    }
+
+    String getRecord(int index) {
+        return records.get(index);
+    }
+
+    double getTotalFee() {
+        return totalFee;
+    }
+}
+
+// Puts the parcels and customers of a claim back as they were, each customer
+// in the place they had in the queue
+void abandonBatch(BatchClaim claim) {
+    parcelMap.restoreStatuses(claim.parcels, claim.previous);
+    claim.places.forEach(customerQueue::reinsert);
+}
+
+// Journals a claimed batch and writes it out, returning what was released;
+// null, with the claim abandoned, if the journal could not be written. The
+// caller prints the batch summary, so a batch over several shards gets one.
+BatchRelease commitBatch(BatchClaim claim, JTextArea displayArea) {
+    List<Parcel> parcels = claim.parcels;
+    List<Customer> customers = claim.customers;
+    // The journal line is the commit point; until it is written everything can be undone
+    List<String> records = new ArrayList<>(parcels.size());
+    double[] fees = new double[parcels.size()];
+    for (int i = 0; i < parcels.size(); i++) {
+        fees[i] = worker.calculateFee(parcels.get(i));
+        records.add(releasedRecord(customers.get(i), parcels.get(i), fees[i]));
+    }
+    try {
+        store.recordReleases(customers, records);
+    } catch (IOException e) {
+        abandonBatch(claim);
+        displayArea.append("Error recording batch: " + e.getMessage() + "\n");
+        displayArea.append("Batch not processed; no parcels were released.\n");
+        return null;
+    }
+
+    double totalFee = 0;
+    for (int i = 0; i < parcels.size(); i++) {
+        Customer customer = customers.get(i);
+        Parcel parcel = parcels.get(i);
+        double processingFee = fees[i];
+        totalFee += processingFee;
+        log.addEvent(LogEvent.collected(customer.getName(), parcel.getId(), processingFee));
+        displayArea.append("Successfully processed customer: " + customer.getName() +
+                           " with parcel: " + parcel.getId() + ". Fee: £" + String.format("%.2f", processingFee) + "\n");
+    }
+    log.addEvent(LogEvent.batchProcessed(parcels.size(), totalFee));
+    releasedCount.add(parcels.size());
+    batchCount.increment();
+    updateReleasedFile(records, displayArea);
+    return new BatchRelease(parcels, fees, records, totalFee);
+}
+
+static void appendBatchSummary(JTextArea displayArea, int parcelCount, double totalFee) {
+    displayArea.append(String.format("Batch of %d parcels processed. Total fees: £%.2f%n", parcelCount, totalFee));
+}
+
+// Held by every change to the depot's parcels and customers; see DepotStore
+Lock mutationLock() {
+    return store.mutationLock();
+}
+
+// Parcel ids separated by commas or whitespace
+public static List<String> parseParcelIds(String text) {
+    List<String> parcelIds = new ArrayList<>();
+    for (String parcelId : text.split("[,\\s]+")) {
+        if (!parcelId.isEmpty()) {
+            parcelIds.add(parcelId);
         }
+    }
+    return parcelIds;
+}
 
-        // Process logic (Calculate fee, update logs, etc.)
-        Parcel parcel = parcelMap.getParcel(parcelId);
-        double processingFee = worker.calculateFee(parcel);
-        worker.processCustomer(customerToProcess, parcelMap, log);
+// Takes the next customer whose parcel is in the depot and serves them at the
+// calling counter. Customers still waiting for their parcel are passed over
+// where they stand, and one who cannot be served after all is put back in
+// place (REQUEUED), so the queue keeps the order a restart would rebuild.
+// WAITING if everyone queued is waiting for a parcel.
+public ServeResult serveNextCustomer(Worker counterWorker, JTextArea displayArea) {
+    long start = System.nanoTime();
+    Lock mutation = store.mutationLock();
+    mutation.lock();
+    try {
+        QueueOfCustomers.Place place = customerQueue.takeCustomer(
+                customer -> isParcelInDepot(customer.getParcelId()), parcelMap.arrivals());
+        if (place == null) {
+            return customerQueue.isEmpty() ? ServeResult.EMPTY : ServeResult.WAITING;
+        }
+        if (!serveCustomer(place.getCustomer(), counterWorker, displayArea)) {
+            // Nothing was journaled, so they go back where they were
+            customerQueue.reinsert(place);
+            return ServeResult.REQUEUED;
+        }
+        return ServeResult.SERVED;
+    } finally {
+        mutation.unlock();
+        serveTimer.recordNanos(System.nanoTime() - start);
+    }
+}
 
-        // Add to released.csv and remove from Custs.csv and Parcels.csv
-        updateReleasedFile(customerToProcess, parcel, processingFee, displayArea);
-        removeCustomerFromFile(customerToProcess.getName(), parcelId, displayArea);
-        removeParcelFromFile(parcelId, displayArea);
+// Serves a customer already taken off the queue by the caller, who holds the
+// mutation lock. Several counters may do this at once; the parcel status change
+// decides which one releases the parcel.
+private boolean serveCustomer(Customer customerToProcess, Worker counterWorker, JTextArea displayArea) {
+    String parcelId = customerToProcess.getParcelId();
+    try {
+        Parcel parcel = parcelMap.getParcel(parcelId);
+        ParcelStatus previous = parcel == null ? null : parcel.getStatus();
+        double processingFee = parcel == null ? -1 : counterWorker.processCustomer(parcel, parcelMap);
+        if (processingFee < 0) {
+            displayArea.append("Parcel not found in Parcels.csv: " + parcelId + "\n");
+            return false;
+        }
+        String record = releasedRecord(customerToProcess, parcel, processingFee);
 
-        // Update in-memory structures
-        customerQueue.removeCustomer();
+        // Journal the release ahead of the released records instead of rewriting Custs.csv and Parcels.csv
+        try {
+            store.recordRelease(customerToProcess, record);
+        } catch (IOException e) {
+            parcelMap.restoreStatuses(List.of(parcel), List.of(previous));
+            throw e;
+        }
+        log.addEvent(LogEvent.collected(customerToProcess.getName(), parcelId, processingFee));
+        releasedCount.increment();
+        updateReleasedFile(List.of(record), displayArea);
+        displayArea.append("Customer and parcel removed from depot records\n");
         displayArea.append("Successfully processed customer: " + customerToProcess.getName() +
                            " with parcel: " + parcelId + ". Fee: £" + String.format("%.2f", processingFee) + "\n");
         return true;
@@ -290,233 +685,296 @@ public boolean processNextCustomer(String parcelId, JTextArea displayArea) {
         System.out.println("7. Remove customer");
         System.out.println("8. Remove parcel");
         System.out.println("9. Exit");
+        System.out.println("10. Process batch of parcels");
+        System.out.println("11. Look up released parcel");
         System.out.print("Enter your choice: ");
     }
 
     
         
 
+// Long listings stop early when the calling command is cancelled
 public void displayCustomerQueue(JTextArea displayArea) {
     displayArea.append("\nCustomer Queue:\n");
-    customerQueue.getQueue().forEach(customer -> displayArea.append(customer.toString() + "\n"));
+    for (Customer customer : customerQueue.getQueue()) {
+        if (Thread.currentThread().isInterrupted()) {
+            displayArea.append("Listing cancelled.\n");
+            return;
+        }
+        displayArea.append(customer.toString() + "\n");
+    }
 }
 
 public void displayParcels(JTextArea displayArea) {
     displayArea.append("\nParcels in Depot:\n");
-    parcelMap.getAllParcels().forEach(parcel -> displayArea.append(parcel.toString() + "\n"));
+    for (ParcelStatus status : new ParcelStatus[] {ParcelStatus.IN_DEPOT, ParcelStatus.READY}) {
+        for (Parcel parcel : parcelMap.getParcels(status)) {
+            if (Thread.currentThread().isInterrupted()) {
+                displayArea.append("Listing cancelled.\n");
+                return;
+            }
+            displayArea.append(parcel.toString() + "\n");
+        }
+    }
 }
 
 public void displayLog(JTextArea displayArea) {
-    displayArea.append("\nSystem Log:\n");
-    displayArea.append(log.getLog() + "\n");
+    displayArea.append("\nSystem Log (latest " + LOG_PAGE_SIZE + " entries):\n");
+    log.getLastEntries(LOG_PAGE_SIZE).forEach(entry -> displayArea.append(entry + "\n"));
+}
+
+public void displayLogPage(JTextArea displayArea, long firstEntry, int limit) {
+    log.getEntries(firstEntry, limit).forEach(entry -> displayArea.append(entry + "\n"));
+}
+
+public long getLogEntryCount() {
+    return log.getEntryCount();
+}
+
+public void displayStats(JTextArea displayArea) {
+    displayArea.append("\nDepot: " + formatStats(customerQueue.size(), parcelMap.count(ParcelStatus.IN_DEPOT),
+            parcelMap.count(ParcelStatus.READY), releasedStore.size()) + "\n");
+}
+
+static String formatStats(long queued, long inDepot, long ready, long released) {
+    return queued + " queued, " + inDepot + " in depot, " + ready + " ready, " + released + " released";
 }
 
     public void addNewCustomer(String name, String parcelId, JTextArea displayArea) {
-        if (name == null || name.trim().isEmpty() || parcelId == null || parcelId.trim().isEmpty()) {
-            displayArea.append("Error: Customer name and parcel ID cannot be empty.\n");
-            return;
-        }
-    
-        // Check if parcel exists
-        if (parcelMap.getParcel(parcelId) == null) {
-            displayArea.append("Error: Parcel ID does not exist.\n");
-            log.addEntry("Failed to add customer " + name + ": Parcel ID " + parcelId + " not found");
-            return;
-        }
+        long start = System.nanoTime();
+        Lock mutation = store.mutationLock();
+        mutation.lock();
+        try {
+            if (name == null || name.trim().isEmpty() || parcelId == null || parcelId.trim().isEmpty()) {
+                displayArea.append("Error: Customer name and parcel ID cannot be empty.\n");
+                return;
+            }
     
-        int sequence = customerQueue.size() + 1;
-        Customer newCustomer = new Customer(name, parcelId, sequence);
-        customerQueue.addCustomer(newCustomer);
+            // Check if parcel exists
+            if (parcelMap.getParcel(parcelId) == null) {
+                displayArea.append("Error: Parcel ID does not exist.\n");
+                log.addEvent(LogEvent.customerNotAdded(name, parcelId));
+                return;
+            }
     
-        try (FileWriter fw = new FileWriter("Custs.csv", true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
+            int sequence = customerQueue.size() + 1;
+            Customer newCustomer = new Customer(name, parcelId, sequence);
     
-            out.println(name + "," + parcelId);
-            displayArea.append("Customer added successfully: " + name + " with parcel ID: " + parcelId + "\n");
-            log.addEntry("Added new customer: " + name + " with parcel ID: " + parcelId);
-        } catch (IOException e) {
-            displayArea.append("Error updating customer file: " + e.getMessage() + "\n");
-            log.addEntry("Error adding customer to file: " + e.getMessage());
+            try {
+                store.appendCustomer(newCustomer);
+                customerQueue.addCustomer(newCustomer);
+                displayArea.append("Customer added successfully: " + name + " with parcel ID: " + parcelId + "\n");
+                log.addEvent(LogEvent.customerAdded(name, parcelId));
+            } catch (IOException e) {
+                displayArea.append("Error updating customer file: " + e.getMessage() + "\n");
+                log.addEntry("Error adding customer to file: " + e.getMessage());
+            }
+        } finally {
+            mutation.unlock();
+            addCustomerTimer.recordNanos(System.nanoTime() - start);
         }
     }
     
 
     public void addNewParcel(String id, double weight, String dimensions, JTextArea displayArea) {
-        if (id == null || id.trim().isEmpty() || dimensions == null || dimensions.trim().isEmpty()) {
-            displayArea.append("Error: Parcel ID and dimensions cannot be empty.\n");
-            return;
-        }
+        long start = System.nanoTime();
+        Lock mutation = store.mutationLock();
+        mutation.lock();
+        try {
+            if (id == null || id.trim().isEmpty() || dimensions == null || dimensions.trim().isEmpty()) {
+                displayArea.append("Error: Parcel ID and dimensions cannot be empty.\n");
+                return;
+            }
     
-        Parcel newParcel = new Parcel(id, weight, dimensions);
-        parcelMap.addParcel(newParcel);
+            if (!parcelMap.canHold(id, dimensions)) {
+                displayArea.append("Error: Parcel ID or dimensions too long for the parcel store.\n");
+                return;
+            }
+
+            if (parcelMap.getParcel(id) != null) {
+                displayArea.append("Error: A parcel with ID " + id + " is already in the depot.\n");
+                return;
+            }
     
-        try (FileWriter fw = new FileWriter("Parcels.csv", true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
+            Parcel newParcel = new Parcel(id, weight, dimensions);
     
-            String[] dims = dimensions.split(" ");
-            out.println(id + "," + weight + "," + String.join(",", dims));
-            displayArea.append("Parcel added successfully: " + id + " with weight: " + weight + " and dimensions: " + dimensions + "\n");
-            log.addEntry("Added new parcel: " + id + " with weight: " + weight + " and dimensions: " + dimensions);
-        } catch (IOException e) {
-            displayArea.append("Error updating parcel file: " + e.getMessage() + "\n");
-            log.addEntry("Error adding parcel to file: " + e.getMessage());
+            try {
+                store.appendParcel(newParcel);
+                parcelMap.addParcel(newParcel);
+                displayArea.append("Parcel added successfully: " + id + " with weight: " + weight + " and dimensions: " + dimensions + "\n");
+                log.addEvent(LogEvent.parcelAdded(id, weight, dimensions));
+            } catch (IOException e) {
+                displayArea.append("Error updating parcel file: " + e.getMessage() + "\n");
+                log.addEntry("Error adding parcel to file: " + e.getMessage());
+            }
+        } finally {
+            mutation.unlock();
+            addParcelTimer.recordNanos(System.nanoTime() - start);
         }
     }
     
 
     public void removeCustomer(String name, String parcelId, JTextArea displayArea) {
-        if (name == null || name.trim().isEmpty() || parcelId == null || parcelId.trim().isEmpty()) {
-            displayArea.append("Error: Customer name and parcel ID cannot be empty.\n");
-            return;
-        }
-    
-        Parcel parcel = parcelMap.getParcel(parcelId);
-        if (parcel != null && !parcel.getStatus().equals("Released")) {
-            displayArea.append("Cannot remove customer: associated parcel is still in depot\n");
-            log.addEntry("Failed to remove customer " + name + ": Parcel " + parcelId + " is still in depot");
-            return;
-        }
-    
+        long start = System.nanoTime();
+        Lock mutation = store.mutationLock();
+        mutation.lock();
         try {
-            File inputFile = new File("Custs.csv");
-            File tempFile = new File("Custs_temp.csv");
-    
-            BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-            BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile));
+            if (name == null || name.trim().isEmpty() || parcelId == null || parcelId.trim().isEmpty()) {
+                displayArea.append("Error: Customer name and parcel ID cannot be empty.\n");
+                return;
+            }
     
-            String line;
-            boolean removed = false;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data.length >= 2 && data[0].trim().equals(name) && data[1].trim().equals(parcelId)) {
-                    removed = true;
-                    continue;
-                }
-                writer.write(line + System.lineSeparator());
+            Parcel parcel = parcelMap.getParcel(parcelId);
+            if (parcel != null && parcel.getStatus().isInDepot()) {
+                displayArea.append("Cannot remove customer: associated parcel is still in depot\n");
+                log.addEvent(LogEvent.customerNotRemoved(name, parcelId));
+                return;
             }
-            writer.close();
-            reader.close();
     
-            if (removed) {
-                if (inputFile.delete() && tempFile.renameTo(inputFile)) {
-                    displayArea.append("Customer removed successfully: " + name + " with parcel ID: " + parcelId + "\n");
-                    log.addEntry("Removed customer: " + name + " with parcel ID: " + parcelId);
-                } else {
-                    displayArea.append("Error finalizing customer removal.\n");
-                }
-            } else {
-                tempFile.delete();
+            Customer queued = customerQueue.findCustomer(name, parcelId);
+            if (queued == null) {
                 displayArea.append("Customer not found: " + name + " with parcel ID: " + parcelId + "\n");
-                log.addEntry("Failed to remove customer: " + name + " - not found in records");
+                log.addEvent(LogEvent.customerNotFound(name));
+                return;
             }
-        } catch (IOException e) {
-            displayArea.append("Error updating customer file: " + e.getMessage() + "\n");
-            log.addEntry("Error removing customer from file: " + e.getMessage());
+    
+            try {
+                store.recordCustomerRemoval(name, parcelId);
+                customerQueue.removeCustomer(queued);
+                displayArea.append("Customer removed successfully: " + name + " with parcel ID: " + parcelId + "\n");
+                log.addEvent(LogEvent.customerRemoved(name, parcelId));
+            } catch (IOException e) {
+                displayArea.append("Error updating customer file: " + e.getMessage() + "\n");
+                log.addEntry("Error removing customer from file: " + e.getMessage());
+            }
+        } finally {
+            mutation.unlock();
+            removeCustomerTimer.recordNanos(System.nanoTime() - start);
         }
     }
     
 
     public void removeParcel(String id, JTextArea displayArea) {
-        if (id == null || id.trim().isEmpty()) {
-            displayArea.append("Error: Parcel ID cannot be empty.\n");
-            return;
-        }
-    
-        Parcel parcel = parcelMap.getParcel(id);
-        if (parcel == null) {
-            displayArea.append("Parcel not found: " + id + "\n");
-            log.addEntry("Failed to remove parcel " + id + ": not found");
-            return;
-        }
-    
-        if (!parcel.getStatus().equals("Released")) {
-            displayArea.append("Cannot remove parcel: still in depot\n");
-            log.addEntry("Failed to remove parcel " + id + ": still in depot");
-            return;
-        }
-    
+        long start = System.nanoTime();
+        Lock mutation = store.mutationLock();
+        mutation.lock();
         try {
-            File inputFile = new File("Parcels.csv");
-            File tempFile = new File("Parcels_temp.csv");
+            if (id == null || id.trim().isEmpty()) {
+                displayArea.append("Error: Parcel ID cannot be empty.\n");
+                return;
+            }
     
-            BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-            BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile));
+            Parcel parcel = parcelMap.getParcel(id);
+            if (parcel == null) {
+                displayArea.append("Parcel not found: " + id + "\n");
+                log.addEvent(LogEvent.parcelNotFound(id));
+                return;
+            }
     
-            String line;
-            boolean removed = false;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data.length >= 1 && data[0].trim().equals(id)) {
-                    removed = true;
-                    continue;
-                }
-                writer.write(line + System.lineSeparator());
+            // Only a released parcel can be archived, and only by one caller
+            if (!parcelMap.transitionStatus(parcel, ParcelStatus.ARCHIVED)) {
+                displayArea.append("Cannot remove parcel: still in depot\n");
+                log.addEvent(LogEvent.parcelNotRemoved(id, parcel.getStatus().getLabel()));
+                return;
             }
-            writer.close();
-            reader.close();
     
-            if (removed) {
-                if (inputFile.delete() && tempFile.renameTo(inputFile)) {
-                    displayArea.append("Parcel removed successfully: " + id + "\n");
-                    log.addEntry("Removed parcel: " + id);
-                } else {
-                    displayArea.append("Error finalizing parcel removal.\n");
-                }
-            } else {
-                tempFile.delete();
-                displayArea.append("Parcel not found in file: " + id + "\n");
-                log.addEntry("Failed to remove parcel " + id + " from file: not found");
+            try {
+                store.recordParcelRemoval(id);
+                parcelMap.removeParcel(id);
+                displayArea.append("Parcel removed successfully: " + id + "\n");
+                log.addEvent(LogEvent.parcelRemoved(id));
+            } catch (IOException e) {
+                displayArea.append("Error updating parcel file: " + e.getMessage() + "\n");
+                log.addEntry("Error removing parcel from file: " + e.getMessage());
             }
-        } catch (IOException e) {
-            displayArea.append("Error updating parcel file: " + e.getMessage() + "\n");
-            log.addEntry("Error removing parcel from file: " + e.getMessage());
+        } finally {
+            mutation.unlock();
+            removeParcelTimer.recordNanos(System.nanoTime() - start);
         }
     }
-    public void displayProcessedParcels(JTextArea processedArea) {
-        try (BufferedReader br = new BufferedReader(new FileReader("released.csv"))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                processedArea.append(line + "\n");
+
+    // Ready is held in memory only; a restart puts the parcel back to In Depot
+    public void markParcelReady(String id, JTextArea displayArea) {
+        long start = System.nanoTime();
+        Lock mutation = store.mutationLock();
+        mutation.lock();
+        try {
+            Parcel parcel = parcelMap.getParcel(id);
+            if (parcel == null) {
+                displayArea.append("Parcel not found: " + id + "\n");
+                return;
             }
-        } catch (IOException e) {
-            processedArea.append("Error loading processed parcels: " + e.getMessage() + "\n");
+            if (!parcelMap.transitionStatus(parcel, ParcelStatus.READY)) {
+                displayArea.append("Cannot mark parcel ready: " + parcel.getStatus().getLabel() + "\n");
+                return;
+            }
+            displayArea.append("Parcel ready for collection: " + id + "\n");
+            log.addEvent(LogEvent.parcelReady(id));
+        } finally {
+            mutation.unlock();
+            markReadyTimer.recordNanos(System.nanoTime() - start);
         }
     }
+    public void displayProcessedParcels(JTextArea processedArea) {
+        displayProcessedParcels(LocalDate.MIN, LocalDate.MAX, processedArea);
+    }
 
-public boolean isParcelInCustomerFile(String parcelId) {
-    try (BufferedReader reader = new BufferedReader(new FileReader("Custs.csv"))) {
-        String line;
-        while ((line = reader.readLine()) != null) {
-            String[] parts = line.split(",");
-            if (parts.length > 1 && parts[1].trim().equals(parcelId)) {
+    // Reads only the daily segments in range
+    public void displayProcessedParcels(LocalDate firstDay, LocalDate lastDay, JTextArea processedArea) {
+        try {
+            releasedStore.scan(firstDay, lastDay, (day, record) -> {
+                if (Thread.currentThread().isInterrupted()) {
+                    processedArea.append("Listing cancelled.\n");
+                    return false;
+                }
+                processedArea.append(day + " " + record + "\n");
                 return true;
-            }
+            });
+        } catch (IOException e) {
+            processedArea.append("Error loading processed parcels: " + e.getMessage() + "\n");
         }
-    } catch (IOException e) {
-        System.err.println("Error reading Custs.csv: " + e.getMessage());
     }
-    return false;
-}
 
-public boolean isParcelInParcelFile(String parcelId) {
-    try (BufferedReader reader = new BufferedReader(new FileReader("Parcels.csv"))) {
-        String line;
-        while ((line = reader.readLine()) != null) {
-            String[] parts = line.split(",");
-            if (parts.length > 0 && parts[0].trim().equals(parcelId)) {
-                return true;
+    // Answered from the released parcel index, however long the history
+    public void findReleasedParcel(String parcelId, JTextArea displayArea) {
+        try {
+            ReleasedStore.Release release = releasedStore.find(parcelId);
+            if (release == null) {
+                displayArea.append("Parcel has not been released: " + parcelId + "\n");
+            } else {
+                displayArea.append("Parcel " + parcelId + " released on " + release.getDay() + ": " +
+                                   release.getRecord() + "\n");
             }
+        } catch (IOException e) {
+            displayArea.append("Error looking up released parcel: " + e.getMessage() + "\n");
         }
-    } catch (IOException e) {
-        System.err.println("Error reading Parcels.csv: " + e.getMessage());
     }
-    return false;
+
+public boolean isParcelInDepot(String parcelId) {
+    return isParcelInDepot(parcelMap.getParcel(parcelId));
+}
+
+public boolean hasCustomerForParcel(String parcelId) {
+    return customerQueue.findByParcelId(parcelId) != null;
+}
+
+private boolean isParcelInDepot(Parcel parcel) {
+    // Released parcels stay in memory but have already left Parcels.csv
+    return parcel != null && parcel.getStatus().isInDepot();
 }
 
 
-    public static void main(String[] args) {
+    // With --headless, reads commands from stdin or a file instead; see DepotCommandRunner.
+    // With --http, serves the scanners' JSON API; see DepotHttpServer
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--headless")) {
+            DepotCommandRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--http")) {
+            DepotHttpServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         Manager manager = new Manager();
         manager.loadData();
     
@@ -524,8 +982,12 @@ public boolean isParcelInParcelFile(String parcelId) {
         JTextArea displayArea = new JTextArea();
         displayArea.setEditable(false);
     
-        // Run the application
-        manager.runApplication(displayArea);
+        // Run the application, closing the depot however it ends
+        try {
+            manager.runApplication(displayArea);
+        } finally {
+            manager.close();
+        }
     }
     
 }
@@ -0,0 +1,203 @@
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+
+// Runs Manager commands off the event dispatch thread. Commands execute one at
+// a time on a dedicated thread; their text output is coalesced and appended to
+// the target area on the EDT as it is produced.
+//
+// Cancelling only stops a command that has not started yet, since an interrupt
+// would close the journal's FileChannel under a mutation. Read-only listings
+// submitted through submitListing are the exception: they are interrupted.
+public class ManagerCommandExecutor {
+    private static final long SHUTDOWN_WAIT_SECONDS = 30;
+
+    private final ExecutorService executor;
+    private final Set<Command> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private volatile IntConsumer progressListener = count -> { };
+
+    public ManagerCommandExecutor() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "manager-commands");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Called on the EDT with the number of queued or running commands
+    public void setProgressListener(IntConsumer listener) {
+        progressListener = listener;
+    }
+
+    public <T> CompletableFuture<T> submit(JTextArea output, Function<JTextArea, T> command) {
+        return submit(output, command, false);
+    }
+
+    public CompletableFuture<Void> run(JTextArea output, Consumer<JTextArea> command) {
+        return submit(output, area -> {
+            command.accept(area);
+            return null;
+        });
+    }
+
+    // For commands that only read, which cancelAll() may interrupt while they run
+    public <T> CompletableFuture<T> submitListing(JTextArea output, Function<JTextArea, T> command) {
+        return submit(output, command, true);
+    }
+
+    public CompletableFuture<Void> runListing(JTextArea output, Consumer<JTextArea> command) {
+        return submitListing(output, area -> {
+            command.accept(area);
+            return null;
+        });
+    }
+
+    // Cancels every command that has not started, and interrupts running listings
+    public void cancelAll() {
+        for (Command command : pending) {
+            command.cancel();
+        }
+    }
+
+    // Lets a running command finish, so no mutation is cut off between memory
+    // and its journal entry; queued ones are cancelled
+    public void shutdown() {
+        cancelAll();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("A depot command was still running at exit");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(JTextArea output, Function<JTextArea, T> command, boolean listing) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        // Output drains are queued on the EDT ahead of any completion callback
+        TextAreaSink sink = new TextAreaSink(new EdtOutput(output)::append);
+        Command pendingCommand = new Command(result, listing);
+        pendingCommand.task = executor.submit(() -> {
+            if (!pendingCommand.start()) {
+                return;
+            }
+            try {
+                result.complete(command.apply(sink));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        track(pendingCommand);
+        return result;
+    }
+
+    // Runs action on the EDT once the command succeeds; failures other than
+    // cancellation go to onError.
+    public static <T> void onEdt(CompletableFuture<T> future, Consumer<T> action, Consumer<Throwable> onError) {
+        future.whenComplete((value, error) -> SwingUtilities.invokeLater(() -> {
+            if (error == null) {
+                action.accept(value);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            if (!(cause instanceof CancellationException)) {
+                onError.accept(cause);
+            }
+        }));
+    }
+
+    private void track(Command command) {
+        pending.add(command);
+        publishProgress(pendingCount.incrementAndGet());
+        command.result.whenComplete((value, error) -> {
+            pending.remove(command);
+            publishProgress(pendingCount.decrementAndGet());
+        });
+    }
+
+    private void publishProgress(int count) {
+        SwingUtilities.invokeLater(() -> progressListener.accept(count));
+    }
+
+    // A submitted command and whether it has been claimed, by starting or by
+    // being cancelled; whichever comes first wins
+    private static final class Command {
+        final CompletableFuture<?> result;
+        final boolean listing;
+        final AtomicBoolean claimed = new AtomicBoolean();
+        volatile Future<?> task;
+
+        Command(CompletableFuture<?> result, boolean listing) {
+            this.result = result;
+            this.listing = listing;
+        }
+
+        boolean start() {
+            return claimed.compareAndSet(false, true) && !result.isDone();
+        }
+
+        void cancel() {
+            if (claimed.compareAndSet(false, true)) {
+                result.cancel(false);
+            } else if (listing) {
+                // Interrupts long-running displays so they stop early
+                result.cancel(true);
+                Future<?> running = task;
+                if (running != null) {
+                    running.cancel(true);
+                }
+            }
+        }
+    }
+
+    // Buffers appended text and hands it to the EDT in as few events as possible
+    private static final class EdtOutput {
+        private final JTextArea target;
+        private final StringBuilder buffer = new StringBuilder();
+        private boolean scheduled;
+
+        EdtOutput(JTextArea target) {
+            this.target = target;
+        }
+
+        synchronized void append(String text) {
+            if (target == null) {
+                return;
+            }
+            buffer.append(text);
+            if (!scheduled) {
+                scheduled = true;
+                SwingUtilities.invokeLater(this::drain);
+            }
+        }
+
+        private void drain() {
+            String text;
+            synchronized (this) {
+                text = buffer.toString();
+                buffer.setLength(0);
+                scheduled = false;
+            }
+            if (!text.isEmpty()) {
+                target.append(text);
+            }
+        }
+    }
+}
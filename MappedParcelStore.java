@@ -0,0 +1,548 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Parcels in two memory-mapped files in the depot directory, for depots too
+// large to keep on the heap. Heap use stays the same however many parcels
+// there are; the OS pages records in and out as they are used.
+//
+// parcels.table: a 4096-byte header, then one fixed 96-byte record per row:
+//   0 id length, 1 id (UTF-8, at most 43 bytes), 44 status ordinal,
+//   45 0 if the dimensions are packed by PackedDimensions into the long at 48,
+//      else their length + 1 with the text (at most 26 bytes) from 46,
+//   72 weight, 80 arrival day, 84 previous and 88 next row + 1 in the same
+//   status, 92 the id's hash
+// parcels.index: linear-probing slots of the id's hash in the high half and
+//   row + 1 in the low half, or 0 when empty; at most half full
+//
+// The header's counts are only written by close(), which marks the files
+// clean. Files that were not closed cleanly, as after a crash, are emptied
+// on open, and the parcels are loaded again as for the heap store.
+public class MappedParcelStore implements ParcelStore {
+    public static final String TABLE_FILE = "parcels.table";
+    public static final String INDEX_FILE = "parcels.index";
+    private static final int MAGIC = 0x44505442; // "DPTB"
+    private static final int VERSION = 1;
+    private static final int OPEN = 1;
+    private static final int CLEAN = 2;
+    private static final int HEADER_SIZE = 4096;
+    private static final int RECORD_SIZE = 96;
+    private static final int MAX_ID_BYTES = 43;
+    private static final int MAX_DIMENSION_BYTES = 26;
+    private static final int INITIAL_CAPACITY = 1024;
+    // Header fields
+    private static final int STATE = 8;
+    private static final int KEPT_GENERATION = 16;
+    private static final int SIZE = 24;
+    private static final int CAPACITY = 28;
+    private static final int INDEX_SLOTS = 32;
+    private static final int RECORD_BYTES = 36;
+    private static final int COUNTS = 64;
+    private static final int HEADS = 128;
+    // Record fields
+    private static final int ID = 0;
+    private static final int STATUS = 44;
+    private static final int DIMENSIONS_KIND = 45;
+    private static final int DIMENSIONS_TEXT = 46;
+    private static final int DIMENSIONS_PACKED = 48;
+    private static final int WEIGHT = 72;
+    private static final int ARRIVAL_DAY = 80;
+    private static final int PREVIOUS = 84;
+    private static final int NEXT = 88;
+    private static final int HASH = 92;
+
+    private final FileChannel tableChannel;
+    private final FileChannel indexChannel;
+    private final MappedByteBuffer header;
+    // Chunks of 2^23 records and 2^27 slots keep each mapping under 1 GiB
+    private final Region records;
+    private final Region index;
+    private int size;
+    private int capacity;
+    private int indexSlots;
+    private final int[] counts = new int[ParcelStatus.count()];
+    // First row + 1 of each status's list, or 0
+    private final int[] heads = new int[ParcelStatus.count()];
+    private long keptGeneration = -1;
+    private final PackedDimensions dimensionStrings = new PackedDimensions();
+    private byte[] scratch = new byte[MAX_ID_BYTES];
+
+    private MappedParcelStore(FileChannel tableChannel, FileChannel indexChannel) throws IOException {
+        this.tableChannel = tableChannel;
+        this.indexChannel = indexChannel;
+        header = tableChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        records = new Region(tableChannel, HEADER_SIZE, RECORD_SIZE, 23);
+        index = new Region(indexChannel, 0, 8, 27);
+    }
+
+    // Creates the files if needed. The rows of the last run are kept only if it
+    // closed cleanly; getKeptGeneration() says which snapshot they belong to.
+    public static MappedParcelStore open(Path directory) throws IOException {
+        FileChannel tableChannel = FileChannel.open(directory.resolve(TABLE_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel indexChannel;
+        try {
+            indexChannel = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            tableChannel.close();
+            throw e;
+        }
+        try {
+            boolean intact = tableChannel.size() >= HEADER_SIZE;
+            MappedParcelStore store = new MappedParcelStore(tableChannel, indexChannel);
+            store.load(intact);
+            return store;
+        } catch (IOException | RuntimeException e) {
+            tableChannel.close();
+            indexChannel.close();
+            throw e;
+        }
+    }
+
+    private void load(boolean intact) throws IOException {
+        if (intact && header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getInt(STATE) == CLEAN
+                && header.getInt(RECORD_BYTES) == RECORD_SIZE) {
+            size = header.getInt(SIZE);
+            capacity = header.getInt(CAPACITY);
+            indexSlots = header.getInt(INDEX_SLOTS);
+            intact = size >= 0 && size <= capacity && Integer.bitCount(indexSlots) == 1
+                    && size * 2L <= indexSlots
+                    && tableChannel.size() >= HEADER_SIZE + (long) capacity * RECORD_SIZE
+                    && indexChannel.size() == indexSlots * 8L;
+        } else {
+            intact = false;
+        }
+        if (intact) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = header.getInt(COUNTS + 4 * i);
+                heads[i] = header.getInt(HEADS + 4 * i);
+            }
+            keptGeneration = header.getLong(KEPT_GENERATION);
+            records.map(capacity);
+            index.map(indexSlots);
+        } else {
+            reset();
+        }
+        // Until close() says otherwise, whatever is in the files cannot be trusted
+        header.putInt(0, MAGIC).putInt(4, VERSION).putInt(STATE, OPEN).putInt(RECORD_BYTES, RECORD_SIZE);
+        header.force();
+    }
+
+    private void reset() throws IOException {
+        records.unmap();
+        index.unmap();
+        tableChannel.truncate(HEADER_SIZE);
+        indexChannel.truncate(0);
+        size = 0;
+        capacity = INITIAL_CAPACITY;
+        indexSlots = INITIAL_CAPACITY * 2;
+        Arrays.fill(counts, 0);
+        Arrays.fill(heads, 0);
+        keptGeneration = -1;
+        // Mapping past the end of a file extends it with zeros
+        records.map(capacity);
+        index.map(indexSlots);
+    }
+
+    @Override
+    public boolean isKeptOnDisk() {
+        return true;
+    }
+
+    @Override
+    public long getKeptGeneration() {
+        return keptGeneration;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int find(String id) {
+        long slot = slotOf(id);
+        return slot < 0 ? -1 : (int) index.getLong(slot) - 1;
+    }
+
+    @Override
+    public boolean canHold(String id, String dimensions) {
+        return utf8Length(id) <= MAX_ID_BYTES
+                && (PackedDimensions.pack(dimensions) >= 0 || utf8Length(dimensions) <= MAX_DIMENSION_BYTES);
+    }
+
+    @Override
+    public int add(String id, double weight, String dimensions, int arrivalDay, ParcelStatus status) {
+        if (!canHold(id, dimensions)) {
+            throw new IllegalArgumentException("Parcel " + id + " does not fit a " + RECORD_SIZE + "-byte record");
+        }
+        try {
+            if (size == capacity) {
+                capacity = Math.toIntExact(capacity * 2L);
+                records.map(capacity);
+            }
+            if ((size + 1) * 2L > indexSlots) {
+                rehash(Math.toIntExact(indexSlots * 2L));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int row = size++;
+        ByteBuffer chunk = records.chunk(row);
+        int at = records.offset(row);
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        chunk.put(at + ID, (byte) bytes.length);
+        chunk.put(at + ID + 1, bytes);
+        int hash = ParcelStore.hash(id);
+        chunk.putInt(at + HASH, hash);
+        store(row, weight, dimensions, arrivalDay, status);
+        place(row, hash);
+        return row;
+    }
+
+    @Override
+    public void update(int row, double weight, String dimensions, int arrivalDay, ParcelStatus status) {
+        if (!canHold(id(row), dimensions)) {
+            throw new IllegalArgumentException("Dimensions " + dimensions + " do not fit a " + RECORD_SIZE
+                    + "-byte record");
+        }
+        leaveStatus(row);
+        store(row, weight, dimensions, arrivalDay, status);
+    }
+
+    @Override
+    public void remove(int row) {
+        leaveStatus(row);
+        deleteSlot(slotOf(row));
+        int lastIndex = size - 1;
+        if (row != lastIndex) {
+            // Fill the gap with the last row so removal stays O(1)
+            long moved = slotOf(lastIndex);
+            index.putLong(moved, (index.getLong(moved) & ~0xFFFFFFFFL) | (row + 1));
+            ByteBuffer from = records.chunk(lastIndex);
+            int fromAt = records.offset(lastIndex);
+            ByteBuffer to = records.chunk(row);
+            int toAt = records.offset(row);
+            to.put(toAt, from, fromAt, RECORD_SIZE);
+            // Its neighbours in its status now point at the new row
+            int previous = to.getInt(toAt + PREVIOUS);
+            int next = to.getInt(toAt + NEXT);
+            if (previous == 0) {
+                heads[to.get(toAt + STATUS)] = row + 1;
+            } else {
+                records.chunk(previous - 1).putInt(records.offset(previous - 1) + NEXT, row + 1);
+            }
+            if (next != 0) {
+                records.chunk(next - 1).putInt(records.offset(next - 1) + PREVIOUS, row + 1);
+            }
+        }
+        size--;
+    }
+
+    @Override
+    public String id(int row) {
+        ByteBuffer chunk = records.chunk(row);
+        int at = records.offset(row);
+        int length = chunk.get(at + ID);
+        chunk.get(at + ID + 1, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public double weight(int row) {
+        return records.chunk(row).getDouble(records.offset(row) + WEIGHT);
+    }
+
+    @Override
+    public String dimensions(int row) {
+        ByteBuffer chunk = records.chunk(row);
+        int at = records.offset(row);
+        int kind = chunk.get(at + DIMENSIONS_KIND);
+        if (kind == 0) {
+            return dimensionStrings.unpack(chunk.getLong(at + DIMENSIONS_PACKED));
+        }
+        byte[] text = new byte[kind - 1];
+        chunk.get(at + DIMENSIONS_TEXT, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int arrivalDay(int row) {
+        return records.chunk(row).getInt(records.offset(row) + ARRIVAL_DAY);
+    }
+
+    @Override
+    public ParcelStatus status(int row) {
+        return ParcelStatus.fromOrdinal(records.chunk(row).get(records.offset(row) + STATUS));
+    }
+
+    @Override
+    public void setStatus(int row, ParcelStatus status) {
+        leaveStatus(row);
+        joinStatus(row, status);
+    }
+
+    @Override
+    public int count(ParcelStatus status) {
+        return counts[status.ordinal()];
+    }
+
+    @Override
+    public int[] rows(ParcelStatus status) {
+        int[] rows = new int[counts[status.ordinal()]];
+        int next = heads[status.ordinal()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = next - 1;
+            next = records.chunk(next - 1).getInt(records.offset(next - 1) + NEXT);
+        }
+        return rows;
+    }
+
+    @Override
+    public void clear() {
+        try {
+            reset();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // A negative generation leaves the files marked as not closed cleanly, so
+    // the next open starts empty
+    @Override
+    public void close(long generation) throws IOException {
+        try {
+            records.force();
+            index.force();
+            if (generation >= 0) {
+                header.putLong(KEPT_GENERATION, generation).putInt(SIZE, size).putInt(CAPACITY, capacity)
+                        .putInt(INDEX_SLOTS, indexSlots);
+                for (int i = 0; i < counts.length; i++) {
+                    header.putInt(COUNTS + 4 * i, counts[i]);
+                    header.putInt(HEADS + 4 * i, heads[i]);
+                }
+                header.putInt(STATE, CLEAN);
+                header.force();
+            }
+        } finally {
+            tableChannel.close();
+            indexChannel.close();
+        }
+    }
+
+    // The caller takes the row out of its old status first, if it had one
+    private void store(int row, double weight, String dimensions, int arrivalDay, ParcelStatus status) {
+        ByteBuffer chunk = records.chunk(row);
+        int at = records.offset(row);
+        chunk.putDouble(at + WEIGHT, weight);
+        long packed = PackedDimensions.pack(dimensions);
+        if (packed >= 0) {
+            chunk.put(at + DIMENSIONS_KIND, (byte) 0);
+            chunk.putLong(at + DIMENSIONS_PACKED, packed);
+        } else {
+            byte[] text = dimensions.getBytes(StandardCharsets.UTF_8);
+            chunk.put(at + DIMENSIONS_KIND, (byte) (text.length + 1));
+            chunk.put(at + DIMENSIONS_TEXT, text);
+        }
+        chunk.putInt(at + ARRIVAL_DAY, arrivalDay);
+        joinStatus(row, status);
+    }
+
+    // Rows join at the head of their status's list
+    private void joinStatus(int row, ParcelStatus status) {
+        int ordinal = status.ordinal();
+        ByteBuffer chunk = records.chunk(row);
+        int at = records.offset(row);
+        int head = heads[ordinal];
+        chunk.put(at + STATUS, (byte) ordinal);
+        chunk.putInt(at + PREVIOUS, 0);
+        chunk.putInt(at + NEXT, head);
+        if (head != 0) {
+            records.chunk(head - 1).putInt(records.offset(head - 1) + PREVIOUS, row + 1);
+        }
+        heads[ordinal] = row + 1;
+        counts[ordinal]++;
+    }
+
+    private void leaveStatus(int row) {
+        ByteBuffer chunk = records.chunk(row);
+        int at = records.offset(row);
+        int ordinal = chunk.get(at + STATUS);
+        int previous = chunk.getInt(at + PREVIOUS);
+        int next = chunk.getInt(at + NEXT);
+        if (previous == 0) {
+            heads[ordinal] = next;
+        } else {
+            records.chunk(previous - 1).putInt(records.offset(previous - 1) + NEXT, next);
+        }
+        if (next != 0) {
+            records.chunk(next - 1).putInt(records.offset(next - 1) + PREVIOUS, previous);
+        }
+        counts[ordinal]--;
+    }
+
+    private long slotOf(String id) {
+        int hash = ParcelStore.hash(id);
+        long mask = indexSlots - 1;
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = index.getLong(slot);
+            if (entry == 0) {
+                return -1;
+            }
+            if ((int) (entry >>> 32) == hash && idEquals((int) entry - 1, id)) {
+                return slot;
+            }
+        }
+    }
+
+    // The slot of a row known to be in the index, found without decoding ids
+    private long slotOf(int row) {
+        int hash = records.chunk(row).getInt(records.offset(row) + HASH);
+        long mask = indexSlots - 1;
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+            if ((int) index.getLong(slot) == row + 1) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean idEquals(int row, String id) {
+        ByteBuffer chunk = records.chunk(row);
+        int at = records.offset(row);
+        int length = chunk.get(at + ID);
+        if (length == id.length()) {
+            // Most ids are ASCII, one byte per char
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) {
+                char c = id.charAt(i);
+                if (c >= 0x80) {
+                    ascii = false;
+                } else if (chunk.get(at + ID + 1 + i) != c) {
+                    return false;
+                }
+            }
+            if (ascii) {
+                return true;
+            }
+        }
+        return id.equals(id(row));
+    }
+
+    // Rebuilds the index from the hashes in the records
+    private void rehash(int slots) throws IOException {
+        index.unmap();
+        indexChannel.truncate(0);
+        indexSlots = slots;
+        index.map(indexSlots);
+        for (int row = 0; row < size; row++) {
+            place(row, records.chunk(row).getInt(records.offset(row) + HASH));
+        }
+    }
+
+    private void place(int row, int hash) {
+        long mask = indexSlots - 1;
+        long slot = hash & mask;
+        while (index.getLong(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index.putLong(slot, ((long) hash << 32) | (row + 1));
+    }
+
+    // Backward-shift deletion, so lookups never need tombstones
+    private void deleteSlot(long slot) {
+        long mask = indexSlots - 1;
+        long hole = slot;
+        for (long next = (hole + 1) & mask; index.getLong(next) != 0; next = (next + 1) & mask) {
+            long home = (int) (index.getLong(next) >>> 32) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index.putLong(hole, index.getLong(next));
+                hole = next;
+            }
+        }
+        index.putLong(hole, 0);
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // Fixed-size elements of a file mapped in chunks of 2^shift elements, since
+    // one mapping cannot pass 2 GB
+    private static final class Region {
+        private final FileChannel channel;
+        private final long base;
+        private final int elementSize;
+        private final int shift;
+        private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+        Region(FileChannel channel, long base, int elementSize, int shift) {
+            this.channel = channel;
+            this.base = base;
+            this.elementSize = elementSize;
+            this.shift = shift;
+        }
+
+        // Maps the first elements, extending the file if it is shorter
+        void map(long elements) throws IOException {
+            long perChunk = 1L << shift;
+            int count = (int) ((elements + perChunk - 1) >>> shift);
+            MappedByteBuffer[] mapped = Arrays.copyOf(chunks, Math.max(count, chunks.length));
+            for (int i = 0; i < count; i++) {
+                long bytes = Math.min(perChunk, elements - i * perChunk) * elementSize;
+                if (mapped[i] == null || mapped[i].capacity() < bytes) {
+                    mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, base + i * perChunk * elementSize,
+                            bytes);
+                }
+            }
+            chunks = mapped;
+        }
+
+        // Before the file is truncated; the mappings are left to the collector
+        void unmap() {
+            chunks = new MappedByteBuffer[0];
+        }
+
+        ByteBuffer chunk(long element) {
+            return chunks[(int) (element >>> shift)];
+        }
+
+        int offset(long element) {
+            return (int) (element & ((1L << shift) - 1)) * elementSize;
+        }
+
+        long getLong(long element) {
+            return chunk(element).getLong(offset(element));
+        }
+
+        void putLong(long element, long value) {
+            chunk(element).putLong(offset(element), value);
+        }
+
+        void force() {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+    }
+}
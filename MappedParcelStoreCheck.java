@@ -0,0 +1,241 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// Runs the memory-mapped parcel store against a map of what it should hold:
+// rounds that fill it past its first capacity and delete most of it again,
+// with half the ids crowded into one run of index slots that wraps past the
+// end, so the backward-shift deletion moves entries on almost every remove.
+// Then reopens it after a clean close, which must keep every row, and after a
+// crash or a damaged close, which must start empty. Runs in scratch directories.
+//
+//   java MappedParcelStoreCheck [rounds] [seed]
+public class MappedParcelStoreCheck {
+    private static final ParcelStatus[] STATUSES = ParcelStatus.values();
+
+    private static final class Row {
+        final double weight;
+        final String dimensions;
+        final int arrivalDay;
+        final ParcelStatus status;
+
+        Row(double weight, String dimensions, int arrivalDay, ParcelStatus status) {
+            this.weight = weight;
+            this.dimensions = dimensions;
+            this.arrivalDay = arrivalDay;
+            this.status = status;
+        }
+    }
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        Random random = new Random(args.length > 1 ? Long.parseLong(args[1]) : 1);
+        Path directory = Files.createTempDirectory("depot-mapped");
+        Path crashed = Files.createTempDirectory("depot-mapped-crash");
+        try {
+            List<String> ids = ids();
+            Map<String, Row> expected = new HashMap<>();
+            MappedParcelStore store = MappedParcelStore.open(directory);
+            check(store.size() == 0 && store.getKeptGeneration() == -1, "new store is empty");
+
+            for (int round = 0; round < rounds; round++) {
+                churn(store, expected, ids, random);
+            }
+            System.out.println("delete-heavy rounds: " + rounds + ", " + expected.size() + " rows left");
+
+            // A clean close keeps every row, and they can still be changed after
+            store.close(7);
+            store = MappedParcelStore.open(directory);
+            check(store.getKeptGeneration() == 7, "clean close keeps generation 7, got " + store.getKeptGeneration());
+            verify(store, expected, ids, "after a clean close");
+            churn(store, expected, ids, random);
+            System.out.println("reopened after a clean close: " + expected.size() + " rows");
+
+            // What a crash leaves: the files as they were while still open
+            copy(directory, crashed);
+            MappedParcelStore recovered = MappedParcelStore.open(crashed);
+            check(recovered.size() == 0 && recovered.getKeptGeneration() == -1, "crash image opens empty");
+            expected.clear();
+            churn(recovered, expected, ids, random);
+            recovered.close(-1);
+            System.out.println("reopened after a crash: empty, then " + expected.size() + " rows");
+
+            // A negative generation leaves the files marked as not closed cleanly
+            recovered = MappedParcelStore.open(crashed);
+            check(recovered.size() == 0 && recovered.getKeptGeneration() == -1, "close(-1) opens empty");
+            recovered.close(-1);
+
+            // A clean header is not trusted over an index file that no longer fits it
+            store.close(8);
+            try (FileChannel index = FileChannel.open(directory.resolve(MappedParcelStore.INDEX_FILE),
+                    StandardOpenOption.WRITE)) {
+                index.truncate(index.size() / 2);
+            }
+            store = MappedParcelStore.open(directory);
+            check(store.size() == 0 && store.getKeptGeneration() == -1, "short index file opens empty");
+            store.close(-1);
+            System.out.println("reopened with a short index file: empty");
+        } finally {
+            delete(directory);
+            delete(crashed);
+        }
+        System.out.println(failures == 0 ? "OK" : failures + " FAILED");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Half the ids share the last 16 of the first 2048 index slots, which
+    // keeps them in one run however far the index grows
+    private static List<String> ids() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; ids.size() < 2500; i++) {
+            String id = "C" + i;
+            if ((ParcelStore.hash(id) & 2047) >= 2032) {
+                ids.add(id);
+            }
+        }
+        for (int i = 0; i < 2500; i++) {
+            ids.add("P" + i);
+        }
+        ids.add("Ünïcode-1");
+        ids.add("Ünïcode-2");
+        return ids;
+    }
+
+    // Fills the store to thousands of rows with random changes along the way,
+    // then removes all but a few, checking it against the map as it goes
+    private static void churn(MappedParcelStore store, Map<String, Row> expected, List<String> ids,
+                              Random random) {
+        // Adding outpaces removing until about 8 in 9 of the ids are held, well above this
+        int high = 1500 + random.nextInt(2000);
+        int low = random.nextInt(20);
+        int operations = 0;
+        while (expected.size() < high) {
+            String id = ids.get(random.nextInt(ids.size()));
+            if (!expected.containsKey(id)) {
+                Row row = row(random);
+                int added = store.add(id, row.weight, row.dimensions, row.arrivalDay, row.status);
+                check(added == expected.size(), "new row of " + id + " is " + added);
+                expected.put(id, row);
+            } else if (random.nextInt(8) == 0) {
+                remove(store, expected, id);
+            } else if (random.nextBoolean()) {
+                Row row = row(random);
+                store.update(store.find(id), row.weight, row.dimensions, row.arrivalDay, row.status);
+                expected.put(id, row);
+            } else {
+                Row row = expected.get(id);
+                ParcelStatus status = STATUSES[random.nextInt(STATUSES.length)];
+                store.setStatus(store.find(id), status);
+                expected.put(id, new Row(row.weight, row.dimensions, row.arrivalDay, status));
+            }
+            if (++operations % 500 == 0) {
+                verify(store, expected, ids, "while filling");
+            }
+        }
+        verify(store, expected, ids, "when full");
+        List<String> held = new ArrayList<>(expected.keySet());
+        while (expected.size() > low) {
+            String id = held.remove(random.nextInt(held.size()));
+            remove(store, expected, id);
+            if (++operations % 200 == 0) {
+                verify(store, expected, ids, "while removing");
+            }
+        }
+        verify(store, expected, ids, "after removing");
+    }
+
+    private static void remove(MappedParcelStore store, Map<String, Row> expected, String id) {
+        int row = store.find(id);
+        check(row >= 0, "held " + id + " is found before its removal");
+        if (row >= 0) {
+            store.remove(row);
+            expected.remove(id);
+            check(store.find(id) == -1, "removed " + id + " is not found");
+        }
+    }
+
+    private static Row row(Random random) {
+        String dimensions = random.nextBoolean()
+                ? (1 + random.nextInt(99)) + "x" + (1 + random.nextInt(99)) + "x" + (1 + random.nextInt(99))
+                : "about " + random.nextInt(1000) + " cm across";
+        return new Row(random.nextInt(10000) / 100.0, dimensions, random.nextInt(400),
+                STATUSES[random.nextInt(STATUSES.length)]);
+    }
+
+    // Every id is found at a row holding its fields, and nothing else is found;
+    // the status counts and lists match
+    private static void verify(MappedParcelStore store, Map<String, Row> expected, List<String> ids, String when) {
+        int wrong = 0;
+        if (store.size() != expected.size()) {
+            wrong++;
+        }
+        for (String id : ids) {
+            Row row = expected.get(id);
+            int found = store.find(id);
+            if (row == null) {
+                wrong += found == -1 ? 0 : 1;
+            } else if (found < 0 || found >= store.size() || !id.equals(store.id(found))
+                    || store.weight(found) != row.weight || !row.dimensions.equals(store.dimensions(found))
+                    || store.arrivalDay(found) != row.arrivalDay || store.status(found) != row.status) {
+                wrong++;
+            }
+        }
+        for (ParcelStatus status : STATUSES) {
+            Set<String> inStatus = new HashSet<>();
+            for (int row : store.rows(status)) {
+                inStatus.add(store.id(row));
+            }
+            Set<String> expectedInStatus = new HashSet<>();
+            expected.forEach((id, row) -> {
+                if (row.status == status) {
+                    expectedInStatus.add(id);
+                }
+            });
+            if (store.count(status) != expectedInStatus.size() || !inStatus.equals(expectedInStatus)) {
+                wrong++;
+            }
+        }
+        check(wrong == 0, wrong + " mismatches " + when + " with " + expected.size() + " rows");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) {
+            failures++;
+            System.out.println("  FAILED: " + what);
+        }
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, to.resolve(file.getFileName().toString()));
+            }
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
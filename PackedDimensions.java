@@ -0,0 +1,79 @@
+// Dimensions of the canonical form "LxWxH" packed into one long, 21 bits each,
+// the way parcel stores keep them. Unpacking shares one string between every
+// row with the same dimensions, so the cache grows with the number of distinct
+// dimensions rather than with the number of parcels.
+final class PackedDimensions {
+    private static final int BITS = 21;
+
+    // Keys are the packed dimensions + 1, so 0 marks an empty slot
+    private long[] keys = new long[64];
+    private String[] strings = new String[64];
+    private int count;
+
+    // Packs canonical "LxWxH" (plain ints below 2^21, no leading zeros) or returns -1
+    static long pack(String dimensions) {
+        long packed = 0;
+        int field = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i <= dimensions.length(); i++) {
+            char c = i < dimensions.length() ? dimensions.charAt(i) : 'x';
+            if (c >= '0' && c <= '9') {
+                if (digits == 1 && value == 0) {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+                if (++digits > 7 || value >= 1 << BITS) {
+                    return -1;
+                }
+            } else if (c == 'x' && digits > 0 && field < 3) {
+                packed = (packed << BITS) | value;
+                field++;
+                value = 0;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        return field == 3 ? packed : -1;
+    }
+
+    String unpack(long packed) {
+        long key = packed + 1;
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return strings[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        int fieldMask = (1 << BITS) - 1;
+        String dimensions = (packed >>> (2 * BITS)) + "x" + ((packed >>> BITS) & fieldMask) + "x"
+                + (packed & fieldMask);
+        keys[slot] = key;
+        strings[slot] = dimensions;
+        if (++count * 2 > keys.length) {
+            long[] oldKeys = keys;
+            String[] oldStrings = strings;
+            keys = new long[oldKeys.length * 2];
+            strings = new String[oldKeys.length * 2];
+            int newMask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int to = hash(oldKeys[i]) & newMask;
+                    while (keys[to] != 0) {
+                        to = (to + 1) & newMask;
+                    }
+                    keys[to] = oldKeys[i];
+                    strings[to] = oldStrings[i];
+                }
+            }
+        }
+        return dimensions;
+    }
+
+    private static int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+}
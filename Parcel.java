@@ -3,33 +3,43 @@ public class Parcel {
     private double weight;
     private String dimensions;
     private int daysInDepot;
-    private String status;
+    private volatile ParcelStatus status;
 
     public Parcel(String id, double weight, String dimensions) {
+        this(id, weight, dimensions, 0, ParcelStatus.IN_DEPOT);
+    }
+
+    public Parcel(String id, double weight, String dimensions, int daysInDepot, ParcelStatus status) {
         this.id = id;
         this.weight = weight;
         this.dimensions = dimensions;
-        this.daysInDepot = 0;
-        this.status = "In Depot";
+        this.daysInDepot = daysInDepot;
+        this.status = status;
     }
 
     public String getId() { return id; }
     public double getWeight() { return weight; }
     public String getDimensions() { return dimensions; }
     public int getDaysInDepot() { return daysInDepot; }
-    public String getStatus() { return status; }
+    public ParcelStatus getStatus() { return status; }
     
-    public void setStatus(String status) {
+    public synchronized void setStatus(ParcelStatus status) {
         this.status = status;
     }
 
-    public void incrementDaysInDepot() {
-        daysInDepot++;
+    // Returns false if the lifecycle does not allow the move from the current
+    // status, so only one caller can move a parcel out of a given status
+    public synchronized boolean transitionTo(ParcelStatus status) {
+        if (!this.status.canTransitionTo(status)) {
+            return false;
+        }
+        this.status = status;
+        return true;
     }
 
     @Override
     public String toString() {
         return String.format("Parcel[ID=%s, Weight=%.2f, Dimensions=%s, Days=%d, Status=%s]",
-                id, weight, dimensions, daysInDepot, status);
+                id, weight, dimensions, daysInDepot, status.getLabel());
     }
 }
@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Measures retained heap per parcel for the columnar ParcelMap and for one
+// over a MappedParcelStore (in a temporary directory) against the previous
+// layout: one Parcel object per parcel, with its own dimensions string, in a
+// list indexed by a HashMap<String, Integer>. Prints one JSON line per layout;
+// the mapped layout keeps next to nothing on the heap, so its table and index
+// files are reported beside it as mappedBytes.
+//
+//   java -Xmx4g ParcelFootprint [parcels]
+public class ParcelFootprint {
+    // Holds the structure being measured so it stays reachable
+    private static Object retained;
+
+    public static void main(String[] args) throws IOException {
+        int parcels = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        report("objectPerParcel", parcels, measure(() -> buildObjectLayout(parcels)), 0);
+        report("columnarParcelMap", parcels, measure(() -> buildColumnarLayout(parcels)), 0);
+        Path directory = Files.createTempDirectory("parcel-footprint");
+        try {
+            long heap = measure(() -> buildMappedLayout(parcels, directory));
+            long mapped = Files.size(directory.resolve(MappedParcelStore.TABLE_FILE))
+                    + Files.size(directory.resolve(MappedParcelStore.INDEX_FILE));
+            report("mappedParcelMap", parcels, heap, mapped);
+        } finally {
+            retained = null;
+            Files.deleteIfExists(directory.resolve(MappedParcelStore.TABLE_FILE));
+            Files.deleteIfExists(directory.resolve(MappedParcelStore.INDEX_FILE));
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private interface Builder {
+        Object build();
+    }
+
+    private static long measure(Builder builder) {
+        retained = null;
+        long before = usedHeap();
+        retained = builder.build();
+        long after = usedHeap();
+        // Garbage left over from the previous layout can still be collected
+        // between the two readings; a structure never retains less than nothing
+        return Math.max(0, after - before);
+    }
+
+    private static Object buildObjectLayout(int parcels) {
+        Random random = new Random(42);
+        Map<String, Integer> positions = new HashMap<>();
+        List<Parcel> list = new ArrayList<>();
+        for (int i = 0; i < parcels; i++) {
+            Parcel parcel = new Parcel(DepotDataGenerator.parcelId(i), 1 + random.nextInt(20), dimensions(random));
+            positions.put(parcel.getId(), list.size());
+            list.add(parcel);
+        }
+        return new Object[] {positions, list};
+    }
+
+    private static Object buildColumnarLayout(int parcels) {
+        Random random = new Random(42);
+        ParcelMap parcelMap = new ParcelMap();
+        for (int i = 0; i < parcels; i++) {
+            parcelMap.addParcel(new Parcel(DepotDataGenerator.parcelId(i), 1 + random.nextInt(20), dimensions(random)));
+        }
+        return parcelMap;
+    }
+
+    private static Object buildMappedLayout(int parcels, Path directory) {
+        Random random = new Random(42);
+        ParcelMap parcelMap;
+        try {
+            parcelMap = new ParcelMap(MappedParcelStore.open(directory));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int i = 0; i < parcels; i++) {
+            parcelMap.addParcel(new Parcel(DepotDataGenerator.parcelId(i), 1 + random.nextInt(20), dimensions(random)));
+        }
+        return parcelMap;
+    }
+
+    // Built the way the CSV loader builds it, so every parcel has its own string
+    private static String dimensions(Random random) {
+        return (1 + random.nextInt(10)) + "x" + (1 + random.nextInt(10)) + "x" + (1 + random.nextInt(10));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Repeated until three passes in a row free nothing more, since one
+        // gc() is only a hint and may leave part of the old layout behind
+        int settled = 0;
+        for (int i = 0; i < 30 && settled < 3; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now < used) {
+                used = now;
+                settled = 0;
+            } else {
+                settled++;
+            }
+        }
+        return used;
+    }
+
+    private static void report(String layout, int parcels, long bytes, long mappedBytes) {
+        System.out.printf("{\"layout\":\"%s\",\"parcels\":%d,\"bytes\":%d,\"bytesPerParcel\":%.1f,"
+                        + "\"mappedBytes\":%d,\"mappedBytesPerParcel\":%.1f}%n",
+                layout, parcels, bytes, (double) bytes / parcels, mappedBytes, (double) mappedBytes / parcels);
+    }
+}
@@ -1,23 +1,275 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+// The depot's parcels by id, kept in a ParcelStore: by default columns of
+// primitive arrays on the heap (HeapParcelStore), or memory-mapped files for
+// very large depots (MappedParcelStore). The Parcels handed out are detached
+// copies, so status changes have to go through transitionStatus. Rows keep the
+// day a parcel arrived rather than its age, so moving the map to a new day
+// ages every parcel at once.
+//
+// Guarded by its own monitor so several counters can share one map; listeners
+// are notified while it is held, so they see events in the order they happened.
 public class ParcelMap {
-    private Map<String, Parcel> parcels;
+    // Change notifications carry row positions so views can update in place
+    public interface Listener {
+        void parcelAdded(int index);
+
+        void parcelUpdated(int index);
+
+        // The parcel at lastIndex was moved into index and lastIndex dropped
+        void parcelRemoved(int index, int lastIndex);
+
+        // Every parcel is a day older, or more
+        default void parcelsAged() {
+        }
+    }
+
+    // Ids, weights and days in depot copied out column by column, for batch work
+    public static final class Columns {
+        public final String[] ids;
+        public final double[] weights;
+        public final int[] days;
+
+        Columns(int size) {
+            ids = new String[size];
+            weights = new double[size];
+            days = new int[size];
+        }
+    }
+
+    private final ParcelStore store;
+    private int today;
+    // Bumped whenever a parcel is added or put back, see arrivals()
+    private long arrivals;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
 
     public ParcelMap() {
-        parcels = new HashMap<>();
+        this(new HeapParcelStore());
+    }
+
+    public ParcelMap(ParcelStore store) {
+        this.store = store;
+    }
+
+    // Throws IllegalArgumentException if the store has no room for the id or
+    // dimensions; see canHold
+    public synchronized void addParcel(Parcel parcel) {
+        if (!store.canHold(parcel.getId(), parcel.getDimensions())) {
+            throw new IllegalArgumentException("Parcel " + parcel.getId() + " does not fit the parcel store");
+        }
+        int arrivalDay = today - parcel.getDaysInDepot();
+        arrivals++;
+        int position = store.find(parcel.getId());
+        if (position >= 0) {
+            store.update(position, parcel.getWeight(), parcel.getDimensions(), arrivalDay, parcel.getStatus());
+            listeners.forEach(listener -> listener.parcelUpdated(position));
+            return;
+        }
+        int row = store.add(parcel.getId(), parcel.getWeight(), parcel.getDimensions(), arrivalDay,
+                parcel.getStatus());
+        listeners.forEach(listener -> listener.parcelAdded(row));
+    }
+
+    // False for a parcel addParcel would refuse, e.g. an id longer than the
+    // mapped store's records allow
+    public boolean canHold(String id, String dimensions) {
+        return store.canHold(id, dimensions);
+    }
+
+    public synchronized Parcel removeParcel(String id) {
+        int position = store.find(id);
+        if (position < 0) {
+            return null;
+        }
+        Parcel removed = toParcel(position);
+        int lastIndex = store.size() - 1;
+        store.remove(position);
+        listeners.forEach(listener -> listener.parcelRemoved(position, lastIndex));
+        return removed;
+    }
+
+    public synchronized Parcel getParcel(String id) {
+        int position = store.find(id);
+        return position < 0 ? null : toParcel(position);
+    }
+
+    // Returns null for an index that has been removed since the caller last looked
+    public synchronized Parcel getParcelAt(int index) {
+        return index < store.size() ? toParcel(index) : null;
+    }
+
+    public synchronized int size() {
+        return store.size();
+    }
+
+    // Parcels added from now on arrived daysInDepot days before this day
+    public synchronized int today() {
+        return today;
+    }
+
+    public synchronized void setToday(int day) {
+        if (day == today) {
+            return;
+        }
+        today = day;
+        listeners.forEach(Listener::parcelsAged);
+    }
+
+    // Changes whenever a parcel may have come into the depot, so a customer
+    // found waiting for theirs need only be looked at again once it has
+    public synchronized long arrivals() {
+        return arrivals;
+    }
+
+    public synchronized int count(ParcelStatus status) {
+        return store.count(status);
+    }
+
+    // Returns false if the lifecycle does not allow the move from the parcel's
+    // current status. The stored row decides; the caller's copy is updated to match.
+    public synchronized boolean transitionStatus(Parcel parcel, ParcelStatus status) {
+        int position = store.find(parcel.getId());
+        if (position < 0) {
+            return parcel.transitionTo(status);
+        }
+        if (!store.status(position).canTransitionTo(status)) {
+            return false;
+        }
+        store.setStatus(position, status);
+        parcel.setStatus(status);
+        listeners.forEach(listener -> listener.parcelUpdated(position));
+        return true;
+    }
+
+    // All or nothing: unless every parcel is in the map and may move to the
+    // status, none of them changes. The caller's copies are updated to match.
+    public synchronized boolean transitionAll(List<Parcel> parcels, ParcelStatus status) {
+        int[] positions = new int[parcels.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = store.find(parcels.get(i).getId());
+            if (positions[i] < 0 || !store.status(positions[i]).canTransitionTo(status)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < positions.length; i++) {
+            int position = positions[i];
+            store.setStatus(position, status);
+            parcels.get(i).setStatus(status);
+            listeners.forEach(listener -> listener.parcelUpdated(position));
+        }
+        return true;
+    }
+
+    // Puts parcels back in the statuses they had before a change that could not
+    // be recorded. Bypasses the lifecycle, which has no way back from Released.
+    synchronized void restoreStatuses(List<Parcel> parcels, List<ParcelStatus> previous) {
+        arrivals++;
+        for (int i = 0; i < parcels.size(); i++) {
+            int position = store.find(parcels.get(i).getId());
+            if (position < 0) {
+                continue;
+            }
+            store.setStatus(position, previous.get(i));
+            parcels.get(i).setStatus(previous.get(i));
+            listeners.forEach(listener -> listener.parcelUpdated(position));
+        }
+    }
+
+    // A copy, so callers can iterate while other threads keep updating the map
+    public synchronized Collection<Parcel> getAllParcels() {
+        List<Parcel> parcels = new ArrayList<>(store.size());
+        for (int i = 0; i < store.size(); i++) {
+            parcels.add(toParcel(i));
+        }
+        return Collections.unmodifiableList(parcels);
+    }
+
+    // A copy of the parcels in one status, in no particular order
+    public synchronized List<Parcel> getParcels(ParcelStatus status) {
+        int[] rows = store.rows(status);
+        List<Parcel> parcels = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            parcels.add(toParcel(row));
+        }
+        return Collections.unmodifiableList(parcels);
+    }
+
+    // One consistent copy of the parcels in the given statuses, taken under one
+    // hold of the map and without creating a Parcel per row
+    public synchronized Columns getColumns(ParcelStatus... statuses) {
+        int total = 0;
+        for (ParcelStatus status : statuses) {
+            total += store.count(status);
+        }
+        Columns columns = new Columns(total);
+        int next = 0;
+        for (ParcelStatus status : statuses) {
+            for (int row : store.rows(status)) {
+                columns.ids[next] = store.id(row);
+                columns.weights[next] = store.weight(row);
+                columns.days[next] = today - store.arrivalDay(row);
+                next++;
+            }
+        }
+        return columns;
+    }
+
+    // Empties the map, as before loading it from scratch
+    public synchronized void clear() {
+        int size = store.size();
+        if (size == 0) {
+            return;
+        }
+        store.clear();
+        for (int last = size - 1; last >= 0; last--) {
+            int row = last;
+            listeners.forEach(listener -> listener.parcelRemoved(row, row));
+        }
+    }
+
+    // The snapshot generation a store kept on disk already holds the parcels
+    // of, so they need not be loaded; -1 if they must be
+    public synchronized long getKeptGeneration() {
+        return store.getKeptGeneration();
+    }
+
+    // Once the depot has closed. A store kept on disk keeps the parcels for the
+    // next run if they are those of the given snapshot generation, so they are
+    // first brought to what loading that snapshot would give: only the parcels
+    // still held, all In Depot.
+    public synchronized void close(long generation) throws IOException {
+        if (generation >= 0 && store.isKeptOnDisk()) {
+            List<String> gone = new ArrayList<>();
+            for (ParcelStatus status : new ParcelStatus[] {ParcelStatus.RELEASED, ParcelStatus.ARCHIVED}) {
+                for (int row : store.rows(status)) {
+                    gone.add(store.id(row));
+                }
+            }
+            gone.forEach(this::removeParcel);
+            for (int row : store.rows(ParcelStatus.READY)) {
+                store.setStatus(row, ParcelStatus.IN_DEPOT);
+            }
+        }
+        store.close(generation);
     }
 
-    public void addParcel(Parcel parcel) {
-        parcels.put(parcel.getId(), parcel);
+    // Returns the size at registration so a view can start in step with later events
+    public synchronized int addListener(Listener listener) {
+        listeners.add(listener);
+        return store.size();
     }
 
-    public Parcel getParcel(String id) {
-        return parcels.get(id);
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
     }
 
-    public Collection<Parcel> getAllParcels() {
-        return parcels.values();
+    private Parcel toParcel(int row) {
+        return new Parcel(store.id(row), store.weight(row), store.dimensions(row), today - store.arrivalDay(row),
+                store.status(row));
     }
-}
\ No newline at end of file
+}
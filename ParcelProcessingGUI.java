@@ -1,19 +1,34 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableRowSorter;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 public class ParcelProcessingGUI {
 
     private Manager manager;
+    // Every Manager call goes through here so file and log I/O stays off the EDT
+    private ManagerCommandExecutor commands;
 
     public ParcelProcessingGUI() {
         manager = new Manager();
-        manager.loadData();
+        commands = new ManagerCommandExecutor();
+        // Later commands queue behind the initial load
+        commands.run(null, area -> manager.loadData());
         initializeWelcomeGUI();
     }
 
     private void initializeWelcomeGUI() {
         JFrame welcomeFrame = new JFrame("Welcome to Depot Parcel Processing System");
-        welcomeFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        exitOnClose(welcomeFrame);
         welcomeFrame.setSize(600, 400);
         welcomeFrame.setLayout(new BorderLayout(10, 10));
         welcomeFrame.setLocationRelativeTo(null); // Center the frame on the screen
@@ -42,7 +57,7 @@ public class ParcelProcessingGUI {
     private void initializeMainGUI() {
         // Main Frame
         JFrame frame = new JFrame("Depot Parcel Processing System");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        exitOnClose(frame);
         frame.setSize(1200, 700);
         frame.setLayout(new BorderLayout(10, 10));
         frame.setLocationRelativeTo(null); // Center the frame on the screen
@@ -53,10 +68,11 @@ public class ParcelProcessingGUI {
         frame.add(titleLabel, BorderLayout.NORTH);
 
         // Dashboard Panel (Buttons)
-        JPanel dashboardPanel = new JPanel(new GridLayout(2, 5, 15, 15));
+        JPanel dashboardPanel = new JPanel(new GridLayout(2, 6, 15, 15));
         dashboardPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
         JButton processCustomerBtn = new JButton("Process Customer");
+        JButton processBatchBtn = new JButton("Process Batch");
         JButton addCustomerBtn = new JButton("Add Customer");
         JButton removeCustomerBtn = new JButton("Remove Customer");
         JButton addParcelBtn = new JButton("Add Parcel");
@@ -65,9 +81,11 @@ public class ParcelProcessingGUI {
         JButton displayParcelsBtn = new JButton("Display Parcels");
         JButton displayLogBtn = new JButton("Display Log");
         JButton displayProcessedBtn = new JButton("Display Processed Parcels");
+        JButton findReleasedBtn = new JButton("Find Released Parcel");
         JButton exitBtn = new JButton("Exit");
 
         dashboardPanel.add(processCustomerBtn);
+        dashboardPanel.add(processBatchBtn);
         dashboardPanel.add(addCustomerBtn);
         dashboardPanel.add(removeCustomerBtn);
         dashboardPanel.add(addParcelBtn);
@@ -76,24 +94,43 @@ public class ParcelProcessingGUI {
         dashboardPanel.add(displayParcelsBtn);
         dashboardPanel.add(displayLogBtn);
         dashboardPanel.add(displayProcessedBtn);
+        dashboardPanel.add(findReleasedBtn);
         dashboardPanel.add(exitBtn);
 
         frame.add(dashboardPanel, BorderLayout.CENTER);
 
         // Real-time Status Panel
-        JPanel statusPanel = new JPanel(new GridLayout(1, 1));
+        JPanel statusPanel = new JPanel(new BorderLayout(10, 10));
         statusPanel.setBorder(BorderFactory.createTitledBorder("Current Status"));
 
         JTextArea currentParcelArea = new JTextArea("Current Parcel: None");
         currentParcelArea.setFont(new Font("Arial", Font.PLAIN, 14));
         currentParcelArea.setEditable(false);
 
-        statusPanel.add(new JScrollPane(currentParcelArea));
+        // Activity indicator for queued or running commands
+        JPanel activityPanel = new JPanel(new BorderLayout(5, 5));
+        JProgressBar activityBar = new JProgressBar();
+        activityBar.setStringPainted(true);
+        activityBar.setString("Idle");
+        JButton cancelBtn = new JButton("Cancel");
+        cancelBtn.setEnabled(false);
+        cancelBtn.addActionListener(e -> commands.cancelAll());
+        activityPanel.add(activityBar, BorderLayout.CENTER);
+        activityPanel.add(cancelBtn, BorderLayout.EAST);
+        commands.setProgressListener(count -> {
+            activityBar.setIndeterminate(count > 0);
+            activityBar.setString(count > 0 ? count + " operation(s) running" : "Idle");
+            cancelBtn.setEnabled(count > 0);
+        });
+
+        statusPanel.add(new JScrollPane(currentParcelArea), BorderLayout.CENTER);
+        statusPanel.add(activityPanel, BorderLayout.EAST);
 
         frame.add(statusPanel, BorderLayout.SOUTH);
 
         // Button Action Listeners
         processCustomerBtn.addActionListener(e -> openProcessCustomerWindow(currentParcelArea));
+        processBatchBtn.addActionListener(e -> openProcessBatchWindow(currentParcelArea));
         addCustomerBtn.addActionListener(e -> openAddCustomerWindow());
         removeCustomerBtn.addActionListener(e -> openRemoveCustomerWindow());
         addParcelBtn.addActionListener(e -> openAddParcelWindow());
@@ -102,7 +139,8 @@ public class ParcelProcessingGUI {
         displayParcelsBtn.addActionListener(e -> openDisplayParcelsWindow());
         displayLogBtn.addActionListener(e -> openDisplayLogWindow());
         displayProcessedBtn.addActionListener(e -> openDisplayProcessedParcelsWindow());
-        exitBtn.addActionListener(e -> System.exit(0));
+        findReleasedBtn.addActionListener(e -> openFindReleasedWindow());
+        exitBtn.addActionListener(e -> exit());
 
         // Apply Nimbus Look and Feel
         try {
@@ -114,6 +152,25 @@ public class ParcelProcessingGUI {
         frame.setVisible(true);
     }
 
+    // Closing the window takes the same path as the Exit button
+    private void exitOnClose(JFrame frame) {
+        frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                exit();
+            }
+        });
+    }
+
+    // Lets a running command finish, then closes the depot so its final
+    // snapshots are written and a kept parcel table is marked clean
+    private void exit() {
+        commands.shutdown();
+        manager.close();
+        System.exit(0);
+    }
+
     private void openProcessCustomerWindow(JTextArea currentParcelArea) {
         JFrame processWindow = new JFrame("Process Customer");
         processWindow.setSize(400, 300);
@@ -130,12 +187,17 @@ public class ParcelProcessingGUI {
         processBtn.addActionListener(e -> {
             String parcelId = parcelIdField.getText();
             if (parcelId != null && !parcelId.trim().isEmpty()) {
-                boolean success = manager.processNextCustomer(parcelId, resultArea);
-                if (success) {
-                    currentParcelArea.setText("Current Parcel Processed: " + parcelId);
-                } else {
-                    currentParcelArea.setText("Processing Failed for Parcel: " + parcelId);
-                }
+                currentParcelArea.setText("Processing Parcel: " + parcelId);
+                ManagerCommandExecutor.onEdt(
+                        commands.submit(resultArea, area -> manager.processNextCustomer(parcelId, area)),
+                        success -> {
+                            if (success) {
+                                currentParcelArea.setText("Current Parcel Processed: " + parcelId);
+                            } else {
+                                currentParcelArea.setText("Processing Failed for Parcel: " + parcelId);
+                            }
+                        },
+                        error -> currentParcelArea.setText("Processing Failed for Parcel: " + parcelId));
             } else {
                 resultArea.append("Invalid Parcel ID.\n");
             }
@@ -149,20 +211,148 @@ public class ParcelProcessingGUI {
         processWindow.setVisible(true);
     }
 
+    private void openProcessBatchWindow(JTextArea currentParcelArea) {
+        JFrame batchWindow = new JFrame("Process Batch");
+        batchWindow.setSize(400, 300);
+        batchWindow.setLayout(new BorderLayout(10, 10));
+        batchWindow.setLocationRelativeTo(null); // Center the frame on the screen
+
+        JLabel instructionLabel = new JLabel("Enter Parcel IDs, separated by commas:", JLabel.CENTER);
+        instructionLabel.setFont(new Font("Arial", Font.PLAIN, 14));
+        JTextField parcelIdsField = new JTextField();
+        JButton processBtn = new JButton("Process All");
+        JTextArea resultArea = new JTextArea();
+        resultArea.setEditable(false);
+
+        processBtn.addActionListener(e -> {
+            List<String> parcelIds = Manager.parseParcelIds(parcelIdsField.getText());
+            if (!parcelIds.isEmpty()) {
+                currentParcelArea.setText("Processing Batch of " + parcelIds.size() + " Parcels");
+                ManagerCommandExecutor.onEdt(
+                        commands.submit(resultArea, area -> manager.processBatch(parcelIds, area)),
+                        success -> {
+                            if (success) {
+                                currentParcelArea.setText("Batch Processed: " + parcelIds.size() + " Parcels");
+                            } else {
+                                currentParcelArea.setText("Batch Processing Failed; No Parcels Released");
+                            }
+                        },
+                        error -> currentParcelArea.setText("Batch Processing Failed; No Parcels Released"));
+            } else {
+                resultArea.append("Invalid Parcel IDs.\n");
+            }
+        });
+
+        batchWindow.add(instructionLabel, BorderLayout.NORTH);
+        batchWindow.add(parcelIdsField, BorderLayout.CENTER);
+        batchWindow.add(processBtn, BorderLayout.EAST);
+        batchWindow.add(new JScrollPane(resultArea), BorderLayout.SOUTH);
+
+        batchWindow.setVisible(true);
+    }
+
+    // The released history can be far larger than memory, so the store filters
+    // and sorts it and the model pages in only the rows on screen
     private void openDisplayProcessedParcelsWindow() {
-        JFrame displayProcessedWindow = new JFrame("Processed Parcels");
-        displayProcessedWindow.setSize(600, 400);
-        displayProcessedWindow.setLocationRelativeTo(null); 
-        JTextArea processedArea = new JTextArea();
-        processedArea.setFont(new Font("Arial", Font.PLAIN, 14));
-        processedArea.setEditable(false);
-        JScrollPane scrollPane = new JScrollPane(processedArea);
-
-        // Load the processed parcels from the file and display them
-        manager.displayProcessedParcels(processedArea);
-
-        displayProcessedWindow.add(scrollPane);
-        displayProcessedWindow.setVisible(true);
+        ReleasedTableModel model = new ReleasedTableModel(manager.getReleasedStore(), commands);
+        model.attach();
+        JTable table = new JTable(model);
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.columnAtPoint(e.getPoint());
+                if (column >= 0) {
+                    model.sortBy(table.convertColumnIndexToModel(column));
+                }
+            }
+        });
+        openTableWindow("Processed Parcels", table, model::setFilter, model::detach);
+    }
+
+    private void openFindReleasedWindow() {
+        JFrame findWindow = new JFrame("Find Released Parcel");
+        findWindow.setSize(500, 200);
+        findWindow.setLayout(new BorderLayout(10, 10));
+        findWindow.setLocationRelativeTo(null); // Center the frame on the screen
+
+        JLabel instructionLabel = new JLabel("Enter Parcel ID to Look Up:", JLabel.CENTER);
+        instructionLabel.setFont(new Font("Arial", Font.PLAIN, 14));
+        JTextField parcelIdField = new JTextField();
+        JButton findBtn = new JButton("Find");
+        JTextArea resultArea = new JTextArea();
+        resultArea.setEditable(false);
+
+        findBtn.addActionListener(e -> {
+            String parcelId = parcelIdField.getText();
+            if (parcelId != null && !parcelId.trim().isEmpty()) {
+                commands.runListing(resultArea, area -> manager.findReleasedParcel(parcelId.trim(), area));
+            } else {
+                resultArea.append("Invalid Parcel ID.\n");
+            }
+        });
+
+        findWindow.add(instructionLabel, BorderLayout.NORTH);
+        findWindow.add(parcelIdField, BorderLayout.CENTER);
+        findWindow.add(findBtn, BorderLayout.EAST);
+        findWindow.add(new JScrollPane(resultArea), BorderLayout.SOUTH);
+
+        findWindow.setVisible(true);
+    }
+
+    // Shows a live, sortable and filterable table. Sorting and filtering work on
+    // the sorter's index mapping, so the model's rows are never copied.
+    private void openTableWindow(String title, AbstractTableModel model, Runnable onClose) {
+        JTable table = new JTable(model);
+        TableRowSorter<AbstractTableModel> sorter = new TableRowSorter<>(model);
+        table.setRowSorter(sorter);
+        openTableWindow(title, table, text -> sorter.setRowFilter(
+                text.isEmpty() ? null : RowFilter.regexFilter("(?i)" + Pattern.quote(text))), onClose);
+    }
+
+    private void openTableWindow(String title, JTable table, Consumer<String> filter, Runnable onClose) {
+        JFrame tableWindow = new JFrame(title);
+        tableWindow.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        tableWindow.setSize(600, 400);
+        tableWindow.setLocationRelativeTo(null);
+        tableWindow.setLayout(new BorderLayout(5, 5));
+
+        JTextField filterField = new JTextField();
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+
+            private void applyFilter() {
+                filter.accept(filterField.getText().trim());
+            }
+        });
+
+        JPanel filterPanel = new JPanel(new BorderLayout(5, 5));
+        filterPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 0, 5));
+        filterPanel.add(new JLabel("Filter:"), BorderLayout.WEST);
+        filterPanel.add(filterField, BorderLayout.CENTER);
+
+        tableWindow.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                onClose.run();
+            }
+        });
+
+        tableWindow.add(filterPanel, BorderLayout.NORTH);
+        tableWindow.add(new JScrollPane(table), BorderLayout.CENTER);
+        tableWindow.setVisible(true);
     }
 
     private void openAddCustomerWindow() {
@@ -182,8 +372,10 @@ public class ParcelProcessingGUI {
             JTextArea resultArea = new JTextArea();
 
             if (name != null && parcelId != null && !name.trim().isEmpty() && !parcelId.trim().isEmpty()) {
-                manager.addNewCustomer(name, parcelId, resultArea);
-                JOptionPane.showMessageDialog(addCustomerWindow, "Customer Added Successfully.");
+                ManagerCommandExecutor.onEdt(
+                        commands.run(resultArea, area -> manager.addNewCustomer(name, parcelId, area)),
+                        done -> JOptionPane.showMessageDialog(addCustomerWindow, "Customer Added Successfully."),
+                        error -> JOptionPane.showMessageDialog(addCustomerWindow, error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
             } else {
                 JOptionPane.showMessageDialog(addCustomerWindow, "Invalid Inputs.", "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -216,8 +408,10 @@ public class ParcelProcessingGUI {
             JTextArea resultArea = new JTextArea();
 
             if (name != null && parcelId != null && !name.trim().isEmpty() && !parcelId.trim().isEmpty()) {
-                manager.removeCustomer(name, parcelId, resultArea);
-                JOptionPane.showMessageDialog(removeCustomerWindow, "Customer Removed Successfully.");
+                ManagerCommandExecutor.onEdt(
+                        commands.run(resultArea, area -> manager.removeCustomer(name, parcelId, area)),
+                        done -> JOptionPane.showMessageDialog(removeCustomerWindow, "Customer Removed Successfully."),
+                        error -> JOptionPane.showMessageDialog(removeCustomerWindow, error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
             } else {
                 JOptionPane.showMessageDialog(removeCustomerWindow, "Invalid Inputs.", "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -254,8 +448,10 @@ public class ParcelProcessingGUI {
                 JTextArea resultArea = new JTextArea();
 
                 if (!parcelId.trim().isEmpty() && !dimensions.trim().isEmpty()) {
-                    manager.addNewParcel(parcelId, weight, dimensions, resultArea);
-                    JOptionPane.showMessageDialog(addParcelWindow, "Parcel Added Successfully.");
+                    ManagerCommandExecutor.onEdt(
+                            commands.run(resultArea, area -> manager.addNewParcel(parcelId, weight, dimensions, area)),
+                            done -> JOptionPane.showMessageDialog(addParcelWindow, "Parcel Added Successfully."),
+                            error -> JOptionPane.showMessageDialog(addParcelWindow, error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
                 } else {
                     JOptionPane.showMessageDialog(addParcelWindow, "Invalid Inputs.", "Error", JOptionPane.ERROR_MESSAGE);
                 }
@@ -291,8 +487,10 @@ public class ParcelProcessingGUI {
             JTextArea resultArea = new JTextArea();
 
             if (parcelId != null && !parcelId.trim().isEmpty()) {
-                manager.removeParcel(parcelId, resultArea);
-                JOptionPane.showMessageDialog(removeParcelWindow, "Parcel Removed Successfully.");
+                ManagerCommandExecutor.onEdt(
+                        commands.run(resultArea, area -> manager.removeParcel(parcelId, area)),
+                        done -> JOptionPane.showMessageDialog(removeParcelWindow, "Parcel Removed Successfully."),
+                        error -> JOptionPane.showMessageDialog(removeParcelWindow, error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
             } else {
                 JOptionPane.showMessageDialog(removeParcelWindow, "Invalid Inputs.", "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -307,31 +505,16 @@ public class ParcelProcessingGUI {
     }
 
     private void openDisplayCustomersWindow() {
-        JFrame displayCustomersWindow = new JFrame("Customer Queue");
-        displayCustomersWindow.setSize(400, 300);
-        displayCustomersWindow.setLocationRelativeTo(null); // Center the frame on the screen
-        JTextArea customersArea = new JTextArea();
-        customersArea.setEditable(false);
-        JScrollPane scrollPane = new JScrollPane(customersArea);
-
-        manager.displayCustomerQueue(customersArea);
-
-        displayCustomersWindow.add(scrollPane);
-        displayCustomersWindow.setVisible(true);
+        CustomerTableModel model = new CustomerTableModel(manager.getCustomerQueue());
+        // Attached on the command thread so no queue change slips between size and events
+        commands.run(null, area -> model.attach());
+        openTableWindow("Customer Queue", model, model::detach);
     }
 
     private void openDisplayParcelsWindow() {
-        JFrame displayParcelsWindow = new JFrame("Parcels in Depot");
-        displayParcelsWindow.setSize(400, 300);
-        displayParcelsWindow.setLocationRelativeTo(null); 
-        JTextArea parcelsArea = new JTextArea();
-        parcelsArea.setEditable(false);
-        JScrollPane scrollPane = new JScrollPane(parcelsArea);
-
-        manager.displayParcels(parcelsArea);
-
-        displayParcelsWindow.add(scrollPane);
-        displayParcelsWindow.setVisible(true);
+        ParcelTableModel model = new ParcelTableModel(manager.getParcelMap());
+        commands.run(null, area -> model.attach());
+        openTableWindow("Parcels in Depot", model, model::detach);
     }
 
     private void openDisplayLogWindow() {
@@ -342,9 +525,32 @@ public class ParcelProcessingGUI {
         logArea.setEditable(false);
         JScrollPane scrollPane = new JScrollPane(logArea);
 
-        manager.displayLog(logArea);
+        // Only the latest page is loaded; older pages are read on request
+        commands.runListing(logArea, area -> manager.displayLog(area));
+
+        JButton olderBtn = new JButton("Show Older Entries");
+        // Written by the command thread, read back on the EDT once it completes
+        long[] oldestShown = { -1 };
+        olderBtn.addActionListener(e -> {
+            olderBtn.setEnabled(false);
+            ManagerCommandExecutor.onEdt(commands.submitListing(null, area -> {
+                if (oldestShown[0] < 0) {
+                    oldestShown[0] = Math.max(0, manager.getLogEntryCount() - Manager.LOG_PAGE_SIZE);
+                }
+                long firstEntry = Math.max(0, oldestShown[0] - Manager.LOG_PAGE_SIZE);
+                StringBuilder page = new StringBuilder();
+                manager.displayLogPage(new TextAreaSink(page::append), firstEntry, (int) (oldestShown[0] - firstEntry));
+                oldestShown[0] = firstEntry;
+                return page.toString();
+            }), page -> {
+                logArea.insert(page, 0);
+                logArea.setCaretPosition(0);
+                olderBtn.setEnabled(oldestShown[0] > 0);
+            }, error -> olderBtn.setEnabled(true));
+        });
 
-        displayLogWindow.add(scrollPane);
+        displayLogWindow.add(olderBtn, BorderLayout.NORTH);
+        displayLogWindow.add(scrollPane, BorderLayout.CENTER);
         displayLogWindow.setVisible(true);
     }
 
@@ -0,0 +1,56 @@
+// Parcel lifecycle: In Depot -> Ready -> Released -> Archived. A parcel can
+// also be released straight from In Depot, or put back from Ready to In Depot.
+// The label is what the depot shows and writes to its files.
+public enum ParcelStatus {
+    IN_DEPOT("In Depot"),
+    READY("Ready"),
+    RELEASED("Released"),
+    ARCHIVED("Archived");
+
+    private static final ParcelStatus[] VALUES = values();
+
+    private final String label;
+
+    ParcelStatus(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    // Still held at the depot, so it can be collected but not removed
+    public boolean isInDepot() {
+        return this == IN_DEPOT || this == READY;
+    }
+
+    public boolean canTransitionTo(ParcelStatus next) {
+        switch (this) {
+            case IN_DEPOT:
+                return next == READY || next == RELEASED;
+            case READY:
+                return next == IN_DEPOT || next == RELEASED;
+            case RELEASED:
+                return next == ARCHIVED;
+            default:
+                return false;
+        }
+    }
+
+    public static int count() {
+        return VALUES.length;
+    }
+
+    public static ParcelStatus fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    public static ParcelStatus fromLabel(String label) {
+        for (ParcelStatus status : VALUES) {
+            if (status.label.equals(label)) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown parcel status: " + label);
+    }
+}
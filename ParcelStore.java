@@ -0,0 +1,68 @@
+import java.io.IOException;
+
+// Where a ParcelMap keeps its parcels: their fields by row, an index from id to
+// row, and the rows in each status. Rows are numbered from 0 to size() - 1, and
+// removing one moves the last row into its place. Rows hold the day a parcel
+// arrived rather than its age. ParcelMap only calls a store while holding its
+// own monitor, so implementations need no locking of their own.
+public interface ParcelStore {
+    int size();
+
+    // The row holding the id, or -1
+    int find(String id);
+
+    // False for an id or dimensions this store has no room for
+    default boolean canHold(String id, String dimensions) {
+        return true;
+    }
+
+    // Adds a row for an id that is not in the store yet and returns it
+    int add(String id, double weight, String dimensions, int arrivalDay, ParcelStatus status);
+
+    // Replaces everything but the id
+    void update(int row, double weight, String dimensions, int arrivalDay, ParcelStatus status);
+
+    void remove(int row);
+
+    String id(int row);
+
+    double weight(int row);
+
+    String dimensions(int row);
+
+    int arrivalDay(int row);
+
+    ParcelStatus status(int row);
+
+    void setStatus(int row, ParcelStatus status);
+
+    int count(ParcelStatus status);
+
+    // A copy of the rows in the status, in no particular order
+    int[] rows(ParcelStatus status);
+
+    void clear();
+
+    // True for a store whose rows outlive the process
+    default boolean isKeptOnDisk() {
+        return false;
+    }
+
+    // For a store kept on disk between runs: the generation of the depot
+    // snapshot whose parcels it held when it was closed, or -1
+    default long getKeptGeneration() {
+        return -1;
+    }
+
+    // Called once the depot has closed. A store kept on disk keeps its rows for
+    // the next run if they are the parcels of the given snapshot generation.
+    default void close(long generation) throws IOException {
+    }
+
+    // The id indexes' hash. A stored index relies on it, and String.hashCode is
+    // fixed by the language, so it is the same in every run.
+    static int hash(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
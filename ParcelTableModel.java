@@ -0,0 +1,111 @@
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+// Table view over ParcelMap. Rows are read from the map by position on demand
+// and the model follows the map's change events instead of rebuilding.
+public class ParcelTableModel extends AbstractTableModel implements ParcelMap.Listener {
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMNS = {"Parcel ID", "Weight", "Dimensions", "Days in Depot", "Status"};
+
+    private final ParcelMap parcelMap;
+    // Rows the table has been told about; only touched on the EDT
+    private int rowCount;
+
+    public ParcelTableModel(ParcelMap parcelMap) {
+        this.parcelMap = parcelMap;
+    }
+
+    // Call on the thread that mutates the map so no event is missed or doubled
+    public void attach() {
+        int size = parcelMap.addListener(this);
+        SwingUtilities.invokeLater(() -> {
+            rowCount = size;
+            fireTableDataChanged();
+        });
+    }
+
+    public void detach() {
+        parcelMap.removeListener(this);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        switch (column) {
+            case 1:
+                return Double.class;
+            case 3:
+                return Integer.class;
+            default:
+                return String.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Parcel parcel = parcelMap.getParcelAt(row);
+        if (parcel == null) {
+            return null;
+        }
+        switch (column) {
+            case 0:
+                return parcel.getId();
+            case 1:
+                return parcel.getWeight();
+            case 2:
+                return parcel.getDimensions();
+            case 3:
+                return parcel.getDaysInDepot();
+            default:
+                return parcel.getStatus().getLabel();
+        }
+    }
+
+    @Override
+    public void parcelAdded(int index) {
+        SwingUtilities.invokeLater(() -> {
+            rowCount++;
+            fireTableRowsInserted(index, index);
+        });
+    }
+
+    @Override
+    public void parcelUpdated(int index) {
+        SwingUtilities.invokeLater(() -> fireTableRowsUpdated(index, index));
+    }
+
+    @Override
+    public void parcelRemoved(int index, int lastIndex) {
+        SwingUtilities.invokeLater(() -> {
+            rowCount--;
+            fireTableRowsDeleted(lastIndex, lastIndex);
+            if (index != lastIndex) {
+                fireTableRowsUpdated(index, index);
+            }
+        });
+    }
+
+    @Override
+    public void parcelsAged() {
+        SwingUtilities.invokeLater(() -> {
+            if (rowCount > 0) {
+                fireTableRowsUpdated(0, rowCount - 1);
+            }
+        });
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.function.ToDoubleFunction;
+
+// Express lane for light parcels, Standard, and Bulky for heavy ones. Counters
+// take the lanes in weighted turns, so quick handovers get through faster
+// while the other lanes still move every round.
+public class ParcelWeightLanes implements LanePolicy {
+    public static final int EXPRESS = 0;
+    public static final int STANDARD = 1;
+    public static final int BULKY = 2;
+    private static final String[] LANE_NAMES = {"Express", "Standard", "Bulky"};
+
+    private final ToDoubleFunction<String> weightOfParcel;
+    private final double expressMaxWeight;
+    private final double bulkyMinWeight;
+    // Customers served from each lane per round
+    private final int[] turns;
+    private int lane;
+    private int servedThisTurn;
+
+    public ParcelWeightLanes(ToDoubleFunction<String> weightOfParcel, double expressMaxWeight, double bulkyMinWeight,
+                             int expressTurns, int standardTurns, int bulkyTurns) {
+        if (expressTurns < 1 || standardTurns < 1 || bulkyTurns < 1) {
+            throw new IllegalArgumentException("Every lane needs at least one turn per round");
+        }
+        this.weightOfParcel = weightOfParcel;
+        this.expressMaxWeight = expressMaxWeight;
+        this.bulkyMinWeight = bulkyMinWeight;
+        this.turns = new int[] {expressTurns, standardTurns, bulkyTurns};
+    }
+
+    @Override
+    public int laneCount() {
+        return LANE_NAMES.length;
+    }
+
+    @Override
+    public String laneName(int lane) {
+        return LANE_NAMES[lane];
+    }
+
+    @Override
+    public int laneFor(Customer customer) {
+        double weight = weightOfParcel.applyAsDouble(customer.getParcelId());
+        if (weight >= bulkyMinWeight) {
+            return BULKY;
+        }
+        return weight <= expressMaxWeight ? EXPRESS : STANDARD;
+    }
+
+    // An empty lane passes its turn on
+    @Override
+    public int nextLane(int[] laneSizes) {
+        for (int tries = 0; tries <= laneSizes.length; tries++) {
+            if (laneSizes[lane] > 0 && servedThisTurn < turns[lane]) {
+                servedThisTurn++;
+                return lane;
+            }
+            lane = (lane + 1) % laneSizes.length;
+            servedThisTurn = 0;
+        }
+        throw new IllegalStateException("No lane has customers");
+    }
+}
@@ -1,30 +1,446 @@
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
 
+// Customers wait in the lanes of a LanePolicy, each lane a linked list, and the
+// policy picks the lane the next free counter serves. Every queued customer is
+// also linked from its parcel id, so finding or removing any one of them is
+// O(1) rather than a scan. Positions, as views and getCustomerAt use them, are
+// arrival order across all lanes and come from a Fenwick tree in O(log n).
+//
+// Guarded by its own monitor so several counters can take customers at once;
+// removeCustomer() hands each queued customer to exactly one caller. A caller
+// that takes a customer and then cannot serve them puts them back with
+// reinsert(), in the place they had, so a failed serve or a refused batch
+// leaves the queue exactly as it was.
 public class QueueOfCustomers {
-    private Queue<Customer> customerQueue;
+    // Change notifications carry queue positions so views can update in place
+    public interface Listener {
+        void customerAdded(int index);
+
+        void customerRemoved(int index);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Where a taken customer stood, for reinsert()
+    public static final class Place {
+        private final Customer customer;
+        private final int lane;
+        private final long arrival;
+
+        private Place(Node node) {
+            customer = node.customer;
+            lane = node.lane;
+            arrival = node.arrival;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+    }
+
+    private static final class Node {
+        final Customer customer;
+        final int lane;
+        // Increases with every add, so it orders customers by arrival for good
+        final long arrival;
+        int slot;
+        Node previous;
+        Node next;
+        // Later customers collecting the same parcel, in arrival order
+        Node nextSameParcel;
+
+        Node(Customer customer, int lane, long arrival) {
+            this.customer = customer;
+            this.lane = lane;
+            this.arrival = arrival;
+        }
+    }
+
+    private final LanePolicy lanePolicy;
+    private final Node[] laneHeads;
+    private final Node[] laneTails;
+    private final int[] laneSizes;
+    // Per lane, the last of the customers at its head that a readiness check
+    // passed over, and the readiness epoch it was made in; the next check in
+    // the same epoch starts after them
+    private final Node[] lastPassed;
+    private final long[] passedEpochs;
+    // parcelId -> first queued customer collecting it
+    private final Map<String, Node> nodesByParcelId;
+    // Arrival order; slots of removed customers are null until the next compaction
+    private Node[] slots;
+    // Arrival of each slot's customer, kept after they leave, so it stays sorted
+    private long[] slotArrivals;
+    private int tail;
+    private long nextArrival;
+    // Fenwick tree over slots counting queued customers, 1-based
+    private int[] queuedCounts;
+    private int size;
+    private List<Listener> listeners;
 
     public QueueOfCustomers() {
-        customerQueue = new LinkedList<>();
+        this(LanePolicy.SINGLE_LANE);
+    }
+
+    public QueueOfCustomers(LanePolicy lanePolicy) {
+        this.lanePolicy = lanePolicy;
+        laneHeads = new Node[lanePolicy.laneCount()];
+        laneTails = new Node[lanePolicy.laneCount()];
+        laneSizes = new int[lanePolicy.laneCount()];
+        lastPassed = new Node[lanePolicy.laneCount()];
+        passedEpochs = new long[lanePolicy.laneCount()];
+        nodesByParcelId = new HashMap<>();
+        slots = new Node[INITIAL_CAPACITY];
+        slotArrivals = new long[INITIAL_CAPACITY];
+        queuedCounts = new int[INITIAL_CAPACITY + 1];
+        listeners = new CopyOnWriteArrayList<>();
+    }
+
+    public synchronized void addCustomer(Customer customer) {
+        Node node = new Node(customer, lanePolicy.laneFor(customer), nextArrival++);
+        if (tail == slots.length) {
+            compact();
+        }
+        node.slot = tail++;
+        slots[node.slot] = node;
+        slotArrivals[node.slot] = node.arrival;
+        adjustCount(node.slot, 1);
+        link(node);
+    }
+
+    // The customer the lane policy says is next, or null if nobody is waiting
+    public synchronized Customer removeCustomer() {
+        Place place = takeCustomer();
+        return place == null ? null : place.customer;
+    }
+
+    public synchronized boolean removeCustomer(Customer customer) {
+        return takeCustomer(customer) != null;
+    }
+
+    // As removeCustomer(), remembering the place for reinsert()
+    public synchronized Place takeCustomer() {
+        if (size == 0) {
+            return null;
+        }
+        Node node = laneHeads[lanePolicy.nextLane(laneSizes)];
+        unlink(node);
+        return new Place(node);
+    }
+
+    // As takeCustomer(), passing over customers who are not ready without
+    // moving them: the first ready one in the lane the policy picks, or in the
+    // lanes after it if that lane has none. Null if nobody queued is ready.
+    // Customers passed over are not checked again until the epoch changes,
+    // which the caller must make happen whenever one of them may have become ready.
+    public synchronized Place takeCustomer(Predicate<Customer> ready, long epoch) {
+        if (size == 0) {
+            return null;
+        }
+        int first = lanePolicy.nextLane(laneSizes);
+        for (int i = 0; i < laneHeads.length; i++) {
+            int lane = (first + i) % laneHeads.length;
+            if (passedEpochs[lane] != epoch) {
+                passedEpochs[lane] = epoch;
+                lastPassed[lane] = null;
+            }
+            Node node = lastPassed[lane] == null ? laneHeads[lane] : lastPassed[lane].next;
+            for (; node != null; node = node.next) {
+                if (ready.test(node.customer)) {
+                    unlink(node);
+                    return new Place(node);
+                }
+                lastPassed[lane] = node;
+            }
+        }
+        return null;
+    }
+
+    // Null if the customer is not queued, as when another counter took them
+    public synchronized Place takeCustomer(Customer customer) {
+        Node node = nodesByParcelId.get(customer.getParcelId());
+        while (node != null && node.customer != customer) {
+            node = node.nextSameParcel;
+        }
+        if (node == null) {
+            return null;
+        }
+        unlink(node);
+        return new Place(node);
+    }
+
+    // Puts a taken customer back where they stood: ahead of everyone who
+    // arrived after them, in their lane and in arrival order
+    public synchronized void reinsert(Place place) {
+        Node node = new Node(place.customer, place.lane, place.arrival);
+        int slot = firstSlotAfter(place.arrival);
+        if (slot > 0 && slots[slot - 1] == null) {
+            // Usually the slot they left; any empty one just before keeps the order
+            slot--;
+        } else {
+            if (tail == slots.length) {
+                compact();
+                slot = firstSlotAfter(place.arrival);
+            }
+            System.arraycopy(slots, slot, slots, slot + 1, tail - slot);
+            System.arraycopy(slotArrivals, slot, slotArrivals, slot + 1, tail - slot);
+            tail++;
+            for (int i = slot + 1; i < tail; i++) {
+                if (slots[i] != null) {
+                    slots[i].slot = i;
+                }
+            }
+            slots[slot] = null;
+            rebuildCounts();
+        }
+        node.slot = slot;
+        slots[slot] = node;
+        slotArrivals[slot] = node.arrival;
+        adjustCount(slot, 1);
+        link(node);
+    }
+
+    public synchronized Customer findByParcelId(String parcelId) {
+        Node node = nodesByParcelId.get(parcelId);
+        return node == null ? null : node.customer;
+    }
+
+    public synchronized Customer findCustomer(String name, String parcelId) {
+        for (Node node = nodesByParcelId.get(parcelId); node != null; node = node.nextSameParcel) {
+            if (node.customer.getName().equals(name)) {
+                return node.customer;
+            }
+        }
+        return null;
+    }
+
+    // Returns null for a position that has been served since the caller last looked
+    public synchronized Customer getCustomerAt(int index) {
+        return index >= 0 && index < size ? slots[slotAt(index)].customer : null;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public LanePolicy getLanePolicy() {
+        return lanePolicy;
+    }
+
+    public synchronized int laneSize(int lane) {
+        return laneSizes[lane];
+    }
+
+    // Returns -1 if the customer is not queued
+    public synchronized int laneOf(Customer customer) {
+        for (Node node = nodesByParcelId.get(customer.getParcelId()); node != null; node = node.nextSameParcel) {
+            if (node.customer == customer) {
+                return node.lane;
+            }
+        }
+        return -1;
+    }
+
+    // In arrival order, whatever the lanes
+    public synchronized Queue<Customer> getQueue() {
+        Queue<Customer> queue = new LinkedList<>();
+        for (int i = 0; i < tail; i++) {
+            if (slots[i] != null) {
+                queue.add(slots[i].customer);
+            }
+        }
+        return queue;
+    }
+
+    // Returns the size at registration so a view can start in step with later events
+    public synchronized int addListener(Listener listener) {
+        listeners.add(listener);
+        return size;
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Links a node whose slot is set into its lane and parcel chain, both kept in arrival order
+    private void link(Node node) {
+        size++;
+        // New arrivals go last; a reinserted customer is usually near the head
+        Node after = laneTails[node.lane];
+        if (after != null && after.arrival > node.arrival) {
+            after = null;
+            for (Node next = laneHeads[node.lane]; next.arrival < node.arrival; next = next.next) {
+                after = next;
+            }
+        }
+        node.previous = after;
+        node.next = after == null ? laneHeads[node.lane] : after.next;
+        if (after == null) {
+            laneHeads[node.lane] = node;
+        } else {
+            after.next = node;
+        }
+        if (node.next == null) {
+            laneTails[node.lane] = node;
+        } else {
+            node.next.previous = node;
+        }
+        laneSizes[node.lane]++;
+        // A customer put back among those passed over has not been checked
+        Node passed = lastPassed[node.lane];
+        if (passed != null && passed.arrival > node.arrival) {
+            lastPassed[node.lane] = node.previous;
+        }
+
+        String parcelId = node.customer.getParcelId();
+        Node first = nodesByParcelId.get(parcelId);
+        if (first == null || first.arrival > node.arrival) {
+            node.nextSameParcel = first;
+            nodesByParcelId.put(parcelId, node);
+        } else {
+            // Customers waiting on the same parcel are rare, so the chain is short
+            while (first.nextSameParcel != null && first.nextSameParcel.arrival < node.arrival) {
+                first = first.nextSameParcel;
+            }
+            node.nextSameParcel = first.nextSameParcel;
+            first.nextSameParcel = node;
+        }
+        // Only views need the position as a number
+        int index = listeners.isEmpty() ? -1 : countBefore(node.slot);
+        listeners.forEach(listener -> listener.customerAdded(index));
+    }
+
+    private void unlink(Node node) {
+        // Only views need the position as a number
+        int index = listeners.isEmpty() ? -1 : countBefore(node.slot);
+        if (lastPassed[node.lane] == node) {
+            lastPassed[node.lane] = node.previous;
+        }
+
+        if (node.previous == null) {
+            laneHeads[node.lane] = node.next;
+        } else {
+            node.previous.next = node.next;
+        }
+        if (node.next == null) {
+            laneTails[node.lane] = node.previous;
+        } else {
+            node.next.previous = node.previous;
+        }
+        node.previous = null;
+        node.next = null;
+        laneSizes[node.lane]--;
+
+        String parcelId = node.customer.getParcelId();
+        Node first = nodesByParcelId.get(parcelId);
+        if (first == node) {
+            if (node.nextSameParcel == null) {
+                nodesByParcelId.remove(parcelId);
+            } else {
+                nodesByParcelId.put(parcelId, node.nextSameParcel);
+            }
+        } else {
+            while (first.nextSameParcel != node) {
+                first = first.nextSameParcel;
+            }
+            first.nextSameParcel = node.nextSameParcel;
+        }
+        node.nextSameParcel = null;
+
+        slots[node.slot] = null;
+        adjustCount(node.slot, -1);
+        size--;
+        listeners.forEach(listener -> listener.customerRemoved(index));
+    }
+
+    // Packs the queued customers to the front, growing the slots if they are
+    // more than half full, so each compaction pays for the adds before it
+    private void compact() {
+        int capacity = size * 2 > slots.length ? slots.length * 2 : slots.length;
+        Node[] packed = new Node[capacity];
+        long[] packedArrivals = new long[capacity];
+        int count = 0;
+        for (int i = 0; i < tail; i++) {
+            if (slots[i] != null) {
+                slots[i].slot = count;
+                packedArrivals[count] = slots[i].arrival;
+                packed[count++] = slots[i];
+            }
+        }
+        slots = packed;
+        slotArrivals = packedArrivals;
+        tail = count;
+        rebuildCounts();
     }
 
-    public void addCustomer(Customer customer) {
-        customerQueue.offer(customer);
+    // Builds the tree in O(n) by pushing each node's count to its parent
+    private void rebuildCounts() {
+        int capacity = slots.length;
+        queuedCounts = new int[capacity + 1];
+        for (int i = 0; i < tail; i++) {
+            if (slots[i] != null) {
+                queuedCounts[i + 1] = 1;
+            }
+        }
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                queuedCounts[parent] += queuedCounts[i];
+            }
+        }
     }
 
-    public Customer removeCustomer() {
-        return customerQueue.poll();
+    private void adjustCount(int slot, int delta) {
+        for (int i = slot + 1; i < queuedCounts.length; i += i & -i) {
+            queuedCounts[i] += delta;
+        }
     }
 
-    public boolean isEmpty() {
-        return customerQueue.isEmpty();
+    // The first slot whose customer arrived after this arrival, or tail
+    private int firstSlotAfter(long arrival) {
+        int low = 0;
+        int high = tail;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (slotArrivals[middle] <= arrival) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
     }
 
-    public int size() {
-        return customerQueue.size();
+    // Queued customers in slots before this one
+    private int countBefore(int slot) {
+        int count = 0;
+        for (int i = slot; i > 0; i -= i & -i) {
+            count += queuedCounts[i];
+        }
+        return count;
     }
 
-    public Queue<Customer> getQueue() {
-        return new LinkedList<>(customerQueue);
+    // The slot of the queued customer at this position
+    private int slotAt(int index) {
+        int position = 0;
+        int remaining = index;
+        for (int step = Integer.highestOneBit(queuedCounts.length - 1); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next < queuedCounts.length && queuedCounts[next] <= remaining) {
+                position = next;
+                remaining -= queuedCounts[next];
+            }
+        }
+        return position;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+// Rates a parcel is charged at: a base fee plus so much per kilogram and per
+// day in depot. Worker prices single parcels with one and FeeCalculator whole
+// batches, so a what-if run is just another table.
+public final class RateTable {
+    public static final RateTable STANDARD = new RateTable(10.0, 0.5, 1.0);
+
+    private final double baseFee;
+    private final double weightRate;
+    private final double daysRate;
+
+    public RateTable(double baseFee, double weightRate, double daysRate) {
+        this.baseFee = baseFee;
+        this.weightRate = weightRate;
+        this.daysRate = daysRate;
+    }
+
+    public double getBaseFee() { return baseFee; }
+    public double getWeightRate() { return weightRate; }
+    public double getDaysRate() { return daysRate; }
+
+    // FeeCalculator's kernel adds in the same order, so both give identical results
+    public double fee(double weight, int daysInDepot) {
+        double fee = baseFee;
+        fee += weight * weightRate;
+        fee += daysInDepot * daysRate;
+        return fee;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RateTable[Base=%.2f, PerKg=%.2f, PerDay=%.2f]", baseFee, weightRate, daysRate);
+    }
+}
@@ -0,0 +1,752 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Released records in one segment file per day under released/. Today's
+// segment is appended to with a line-offset index, as released.csv was; older
+// ones are closed and, unless depot.released.compress is false, gzipped. A
+// persistent parcel id index finds a parcel's release without reading the
+// history, and records can be listed by day. Positions count records across
+// all segments, oldest first, so views can read any record by position.
+public class ReleasedStore {
+    public interface Listener {
+        void recordsAppended(int firstIndex, int lastIndex);
+    }
+
+    // A released record with the day it was released
+    public static final class Release {
+        private final LocalDate day;
+        private final String record;
+
+        Release(LocalDate day, String record) {
+            this.day = day;
+            this.record = record;
+        }
+
+        public LocalDate getDay() {
+            return day;
+        }
+
+        public String getRecord() {
+            return record;
+        }
+
+        @Override
+        public String toString() {
+            return day + " " + record;
+        }
+    }
+
+    public static final String DIRECTORY = "released";
+    // Where every record went before segments; moved into the first segment on open
+    public static final String LEGACY_FILE = "released.csv";
+    private static final String SEGMENT_PREFIX = "released-";
+    private static final String SEGMENT_SUFFIX = ".csv";
+    private static final String COMPRESSED_SUFFIX = ".csv.gz";
+    private static final String INDEX_FILE = "released.idx";
+    private static final boolean COMPRESS =
+            Boolean.parseBoolean(System.getProperty("depot.released.compress", "true"));
+    private static final int CACHE_SIZE = 512;
+    private static final int FIELD_COUNT = 6;
+    // Bytes of closed segments kept decompressed, so reads by position inflate
+    // each segment once rather than once per jump between segments
+    private static final long SEGMENT_CACHE_BYTES = Long.getLong("depot.released.cacheBytes", 64L << 20);
+
+    private static final class Segment {
+        final LocalDate day;
+        Path file;
+        boolean compressed;
+        int firstIndex;
+        int count;
+
+        Segment(LocalDate day, Path file, boolean compressed) {
+            this.day = day;
+            this.file = file;
+            this.compressed = compressed;
+        }
+    }
+
+    // A closed segment's text with the offset of each line, so any line can be
+    // read without inflating the segment again
+    private static final class SegmentText {
+        final byte[] bytes;
+        final int[] lineStarts;
+        final int lines;
+
+        SegmentText(byte[] bytes) {
+            this.bytes = bytes;
+            int[] starts = new int[64];
+            int lineCount = 0;
+            int lineStart = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] == '\n') {
+                    if (lineCount == starts.length) {
+                        starts = Arrays.copyOf(starts, lineCount * 2);
+                    }
+                    starts[lineCount++] = lineStart;
+                    lineStart = i + 1;
+                }
+            }
+            // A last line without a line break, as readLines would give it
+            if (lineStart < bytes.length) {
+                if (lineCount == starts.length) {
+                    starts = Arrays.copyOf(starts, lineCount + 1);
+                }
+                starts[lineCount++] = lineStart;
+            }
+            this.lineStarts = starts;
+            this.lines = lineCount;
+        }
+
+        String line(int line) {
+            int start = lineStarts[line];
+            int end = line + 1 < lines ? lineStarts[line + 1] : bytes.length;
+            while (end > start && (bytes[end - 1] == '\n' || bytes[end - 1] == '\r')) {
+                end--;
+            }
+            return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final Path legacyFile;
+    private final Path segmentDirectory;
+    private final Path indexFile;
+    private final Clock clock;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final NavigableMap<LocalDate, Segment> segments = new TreeMap<>();
+    // parcelId -> epoch day << 32 | line within that day's segment, for its latest release
+    private final Map<String, Long> index = new HashMap<>();
+    private FileChannel indexChannel;
+    // The newest segment while it is still plain text and can be appended to,
+    // and its file, kept open while appending
+    private Segment active;
+    private FileChannel activeChannel;
+    // Bytes past the last complete line of the active segment, left by a crash
+    private boolean tornTail;
+    private long[] offsets = new long[1024];
+    private int activeLines;
+    private long length;
+    private int count;
+    // Segments by the position of their first record, for reads by position
+    private final NavigableMap<Integer, Segment> segmentsByFirstIndex = new TreeMap<>();
+    // The closed segments read last, least recently used first; the newest
+    // read always stays, even if it is larger than the budget on its own
+    private final LinkedHashMap<Segment, SegmentText> segmentCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long segmentCacheBytes;
+    private final LatencyHistogram appendTimer;
+    private final LatencyHistogram forceTimer;
+    private final Map<Integer, String> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    public ReleasedStore(Path directory) {
+        this(directory, Clock.systemDefaultZone());
+    }
+
+    public ReleasedStore(Path directory, Clock clock) {
+        this.legacyFile = directory.resolve(LEGACY_FILE);
+        this.segmentDirectory = directory.resolve(DIRECTORY);
+        this.indexFile = segmentDirectory.resolve(INDEX_FILE);
+        this.clock = clock;
+        DepotMetrics metrics = DepotMetrics.getInstance(directory);
+        this.appendTimer = metrics.timer("io.released.append");
+        this.forceTimer = metrics.timer("io.released.force");
+    }
+
+    // Loads the parcel id index and the offsets of today's segment; closed
+    // segments are not read. Indexes whatever a crash left unindexed.
+    public synchronized void open() throws IOException {
+        closeFiles();
+        segments.clear();
+        segmentsByFirstIndex.clear();
+        index.clear();
+        cache.clear();
+        segmentCache.clear();
+        segmentCacheBytes = 0;
+        active = null;
+        activeLines = 0;
+        tornTail = false;
+        count = 0;
+        length = 0;
+
+        Files.createDirectories(segmentDirectory);
+        migrateLegacyFile();
+        listSegments();
+        boolean rebuild = !Files.exists(indexFile) && !segments.isEmpty();
+        Map<LocalDate, Integer> indexed = rebuild ? new HashMap<>() : readIndex();
+        indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        indexChannel.position(indexChannel.size());
+
+        Segment newest = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        for (Segment segment : segments.values()) {
+            segment.firstIndex = count;
+            segmentsByFirstIndex.put(count, segment);
+            if (segment == newest && !segment.compressed) {
+                // Only the segment being appended to can be ahead of the index
+                active = segment;
+                scanActive(indexed.getOrDefault(segment.day, 0));
+            } else if (rebuild) {
+                List<String> lines = readLines(segment);
+                segment.count = lines.size();
+                writeIndex(segment, 0, lines);
+            } else {
+                segment.count = indexed.getOrDefault(segment.day, 0);
+            }
+            count += segment.count;
+        }
+        // A crash may have stopped a segment being compressed when it was closed
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment != active && !segment.compressed && COMPRESS) {
+                compress(segment);
+            }
+        }
+    }
+
+    public synchronized void append(String record) throws IOException {
+        appendAll(List.of(record));
+    }
+
+    // Appends the records to today's segment in one write and notifies listeners once.
+    public synchronized void appendAll(List<String> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        if (indexChannel == null) {
+            throw new IOException("Released store is not open");
+        }
+        long start = System.nanoTime();
+        LocalDate today = LocalDate.now(clock);
+        // A clock set back keeps appending to the newest segment
+        if (active == null || active.day.isBefore(today)) {
+            roll(today);
+        }
+        StringBuilder text = new StringBuilder();
+        for (String record : records) {
+            text.append(record).append(System.lineSeparator());
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(text.toString());
+        if (activeChannel == null) {
+            activeChannel = FileChannel.open(active.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        // Write from the last complete line so a torn tail is overwritten
+        long position = length;
+        while (bytes.hasRemaining()) {
+            position += activeChannel.write(bytes, position);
+        }
+        if (tornTail) {
+            activeChannel.truncate(position);
+            tornTail = false;
+        }
+        if (DurableFiles.SYNC == DurableFiles.Sync.ALWAYS) {
+            activeChannel.force(false);
+        }
+        int firstIndex = count;
+        int firstLine = active.count;
+        long lineStart = length;
+        bytes.rewind();
+        for (int i = 0; i < bytes.limit(); i++) {
+            if (bytes.get(i) == '\n') {
+                addOffset(lineStart);
+                lineStart = length + i + 1;
+            }
+        }
+        length = lineStart;
+        count += records.size();
+        // The segment is ahead of the index until this lands; open() catches up if it never does
+        writeIndex(active, firstLine, records);
+        appendTimer.recordNanos(System.nanoTime() - start);
+        int lastIndex = count - 1;
+        listeners.forEach(listener -> listener.recordsAppended(firstIndex, lastIndex));
+    }
+
+    // Forces appended records to disk, so the journal entries they came from can be dropped
+    public synchronized void force() throws IOException {
+        if (DurableFiles.SYNC == DurableFiles.Sync.NONE) {
+            return;
+        }
+        long start = System.nanoTime();
+        if (activeChannel != null) {
+            activeChannel.force(false);
+        }
+        if (indexChannel != null) {
+            indexChannel.force(false);
+        }
+        forceTimer.recordNanos(System.nanoTime() - start);
+    }
+
+    // Appends whichever of the records the newest segments do not already
+    // hold, in their order, and returns how many that was. For recovery after
+    // a crash between journaling a release and adding it here; the journal
+    // never reaches further back than the segment before today's.
+    public synchronized int appendMissing(Collection<String> records) throws IOException {
+        Set<String> missing = new LinkedHashSet<>(records);
+        for (Segment segment : segments.descendingMap().values()) {
+            if (missing.isEmpty()) {
+                break;
+            }
+            missing.removeAll(readLines(segment));
+            if (segment != active) {
+                break;
+            }
+        }
+        appendAll(new ArrayList<>(missing));
+        return missing.size();
+    }
+
+    // The latest release of the parcel, or null if it was never released
+    public synchronized Release find(String parcelId) throws IOException {
+        Long position = index.get(parcelId);
+        if (position == null) {
+            return null;
+        }
+        Segment segment = segments.get(LocalDate.ofEpochDay(position >>> 32));
+        int line = (int) (long) position;
+        if (segment == null || line >= segment.count) {
+            return null;
+        }
+        return new Release(segment.day, getRecord(segment.firstIndex + line));
+    }
+
+    // Every release from the first day to the last, inclusive, oldest first
+    public List<Release> findBetween(LocalDate firstDay, LocalDate lastDay) throws IOException {
+        List<Release> releases = new ArrayList<>();
+        scan(firstDay, lastDay, (day, record) -> releases.add(new Release(day, record)));
+        return releases;
+    }
+
+    // Streams the records of the days in range, one segment at a time, until
+    // the visitor returns false
+    public void scan(LocalDate firstDay, LocalDate lastDay, BiPredicate<LocalDate, String> visitor)
+            throws IOException {
+        List<Segment> inRange;
+        synchronized (this) {
+            inRange = new ArrayList<>(segments.subMap(firstDay, true, lastDay, true).values());
+        }
+        for (Segment segment : inRange) {
+            List<String> lines;
+            synchronized (this) {
+                lines = readLines(segment);
+            }
+            for (String line : lines) {
+                if (!visitor.test(segment.day, line)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized String getRecord(int index) throws IOException {
+        if (index < 0 || index >= count) {
+            return null;
+        }
+        String cached = cache.get(index);
+        if (cached != null) {
+            return cached;
+        }
+        Segment segment = segmentAt(index);
+        int line = index - segment.firstIndex;
+        String record;
+        if (segment == active) {
+            record = readActiveLine(line);
+        } else {
+            SegmentText text = segmentCache.get(segment);
+            if (text == null) {
+                text = readText(segment);
+                cacheText(segment, text);
+            }
+            record = line < text.lines ? text.line(line) : null;
+        }
+        if (record != null) {
+            cache.put(index, record);
+        }
+        return record;
+    }
+
+    // Returns the size at registration so a view can start in step with later events
+    public synchronized int addListener(Listener listener) {
+        listeners.add(listener);
+        return count;
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized void close() {
+        closeFiles();
+    }
+
+    // Customer, parcel id, weight, dimensions, status and fee, as Manager writes
+    // them. Fields are counted from the end, as customer names may hold commas.
+    public static String[] fieldsOf(String record) {
+        String[] fields = record.split(",", -1);
+        if (fields.length <= FIELD_COUNT) {
+            return fields;
+        }
+        int nameFields = fields.length - FIELD_COUNT + 1;
+        String[] joined = new String[FIELD_COUNT];
+        joined[0] = String.join(",", Arrays.asList(fields).subList(0, nameFields));
+        System.arraycopy(fields, nameFields, joined, 1, FIELD_COUNT - 1);
+        return joined;
+    }
+
+    // The positions of the records whose fields the filter accepts, in the
+    // order given, or by position if it is null. Reads each segment once, so
+    // views filter and sort the whole history here rather than row by row.
+    public int[] select(Predicate<String[]> filter, Comparator<String[]> order) throws IOException {
+        List<Segment> all;
+        int end;
+        synchronized (this) {
+            all = new ArrayList<>(segments.values());
+            end = count;
+        }
+        List<String[]> matches = new ArrayList<>();
+        int[] positions = new int[64];
+        int found = 0;
+        for (Segment segment : all) {
+            List<String> lines;
+            synchronized (this) {
+                lines = readLines(segment);
+            }
+            for (int line = 0; line < lines.size() && segment.firstIndex + line < end; line++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Selection cancelled");
+                }
+                String[] fields = fieldsOf(lines.get(line));
+                if (filter == null || filter.test(fields)) {
+                    if (found == positions.length) {
+                        positions = Arrays.copyOf(positions, found * 2);
+                    }
+                    positions[found++] = segment.firstIndex + line;
+                    if (order != null) {
+                        matches.add(fields);
+                    }
+                }
+            }
+        }
+        if (order == null) {
+            return Arrays.copyOf(positions, found);
+        }
+        Integer[] sorted = new Integer[found];
+        for (int i = 0; i < found; i++) {
+            sorted[i] = i;
+        }
+        // Stable, so equal keys stay oldest first
+        Arrays.sort(sorted, (x, y) -> order.compare(matches.get(x), matches.get(y)));
+        int[] result = new int[found];
+        for (int i = 0; i < found; i++) {
+            result[i] = positions[sorted[i]];
+        }
+        return result;
+    }
+
+    // The parcel id is counted from the end, as customer names may hold commas
+    static String parcelIdOf(String record) {
+        String[] fields = record.split(",", -1);
+        return fields.length >= 6 ? fields[fields.length - 5] : fields.length > 1 ? fields[1] : fields[0];
+    }
+
+    private void roll(LocalDate today) throws IOException {
+        if (active != null) {
+            Segment closed = active;
+            active = null;
+            if (activeChannel != null) {
+                activeChannel.close();
+                activeChannel = null;
+            }
+            if (COMPRESS) {
+                compress(closed);
+            }
+        }
+        Segment segment = new Segment(today, segmentDirectory.resolve(SEGMENT_PREFIX + today + SEGMENT_SUFFIX), false);
+        segment.firstIndex = count;
+        segments.put(today, segment);
+        segmentsByFirstIndex.put(count, segment);
+        active = segment;
+        activeLines = 0;
+        length = 0;
+        Files.createFile(segment.file);
+        DurableFiles.forceDirectory(segmentDirectory);
+    }
+
+    private void compress(Segment segment) throws IOException {
+        Path compressedFile = segmentDirectory.resolve(SEGMENT_PREFIX + segment.day + COMPRESSED_SUFFIX);
+        Path tempFile = compressedFile.resolveSibling(compressedFile.getFileName() + ".tmp");
+        List<String> lines = readLines(segment);
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(tempFile)), StandardCharsets.UTF_8))) {
+            for (String line : lines) {
+                writer.write(line + System.lineSeparator());
+            }
+        }
+        DurableFiles.replace(tempFile, compressedFile);
+        Files.delete(segment.file);
+        segment.file = compressedFile;
+        segment.compressed = true;
+    }
+
+    private void migrateLegacyFile() throws IOException {
+        if (!Files.exists(legacyFile)) {
+            return;
+        }
+        if (!isEmpty(segmentDirectory)) {
+            System.err.println("Leaving " + legacyFile.getFileName() + " alone; " + DIRECTORY + "/ already has segments");
+            return;
+        }
+        // Its records carry no dates, so they count as released on the day it was last written
+        Instant modified = Files.getLastModifiedTime(legacyFile).toInstant();
+        LocalDate day = LocalDate.ofInstant(modified, clock.getZone());
+        Path target = segmentDirectory.resolve(SEGMENT_PREFIX + day + SEGMENT_SUFFIX);
+        Files.move(legacyFile, target);
+        DurableFiles.forceDirectory(segmentDirectory);
+        DurableFiles.forceDirectory(legacyFile.toAbsolutePath().getParent());
+    }
+
+    private void listSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(segmentDirectory, SEGMENT_PREFIX + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                boolean compressed = name.endsWith(COMPRESSED_SUFFIX);
+                if (!compressed && !name.endsWith(SEGMENT_SUFFIX)) {
+                    continue;
+                }
+                String date = name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - (compressed ? COMPRESSED_SUFFIX : SEGMENT_SUFFIX).length());
+                LocalDate day;
+                try {
+                    day = LocalDate.parse(date);
+                } catch (DateTimeParseException e) {
+                    continue;
+                }
+                Segment existing = segments.get(day);
+                if (existing == null) {
+                    segments.put(day, new Segment(day, file, compressed));
+                } else if (compressed) {
+                    // The plain copy outlived a finished compression
+                    Files.delete(existing.file);
+                    segments.put(day, new Segment(day, file, true));
+                } else {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    // Fills the in-memory index and returns how many records each day has
+    // indexed. A torn last entry is cut off so new entries follow whole ones.
+    private Map<LocalDate, Integer> readIndex() throws IOException {
+        Map<LocalDate, Integer> indexed = new HashMap<>();
+        if (!Files.exists(indexFile)) {
+            return indexed;
+        }
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            while (true) {
+                byte[] id = new byte[in.readUnsignedShort()];
+                in.readFully(id);
+                long epochDay = in.readInt();
+                int line = in.readInt();
+                index.put(new String(id, StandardCharsets.UTF_8), epochDay << 32 | line);
+                indexed.merge(LocalDate.ofEpochDay(epochDay), line + 1, Math::max);
+                valid += 2 + id.length + 8;
+            }
+        } catch (EOFException e) {
+            // End of the file, or of its last whole entry
+        }
+        if (valid < Files.size(indexFile)) {
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+        return indexed;
+    }
+
+    // Adds index entries for the segment's lines from firstLine on
+    private void writeIndex(Segment segment, int firstLine, List<String> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(records.size() * 24);
+        DataOutputStream out = new DataOutputStream(bytes);
+        int epochDay = (int) segment.day.toEpochDay();
+        for (int i = 0; i < records.size(); i++) {
+            String parcelId = parcelIdOf(records.get(i));
+            byte[] id = parcelId.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(id.length);
+            out.write(id);
+            out.writeInt(epochDay);
+            out.writeInt(firstLine + i);
+            index.put(parcelId, (long) epochDay << 32 | (firstLine + i));
+        }
+        segment.count = firstLine + records.size();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            indexChannel.write(buffer);
+        }
+        if (DurableFiles.SYNC == DurableFiles.Sync.ALWAYS) {
+            indexChannel.force(false);
+        }
+    }
+
+    // Rebuilds the line offsets of the active segment and indexes any lines
+    // past the ones already indexed
+    private void scanActive(int indexedLines) throws IOException {
+        List<String> unindexed = new ArrayList<>();
+        int lines = 0;
+        long lineStart = 0;
+        try (FileChannel channel = FileChannel.open(active.file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long position = 0;
+            int read;
+            while ((read = channel.read(buffer.clear(), position)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        addOffset(lineStart);
+                        lineStart = position + i + 1;
+                        lines++;
+                    }
+                }
+                position += read;
+            }
+            tornTail = lineStart < position;
+        }
+        length = lineStart;
+        active.count = Math.min(indexedLines, lines);
+        for (int line = active.count; line < lines; line++) {
+            unindexed.add(readActiveLine(line));
+        }
+        if (!unindexed.isEmpty()) {
+            writeIndex(active, active.count, unindexed);
+        }
+        active.count = lines;
+    }
+
+    // Complete lines only; a torn tail of the active segment is left out
+    private List<String> readLines(Segment segment) throws IOException {
+        List<String> lines = new ArrayList<>(segment.count);
+        InputStream in = Files.newInputStream(segment.file);
+        if (segment.compressed) {
+            in = new GZIPInputStream(in);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            int limit = segment == active ? active.count : Integer.MAX_VALUE;
+            while (lines.size() < limit && (line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private void cacheText(Segment segment, SegmentText text) {
+        segmentCache.put(segment, text);
+        segmentCacheBytes += text.bytes.length + 4L * text.lineStarts.length;
+        Iterator<Map.Entry<Segment, SegmentText>> eldest = segmentCache.entrySet().iterator();
+        while (segmentCacheBytes > SEGMENT_CACHE_BYTES && segmentCache.size() > 1) {
+            SegmentText evicted = eldest.next().getValue();
+            eldest.remove();
+            segmentCacheBytes -= evicted.bytes.length + 4L * evicted.lineStarts.length;
+        }
+    }
+
+    private static SegmentText readText(Segment segment) throws IOException {
+        InputStream in = Files.newInputStream(segment.file);
+        if (segment.compressed) {
+            in = new GZIPInputStream(in);
+        }
+        try (InputStream input = in) {
+            return new SegmentText(input.readAllBytes());
+        }
+    }
+
+    private String readActiveLine(int line) throws IOException {
+        long start = offsets[line];
+        long end = line + 1 < activeLines ? offsets[line + 1] : length;
+        byte[] bytes = new byte[(int) (end - start)];
+        try (RandomAccessFile in = new RandomAccessFile(active.file.toFile(), "r")) {
+            in.seek(start);
+            in.readFully(bytes);
+        }
+        int trimmed = bytes.length;
+        while (trimmed > 0 && (bytes[trimmed - 1] == '\n' || bytes[trimmed - 1] == '\r')) {
+            trimmed--;
+        }
+        return new String(bytes, 0, trimmed, StandardCharsets.UTF_8);
+    }
+
+    // A segment with no records shares its first position with the next, which replaces it here
+    private Segment segmentAt(int index) {
+        return segmentsByFirstIndex.floorEntry(index).getValue();
+    }
+
+    private void addOffset(long offset) {
+        if (activeLines == offsets.length) {
+            offsets = Arrays.copyOf(offsets, activeLines * 2);
+        }
+        offsets[activeLines++] = offset;
+    }
+
+    private void closeFiles() {
+        try {
+            if (activeChannel != null) {
+                activeChannel.close();
+            }
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing released records: " + e.getMessage());
+        }
+        activeChannel = null;
+        indexChannel = null;
+    }
+
+    private static boolean isEmpty(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+            return !files.iterator().hasNext();
+        }
+    }
+}
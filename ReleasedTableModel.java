@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+// Table view over the released records. Rows are read from the store a page
+// at a time on the command thread and kept in a small row cache; the EDT only
+// reads that cache, and shows a row as blank until its page arrives. Filtering
+// and sorting are done by the store over the whole history, which hands back
+// the positions to show, rather than by a RowSorter reading every row here.
+public class ReleasedTableModel extends AbstractTableModel implements ReleasedStore.Listener {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"Customer", "Parcel ID", "Weight", "Dimensions", "Status", "Fee"};
+    private static final int PAGE_SIZE = 256;
+    private static final int CACHED_PAGES = 64;
+
+    private final ReleasedStore releasedStore;
+    private final ManagerCommandExecutor commands;
+    // Everything below is only touched on the EDT
+    // Records the table has been told about
+    private int rowCount;
+    // Store positions of the rows shown while filtered or sorted, or null for all in order
+    private int[] view;
+    private String filter = "";
+    private int sortColumn = -1;
+    private boolean descending;
+    // Bumped with every new selection, so a slower earlier one is dropped
+    private int selection;
+    private CompletableFuture<int[]> selecting;
+    private final Set<Integer> requestedPages = new HashSet<>();
+    private final Map<Integer, String[][]> pages = new LinkedHashMap<>(CACHED_PAGES, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[][]> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    public ReleasedTableModel(ReleasedStore releasedStore, ManagerCommandExecutor commands) {
+        this.releasedStore = releasedStore;
+        this.commands = commands;
+    }
+
+    public void attach() {
+        int size = releasedStore.addListener(this);
+        SwingUtilities.invokeLater(() -> {
+            rowCount = size;
+            fireTableDataChanged();
+        });
+    }
+
+    public void detach() {
+        releasedStore.removeListener(this);
+    }
+
+    // Shows only the records with a field containing the text, ignoring case
+    public void setFilter(String text) {
+        filter = text.trim().toLowerCase(Locale.ROOT);
+        select();
+    }
+
+    // Sorts by the column, reversing the order when it is already sorted by it
+    public void sortBy(int column) {
+        descending = column == sortColumn && !descending;
+        sortColumn = column;
+        select();
+    }
+
+    @Override
+    public int getRowCount() {
+        return view != null ? view.length : rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        String name = COLUMNS[column];
+        return column != sortColumn ? name : name + (descending ? " ▼" : " ▲");
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int position = view != null ? view[row] : row;
+        String[][] page = pages.get(position / PAGE_SIZE);
+        if (page == null) {
+            requestPage(position / PAGE_SIZE);
+            return "";
+        }
+        String[] fields = page[position % PAGE_SIZE];
+        return fields == null || column >= fields.length ? "" : fields[column];
+    }
+
+    @Override
+    public void recordsAppended(int firstIndex, int lastIndex) {
+        SwingUtilities.invokeLater(() -> {
+            rowCount = lastIndex + 1;
+            // The last page may have been read while it was short
+            pages.remove(firstIndex / PAGE_SIZE);
+            if (view != null) {
+                select();
+            } else {
+                fireTableRowsInserted(firstIndex, lastIndex);
+            }
+        });
+    }
+
+    private void requestPage(int page) {
+        if (!requestedPages.add(page)) {
+            return;
+        }
+        commands.submitListing(null, area -> readPage(page)).whenComplete((rows, error) ->
+                SwingUtilities.invokeLater(() -> {
+                    requestedPages.remove(page);
+                    if (rows != null) {
+                        pages.put(page, rows);
+                        if (getRowCount() > 0) {
+                            fireTableRowsUpdated(0, getRowCount() - 1);
+                        }
+                    }
+                }));
+    }
+
+    // On the command thread
+    private String[][] readPage(int page) {
+        String[][] rows = new String[PAGE_SIZE][];
+        int first = page * PAGE_SIZE;
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            String record;
+            try {
+                record = releasedStore.getRecord(first + i);
+            } catch (IOException e) {
+                rows[i] = new String[] {"Error: " + e.getMessage()};
+                continue;
+            }
+            if (record == null) {
+                break;
+            }
+            rows[i] = ReleasedStore.fieldsOf(record);
+        }
+        return rows;
+    }
+
+    private void select() {
+        int current = ++selection;
+        if (selecting != null) {
+            // Skipped if it has not started yet
+            selecting.cancel(false);
+        }
+        String text = filter;
+        Predicate<String[]> accepts = text.isEmpty() ? null : fields -> {
+            for (String field : fields) {
+                if (field.toLowerCase(Locale.ROOT).contains(text)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+        Comparator<String[]> order = null;
+        if (sortColumn >= 0) {
+            int column = sortColumn;
+            order = (a, b) -> compareFields(column < a.length ? a[column] : "", column < b.length ? b[column] : "");
+            if (descending) {
+                order = order.reversed();
+            }
+        }
+        if (accepts == null && order == null) {
+            selecting = null;
+            view = null;
+            fireTableStructureChanged();
+            return;
+        }
+        Comparator<String[]> sortOrder = order;
+        selecting = commands.submitListing(null, area -> {
+            try {
+                return releasedStore.select(accepts, sortOrder);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        ManagerCommandExecutor.onEdt(selecting, positions -> {
+            if (current == selection) {
+                view = positions;
+                fireTableStructureChanged();
+            }
+        }, error -> System.err.println("Error selecting released records: " + error.getMessage()));
+    }
+
+    // Numbers (weights, fees) by value, anything else as text
+    private static int compareFields(String a, String b) {
+        try {
+            return Double.compare(Double.parseDouble(a.replace("£", "")), Double.parseDouble(b.replace("£", "")));
+        } catch (NumberFormatException e) {
+            return a.compareToIgnoreCase(b);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.Map;
+
+// Decides which shard of a DepotShards a parcel id belongs to. An id must keep
+// mapping to the same shard, so the shards and prefixes of a depot cannot be
+// changed once it holds parcels.
+public interface ShardRouter {
+    int shardCount();
+
+    int shardFor(String parcelId);
+
+    // Spreads ids evenly over the shards. String.hashCode is fixed by the
+    // language, so ids route the same way in every run.
+    static ShardRouter hashing(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        return new ShardRouter() {
+            @Override
+            public int shardCount() {
+                return shards;
+            }
+
+            @Override
+            public int shardFor(String parcelId) {
+                // Mixed so ids that differ in one character do not land on every n-th shard in step
+                int hash = parcelId.hashCode() * 0x9E3779B9;
+                return Math.floorMod(hash ^ (hash >>> 16), shards);
+            }
+        };
+    }
+
+    // Routes an id to the shard of its longest prefix in the map, and ids
+    // without one as the fallback does
+    static ShardRouter byPrefix(Map<String, Integer> prefixes, ShardRouter fallback) {
+        int longest = 0;
+        for (Map.Entry<String, Integer> entry : prefixes.entrySet()) {
+            if (entry.getValue() < 0 || entry.getValue() >= fallback.shardCount()) {
+                throw new IllegalArgumentException("Prefix " + entry.getKey() + " routed to a missing shard");
+            }
+            longest = Math.max(longest, entry.getKey().length());
+        }
+        int maxLength = longest;
+        Map<String, Integer> routes = Map.copyOf(prefixes);
+        return new ShardRouter() {
+            @Override
+            public int shardCount() {
+                return fallback.shardCount();
+            }
+
+            @Override
+            public int shardFor(String parcelId) {
+                for (int length = Math.min(maxLength, parcelId.length()); length > 0; length--) {
+                    Integer shard = routes.get(parcelId.substring(0, length));
+                    if (shard != null) {
+                        return shard;
+                    }
+                }
+                return fallback.shardFor(parcelId);
+            }
+        };
+    }
+}
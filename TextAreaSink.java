@@ -0,0 +1,20 @@
+import java.util.function.Consumer;
+
+import javax.swing.JTextArea;
+
+// Off-screen text area handed to Manager methods so their output can be routed
+// somewhere other than a visible component, e.g. onto the event dispatch thread.
+public class TextAreaSink extends JTextArea {
+    private static final long serialVersionUID = 1L;
+
+    private final Consumer<String> target;
+
+    public TextAreaSink(Consumer<String> target) {
+        this.target = target;
+    }
+
+    @Override
+    public void append(String text) {
+        target.accept(text);
+    }
+}
@@ -1,27 +1,46 @@
 public class Worker {
-    private static final double BASE_FEE = 10.0;
-    private static final double WEIGHT_RATE = 0.5;
-    private static final double DAYS_RATE = 1.0;
+    private final RateTable rates;
+    private final LatencyHistogram processTimer;
+
+    public Worker() {
+        this(RateTable.STANDARD);
+    }
+
+    public Worker(RateTable rates) {
+        this(rates, DepotMetrics.getInstance());
+    }
+
+    // Counters pass their depot's metrics so their timings are recorded there
+    public Worker(RateTable rates, DepotMetrics metrics) {
+        this.rates = rates;
+        this.processTimer = metrics.timer("worker.processCustomer");
+    }
+
+    public RateTable getRates() {
+        return rates;
+    }
 
     public double calculateFee(Parcel parcel) {
-        double fee = BASE_FEE;
-        fee += parcel.getWeight() * WEIGHT_RATE;
-        fee += parcel.getDaysInDepot() * DAYS_RATE;
-        return fee;
+        return rates.fee(parcel.getWeight(), parcel.getDaysInDepot());
     }
 
-    public void processCustomer(Customer customer, ParcelMap parcelMap, Log log) {
-        Parcel parcel = parcelMap.getParcel(customer.getParcelId());
-        if (parcel != null) {
-            double fee = calculateFee(parcel);
-            releaseParcel(parcel);
-            log.addEntry(String.format("Customer %s collected parcel %s. Fee: £%.2f",
-                    customer.getName(), parcel.getId(), fee));
+    // Releases the caller's copy of the parcel, so its status reads Released
+    // afterwards, and returns the fee; -1 if another counter released it first.
+    // Logging the collection is left to the caller, once the release is journaled.
+    public double processCustomer(Parcel parcel, ParcelMap parcelMap) {
+        long start = System.nanoTime();
+        try {
+            if (!releaseParcel(parcel, parcelMap)) {
+                return -1;
+            }
+            return calculateFee(parcel);
+        } finally {
+            processTimer.recordNanos(System.nanoTime() - start);
         }
     }
 
-    private void releaseParcel(Parcel parcel) {
-        parcel.setStatus("Released");
-
+    private boolean releaseParcel(Parcel parcel, ParcelMap parcelMap) {
+        return parcelMap.transitionStatus(parcel, ParcelStatus.RELEASED);
     }
-}
\ No newline at end of file
+}
+